@@ -0,0 +1,103 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+// A bitmap for filters whose entries are exactly 8, 16 or 32 bits wide, in which case each entry is one array element.
+// A range within a single element (e.g. a fingerprint, or a metadata bit) is then read or written with one array access,
+// rather than with the two-word arithmetic of QuickBitVector. Subclasses implement this fast path over their own array type,
+// and fall back on the methods here for ranges that span several elements, which filters rarely issue.
+public abstract class AlignedBitmap extends Bitmap {
+
+	// the largest number of elements a single array can hold
+	public static final long MAX_NUM_ELEMENTS = Integer.MAX_VALUE - 8;
+
+	final int element_bits;
+	final int element_shift; // log2 of element_bits
+
+	AlignedBitmap(int new_element_bits) {
+		element_bits = new_element_bits;
+		element_shift = Integer.numberOfTrailingZeros(new_element_bits);
+	}
+
+	// returns an aligned bitmap whose elements are bits_per_entry wide, or null if there is no such specialization
+	public static AlignedBitmap make(int bits_per_entry, long num_entries) {
+		if (num_entries > MAX_NUM_ELEMENTS - Long.SIZE) {
+			return null;
+		}
+		if (bits_per_entry == 8) {
+			return new ByteAlignedBitmap(num_entries);
+		}
+		else if (bits_per_entry == 16) {
+			return new ShortAlignedBitmap(num_entries);
+		}
+		else if (bits_per_entry == 32) {
+			return new IntAlignedBitmap(num_entries);
+		}
+		return null;
+	}
+
+	// like the other bitmaps, the array is padded to a whole number of 64-bit words,
+	// so that reading a few bits past the last entry stays within the bitmap
+	static int num_elements_needed(int element_bits, long num_entries) {
+		long elements_per_word = Long.SIZE / element_bits;
+		return (int)((num_entries + elements_per_word - 1) / elements_per_word * elements_per_word);
+	}
+
+	abstract long numElements();
+	// returns the element's bits as an unsigned value
+	abstract long getElement(int index);
+	abstract void setElement(int index, long value);
+
+	@Override
+	public long size() {
+		return numElements() << element_shift;
+	}
+
+	@Override
+	public int word_bits() {
+		return element_bits;
+	}
+
+	long getFromToSpanning(long from, long to) {
+		long result = 0;
+		int filled = 0;
+		for (long pos = from; pos < to; ) {
+			int offset = (int)(pos & (element_bits - 1));
+			int len = (int)Math.min(element_bits - offset, to - pos);
+			long chunk = (getElement((int)(pos >>> element_shift)) >>> offset) & ((1L << len) - 1);
+			result |= chunk << filled;
+			filled += len;
+			pos += len;
+		}
+		return result;
+	}
+
+	void setFromToSpanning(long from, long to, long value) {
+		int filled = 0;
+		for (long pos = from; pos < to; ) {
+			int index = (int)(pos >>> element_shift);
+			int offset = (int)(pos & (element_bits - 1));
+			int len = (int)Math.min(element_bits - offset, to - pos);
+			long mask = ((1L << len) - 1) << offset;
+			long chunk = ((value >>> filled) << offset) & mask;
+			setElement(index, (getElement(index) & ~mask) | chunk);
+			filled += len;
+			pos += len;
+		}
+	}
+
+}
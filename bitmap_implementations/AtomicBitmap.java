@@ -0,0 +1,93 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+// A bitmap on the heap that can be read by several threads while other threads write to it.
+// Words are read with acquire semantics and written with release semantics, so a reader that observes a word
+// also observes everything its writer did before writing it.
+// Writes to part of a word (set() and setFromTo()) are compare-and-swapped into the word, so that concurrent writers
+// of different bits in the same word never undo each other. Each word is updated atomically, but a range that crosses
+// a word boundary is written as two separate updates, which a reader may observe one at a time.
+public class AtomicBitmap extends WordBitmap implements Cloneable {
+
+	static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+	static final long MAX_NUM_WORDS = Integer.MAX_VALUE - 8;
+
+	long[] words;
+
+	public AtomicBitmap(int bits_per_entry, long num_entries) {
+		long num_words = num_words_needed(bits_per_entry, num_entries);
+		if (num_words > MAX_NUM_WORDS) {
+			throw new IllegalArgumentException("an atomic bitmap holds at most " + MAX_NUM_WORDS + " words, " + num_words + " were requested");
+		}
+		words = new long[(int) num_words];
+	}
+
+	// the copy is taken word by word, and is only consistent if no thread writes to this bitmap meanwhile
+	@Override
+	public Object clone() {
+		AtomicBitmap ab = (AtomicBitmap) super.clone();
+		ab.words = words.clone();
+		return ab;
+	}
+
+	@Override
+	public long numWords() {
+		return words.length;
+	}
+
+	@Override
+	protected long getWord(long word_index) {
+		return (long) WORDS.getAcquire(words, (int) word_index);
+	}
+
+	@Override
+	protected void setWord(long word_index, long value) {
+		WORDS.setRelease(words, (int) word_index, value);
+	}
+
+	@Override
+	protected void setWordBits(long word_index, long mask, long bits) {
+		int i = (int) word_index;
+		long word = (long) WORDS.getAcquire(words, i);
+		long new_word = (word & ~mask) | bits;
+		while (word != new_word) {
+			long witness = (long) WORDS.compareAndExchangeRelease(words, i, word, new_word);
+			if (witness == word) {
+				return;
+			}
+			word = witness;
+			new_word = (word & ~mask) | bits;
+		}
+	}
+
+	@Override
+	public void set(long bit_index, boolean value) {
+		int i = (int)(bit_index >>> QuickBitVector.ADDRESS_BITS_PER_UNIT);
+		long mask = 1L << (bit_index & QuickBitVector.BIT_INDEX_MASK);
+		if (value) {
+			WORDS.getAndBitwiseOrRelease(words, i, mask);
+		}
+		else {
+			WORDS.getAndBitwiseAndRelease(words, i, ~mask);
+		}
+	}
+
+}
@@ -32,6 +32,51 @@ public abstract class Bitmap { //抽象类
 	
 	public abstract long getFromTo(long from, long to);
 	
+	// the number of bits that getFromTo and setFromTo access with a single array read or write, for ranges aligned to it, 
+	// so that callers that walk a long range piece by piece can pick pieces this implementation handles cheaply
+	public int word_bits() {
+		return 64;
+	}
+	
+	// moves the bits in [from, to) by distance positions, towards higher positions if distance is positive.
+	// As with memmove, the source and destination ranges may overlap, and the vacated bits keep their old values.
+	// This moves 64 bits per step, so subclasses only override it when they can do better (e.g. copy whole array elements).
+	public void shiftRange(long from, long to, long distance) {
+		if (distance > 0) {
+			for (long end = to; end > from; ) {
+				long start = Math.max(from, end - 64);
+				setFromTo(start + distance, end + distance, getFromTo(start, end));
+				end = start;
+			}
+		}
+		else if (distance < 0) {
+			for (long start = from; start < to; ) {
+				long end = Math.min(to, start + 64);
+				setFromTo(start + distance, end + distance, getFromTo(start, end));
+				start = end;
+			}
+		}
+	}
+	
+	// returns a cursor that reads entries of width bits, stride bits apart, starting at first_bit. See SlotCursor.
+	public SlotCursor cursor(long first_bit, int stride, int width) {
+		return new SlotCursor(this, first_bit, stride, width);
+	}
+	
+	// sets all bits to 0, e.g. so that the bitmap can be reused for a new filter
+	public void clear() {
+		long size = size();
+		for (long i = 0; i < size; i += 64) {
+			setFromTo(i, Math.min(i + 64, size), 0);
+		}
+	}
+	
+	// frees the memory held by the bitmap when it is not reclaimed by the garbage collector (e.g. off-heap memory)
+	// the bitmap must not be used after it is released
+	public void release() {
+		
+	}
+	
 	public static boolean get_fingerprint_bit(long index, long fingerprint) {
 		long mask = 1 << index;
 		long and = fingerprint & mask;
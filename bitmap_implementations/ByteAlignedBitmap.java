@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+import java.util.Arrays;
+
+// An aligned bitmap storing each 8-bit entry in a byte
+public class ByteAlignedBitmap extends AlignedBitmap implements Cloneable {
+
+	byte[] elements;
+
+	public ByteAlignedBitmap(long num_entries) {
+		super(8);
+		elements = new byte[num_elements_needed(8, num_entries)];
+	}
+
+	@Override
+	public Object clone() {
+		ByteAlignedBitmap b = (ByteAlignedBitmap) super.clone();
+		b.elements = Arrays.copyOf(elements, elements.length);
+		return b;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(elements, (byte) 0);
+	}
+
+	@Override
+	long numElements() {
+		return elements.length;
+	}
+
+	@Override
+	long getElement(int index) {
+		return elements[index] & 0xFFL;
+	}
+
+	@Override
+	void setElement(int index, long value) {
+		elements[index] = (byte) value;
+	}
+
+	@Override
+	public boolean get(long bit_index) {
+		return ((elements[(int)(bit_index >>> 3)] >>> (bit_index & 7)) & 1) != 0;
+	}
+
+	@Override
+	public void set(long bit_index, boolean value) {
+		int index = (int)(bit_index >>> 3);
+		int mask = 1 << (bit_index & 7);
+		elements[index] = (byte)(value ? elements[index] | mask : elements[index] & ~mask);
+	}
+
+	@Override
+	public long getFromTo(long from, long to) {
+		int offset = (int)(from & 7);
+		if (offset + (to - from) <= 8) {
+			long element = elements[(int)(from >>> 3)] & 0xFFL;
+			return (element >>> offset) & ((1L << (to - from)) - 1);
+		}
+		return getFromToSpanning(from, to);
+	}
+
+	@Override
+	public void setFromTo(long from, long to, long value) {
+		int offset = (int)(from & 7);
+		if (offset + (to - from) <= 8) {
+			int index = (int)(from >>> 3);
+			long mask = ((1L << (to - from)) - 1) << offset;
+			elements[index] = (byte)((elements[index] & ~mask) | ((value << offset) & mask));
+			return;
+		}
+		setFromToSpanning(from, to, value);
+	}
+
+	// moving whole entries is a copy within the array
+	@Override
+	public void shiftRange(long from, long to, long distance) {
+		if (((from | to | distance) & 7) == 0) {
+			System.arraycopy(elements, (int)(from >>> 3), elements, (int)((from + distance) >>> 3), (int)((to - from) >>> 3));
+			return;
+		}
+		super.shiftRange(from, to, distance);
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+import java.util.Arrays;
+
+// A paged bitmap whose clones share their pages until either side writes to them.
+// Cloning only copies the table of pages, so a snapshot of a filter costs O(pages) rather than a copy of all of its bits.
+// A page that is shared is never written. Instead, the first write to it copies the page, and the writer keeps the copy.
+// Both the bitmap and its clone forget that they own their pages when cloning, so each of them copies a page
+// the first time it writes to it afterward, even if the other side has since let go of it.
+// Pages are smaller than those of SegmentedBitmap, so that a write after a snapshot only copies a small part of the bitmap.
+public class CopyOnWriteBitmap extends SegmentedBitmap {
+
+	public static final int DEFAULT_PAGE_SHIFT = 9; // pages of 2^9 words (4KB)
+
+	boolean[] owned; // whether each page may be written in place, since no other bitmap refers to it
+
+	public CopyOnWriteBitmap(int bits_per_entry, long num_entries) {
+		this(bits_per_entry, num_entries, DEFAULT_PAGE_SHIFT);
+	}
+
+	public CopyOnWriteBitmap(int bits_per_entry, long num_entries, int new_page_shift) {
+		super(bits_per_entry, num_entries, new_page_shift);
+		owned = new boolean[pages.length];
+		Arrays.fill(owned, true);
+	}
+
+	@Override
+	public Object clone() {
+		CopyOnWriteBitmap cb = (CopyOnWriteBitmap) super.clone();
+		cb.owned = new boolean[pages.length];
+		return cb;
+	}
+
+	@Override
+	protected long[] clone_page(int page_index) {
+		owned[page_index] = false;
+		return pages[page_index];
+	}
+
+	@Override
+	protected void setWord(long word_index, long value) {
+		int page_index = (int)(word_index >>> page_shift);
+		if (!owned[page_index]) {
+			pages[page_index] = pages[page_index].clone();
+			owned[page_index] = true;
+		}
+		pages[page_index][(int)(word_index & page_mask)] = value;
+	}
+
+	// returns the number of pages this bitmap currently shares with its clones or with the bitmap it was cloned from
+	public int numSharedPages() {
+		int count = 0;
+		for (boolean o : owned) {
+			count += o ? 0 : 1;
+		}
+		return count;
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+import java.util.Arrays;
+
+// An aligned bitmap storing each 32-bit entry in an int
+public class IntAlignedBitmap extends AlignedBitmap implements Cloneable {
+
+	int[] elements;
+
+	public IntAlignedBitmap(long num_entries) {
+		super(32);
+		elements = new int[num_elements_needed(32, num_entries)];
+	}
+
+	@Override
+	public Object clone() {
+		IntAlignedBitmap b = (IntAlignedBitmap) super.clone();
+		b.elements = Arrays.copyOf(elements, elements.length);
+		return b;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(elements, 0);
+	}
+
+	@Override
+	long numElements() {
+		return elements.length;
+	}
+
+	@Override
+	long getElement(int index) {
+		return elements[index] & 0xFFFFFFFFL;
+	}
+
+	@Override
+	void setElement(int index, long value) {
+		elements[index] = (int) value;
+	}
+
+	@Override
+	public boolean get(long bit_index) {
+		return ((elements[(int)(bit_index >>> 5)] >>> (bit_index & 31)) & 1) != 0;
+	}
+
+	@Override
+	public void set(long bit_index, boolean value) {
+		int index = (int)(bit_index >>> 5);
+		int mask = 1 << (bit_index & 31);
+		elements[index] = value ? elements[index] | mask : elements[index] & ~mask;
+	}
+
+	@Override
+	public long getFromTo(long from, long to) {
+		int offset = (int)(from & 31);
+		if (offset + (to - from) <= 32) {
+			long element = elements[(int)(from >>> 5)] & 0xFFFFFFFFL;
+			return (element >>> offset) & ((1L << (to - from)) - 1);
+		}
+		return getFromToSpanning(from, to);
+	}
+
+	@Override
+	public void setFromTo(long from, long to, long value) {
+		int offset = (int)(from & 31);
+		if (offset + (to - from) <= 32) {
+			int index = (int)(from >>> 5);
+			long mask = ((1L << (to - from)) - 1) << offset;
+			elements[index] = (int)((elements[index] & ~mask) | ((value << offset) & mask));
+			return;
+		}
+		setFromToSpanning(from, to, value);
+	}
+
+	// moving whole entries is a copy within the array
+	@Override
+	public void shiftRange(long from, long to, long distance) {
+		if (((from | to | distance) & 31) == 0) {
+			System.arraycopy(elements, (int)(from >>> 5), elements, (int)((from + distance) >>> 5), (int)((to - from) >>> 5));
+			return;
+		}
+		super.shiftRange(from, to, distance);
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+// A bitmap stored in a memory-mapped file, so that a filter survives restarts of the process.
+// The file starts with a header page of 64-bit fields followed by the words of the bitmap.
+// The first two header fields are used by this class (a magic number and the number of words).
+// The remaining fields are free for the owner of the bitmap to record whatever it needs to reopen it.
+// Reopening only maps the file, and pages are loaded lazily by the operating system as they are touched.
+// The file is always little-endian so that it can be moved across machines.
+public class MappedFileBitmap extends OffHeapBitmap {
+
+	public static final int HEADER_BYTES = 4096;
+	public static final int NUM_HEADER_FIELDS = HEADER_BYTES / Long.BYTES;
+	public static final int FIRST_FREE_HEADER_FIELD = 2;
+
+	static final long MAGIC = 0x414c455048424d50L; // ALEPHBMP
+	static final int MAGIC_FIELD = 0;
+	static final int NUM_WORDS_FIELD = 1;
+
+	Path path;
+
+	MappedFileBitmap(MappedByteBuffer new_buffer, long new_num_words, Path new_path) {
+		super(new_buffer, HEADER_BYTES, new_num_words);
+		path = new_path;
+	}
+
+	// creates (or truncates) the file and maps a zeroed bitmap with room for num_entries entries of bits_per_entry bits
+	public static MappedFileBitmap create(Path path, int bits_per_entry, long num_entries) throws IOException {
+		long num_words = num_words_needed(bits_per_entry, num_entries);
+		if (num_words > MAX_NUM_WORDS - NUM_HEADER_FIELDS) {
+			throw new IllegalArgumentException("a mapped bitmap holds at most " + (MAX_NUM_WORDS - NUM_HEADER_FIELDS) + " words, " + num_words + " were requested");
+		}
+		long num_bytes = HEADER_BYTES + num_words * Long.BYTES;
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, num_bytes);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		MappedFileBitmap bitmap = new MappedFileBitmap(buffer, num_words, path);
+		bitmap.setHeaderField(MAGIC_FIELD, MAGIC);
+		bitmap.setHeaderField(NUM_WORDS_FIELD, num_words);
+		return bitmap;
+	}
+
+	// maps an existing file created by create()
+	public static MappedFileBitmap open(Path path) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			long num_bytes = channel.size();
+			if (num_bytes < HEADER_BYTES || num_bytes > Integer.MAX_VALUE) {
+				throw new IOException(path + " is not a mapped bitmap file");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, num_bytes);
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		long num_words = buffer.getLong(NUM_WORDS_FIELD * Long.BYTES);
+		if (buffer.getLong(MAGIC_FIELD * Long.BYTES) != MAGIC || HEADER_BYTES + num_words * Long.BYTES > buffer.capacity()) {
+			free_direct_buffer(buffer);
+			throw new IOException(path + " is not a mapped bitmap file");
+		}
+		return new MappedFileBitmap(buffer, num_words, path);
+	}
+
+	public Path get_path() {
+		return path;
+	}
+
+	// atomically renames the file, replacing the target if it exists. The mapping stays valid.
+	public void rename_to(Path target) throws IOException {
+		Files.move(path, target, StandardCopyOption.ATOMIC_MOVE);
+		path = target;
+	}
+
+	public long getHeaderField(int field) {
+		return buffer.getLong(field * Long.BYTES);
+	}
+
+	public void setHeaderField(int field, long value) {
+		buffer.putLong(field * Long.BYTES, value);
+	}
+
+	// writes all modified pages, including the header, back to the file
+	public void flush() {
+		((MappedByteBuffer) buffer).force();
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+// A bitmap stored in a direct ByteBuffer outside of the Java heap.
+// Large filters backed by this class do not inflate the old generation or lengthen full GC pauses.
+// The memory can be freed eagerly with release() rather than waiting for the buffer to be collected.
+// A single direct buffer is addressed by an int, so this bitmap holds at most 2^31 - 8 bytes.
+public class OffHeapBitmap extends WordBitmap implements Cloneable {
+
+	static final long MAX_NUM_WORDS = (Integer.MAX_VALUE - 7) / Long.BYTES;
+
+	ByteBuffer buffer;
+	int base_offset; // byte offset of the first word within the buffer
+	long num_words;
+
+	public OffHeapBitmap(int bits_per_entry, long num_entries) {
+		this(allocate(num_words_needed(bits_per_entry, num_entries)), 0, num_words_needed(bits_per_entry, num_entries));
+	}
+
+	protected OffHeapBitmap(ByteBuffer new_buffer, int new_base_offset, long new_num_words) {
+		buffer = new_buffer;
+		base_offset = new_base_offset;
+		num_words = new_num_words;
+	}
+
+	static ByteBuffer allocate(long num_words) {
+		if (num_words > MAX_NUM_WORDS) {
+			throw new IllegalArgumentException("an off-heap bitmap holds at most " + MAX_NUM_WORDS + " words, " + num_words + " were requested");
+		}
+		return ByteBuffer.allocateDirect((int)(num_words * Long.BYTES)).order(ByteOrder.nativeOrder());
+	}
+
+	@Override
+	public Object clone() {
+		ByteBuffer copy = allocate(num_words);
+		ByteBuffer source = buffer.duplicate();
+		source.limit(base_offset + (int)(num_words * Long.BYTES));
+		source.position(base_offset);
+		copy.put(source);
+		copy.clear();
+		return new OffHeapBitmap(copy, 0, num_words);
+	}
+
+	@Override
+	public long numWords() {
+		return num_words;
+	}
+
+	@Override
+	protected long getWord(long word_index) {
+		return buffer.getLong(base_offset + (int)(word_index << 3));
+	}
+
+	@Override
+	protected void setWord(long word_index, long value) {
+		buffer.putLong(base_offset + (int)(word_index << 3), value);
+	}
+
+	@Override
+	public void release() {
+		if (buffer != null) {
+			free_direct_buffer(buffer);
+			buffer = null;
+		}
+	}
+
+	// Direct buffers are normally freed only once they are garbage collected.
+	// The JDK exposes a way to run the buffer's cleaner eagerly through sun.misc.Unsafe, which we look up reflectively
+	// so that this class still loads on runtimes where it is unavailable. In that case, we fall back to the garbage collector.
+	private static final Object unsafe;
+	private static final Method invoke_cleaner;
+
+	static {
+		Object u = null;
+		Method m = null;
+		try {
+			Class<?> unsafe_class = Class.forName("sun.misc.Unsafe");
+			Field f = unsafe_class.getDeclaredField("theUnsafe");
+			f.setAccessible(true);
+			u = f.get(null);
+			m = unsafe_class.getMethod("invokeCleaner", ByteBuffer.class);
+		} catch (Exception e) {
+			u = null;
+			m = null;
+		}
+		unsafe = u;
+		invoke_cleaner = m;
+	}
+
+	static void free_direct_buffer(ByteBuffer b) {
+		if (invoke_cleaner == null || !b.isDirect()) {
+			return;
+		}
+		try {
+			invoke_cleaner.invoke(unsafe, b);
+		} catch (Exception e) {
+			// the buffer is a slice or duplicate of another buffer, or the cleaner cannot be invoked.
+			// Either way, the garbage collector will still free it.
+		}
+	}
+
+}
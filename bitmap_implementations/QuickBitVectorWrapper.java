@@ -22,6 +22,9 @@ public class QuickBitVectorWrapper extends Bitmap implements Cloneable {
 
 	long[] bs;
 	
+	// the largest bitmap a single long[] can hold. Larger bitmaps must be segmented.
+	public static final long MAX_NUM_BITS = (long)(Integer.MAX_VALUE - 8) * Long.SIZE;
+	
 	public QuickBitVectorWrapper(int bits_per_entry, long num_entries) {
 		bs = QuickBitVector.makeBitVector(num_entries, bits_per_entry);
 	}
@@ -33,6 +36,11 @@ public class QuickBitVectorWrapper extends Bitmap implements Cloneable {
 		return qv;
 	}
 
+	@Override
+	public void clear() {
+		Arrays.fill(bs, 0L);
+	}
+
 	@Override
 	public long size() {
 		return (long)bs.length * Long.BYTES * 8L;
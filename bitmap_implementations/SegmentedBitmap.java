@@ -0,0 +1,82 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+// A bitmap stored on the heap in power-of-two pages of long[], rather than in a single long[].
+// A single array holds at most 2^31 words (about 2^37 bits), which a filter with wide entries outgrows after enough expansions.
+// Locating a word takes a shift and a mask, and a range that crosses a page boundary is simply
+// a range whose two words sit in different pages, so it needs no special handling.
+public class SegmentedBitmap extends WordBitmap implements Cloneable {
+
+	public static final int DEFAULT_PAGE_SHIFT = 20; // pages of 2^20 words (8MB)
+
+	long[][] pages;
+	long num_words;
+	final int page_shift;
+	final long page_mask;
+
+	public SegmentedBitmap(int bits_per_entry, long num_entries) {
+		this(bits_per_entry, num_entries, DEFAULT_PAGE_SHIFT);
+	}
+
+	public SegmentedBitmap(int bits_per_entry, long num_entries, int new_page_shift) {
+		page_shift = new_page_shift;
+		page_mask = (1L << page_shift) - 1;
+		num_words = num_words_needed(bits_per_entry, num_entries);
+		long num_pages = (num_words + page_mask) >>> page_shift;
+		if (num_pages > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("a segmented bitmap with pages of 2^" + page_shift + " words cannot hold " + num_words + " words");
+		}
+		pages = new long[(int) num_pages][];
+		for (int i = 0; i < pages.length; i++) {
+			// the last page is only as long as needed, so that small bitmaps take no more memory than a single array
+			long page_start = (long) i << page_shift;
+			pages[i] = new long[(int) Math.min(page_mask + 1, num_words - page_start)];
+		}
+	}
+
+	@Override
+	public Object clone() {
+		SegmentedBitmap sb = (SegmentedBitmap) super.clone();
+		sb.pages = new long[pages.length][];
+		for (int i = 0; i < pages.length; i++) {
+			sb.pages[i] = clone_page(i);
+		}
+		return sb;
+	}
+
+	// returns the page that a clone of this bitmap starts out with
+	protected long[] clone_page(int page_index) {
+		return pages[page_index].clone();
+	}
+
+	@Override
+	public long numWords() {
+		return num_words;
+	}
+
+	@Override
+	protected long getWord(long word_index) {
+		return pages[(int)(word_index >>> page_shift)][(int)(word_index & page_mask)];
+	}
+
+	@Override
+	protected void setWord(long word_index, long value) {
+		pages[(int)(word_index >>> page_shift)][(int)(word_index & page_mask)] = value;
+	}
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+import java.util.Arrays;
+
+// An aligned bitmap storing each 16-bit entry in a short
+public class ShortAlignedBitmap extends AlignedBitmap implements Cloneable {
+
+	short[] elements;
+
+	public ShortAlignedBitmap(long num_entries) {
+		super(16);
+		elements = new short[num_elements_needed(16, num_entries)];
+	}
+
+	@Override
+	public Object clone() {
+		ShortAlignedBitmap b = (ShortAlignedBitmap) super.clone();
+		b.elements = Arrays.copyOf(elements, elements.length);
+		return b;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(elements, (short) 0);
+	}
+
+	@Override
+	long numElements() {
+		return elements.length;
+	}
+
+	@Override
+	long getElement(int index) {
+		return elements[index] & 0xFFFFL;
+	}
+
+	@Override
+	void setElement(int index, long value) {
+		elements[index] = (short) value;
+	}
+
+	@Override
+	public boolean get(long bit_index) {
+		return ((elements[(int)(bit_index >>> 4)] >>> (bit_index & 15)) & 1) != 0;
+	}
+
+	@Override
+	public void set(long bit_index, boolean value) {
+		int index = (int)(bit_index >>> 4);
+		int mask = 1 << (bit_index & 15);
+		elements[index] = (short)(value ? elements[index] | mask : elements[index] & ~mask);
+	}
+
+	@Override
+	public long getFromTo(long from, long to) {
+		int offset = (int)(from & 15);
+		if (offset + (to - from) <= 16) {
+			long element = elements[(int)(from >>> 4)] & 0xFFFFL;
+			return (element >>> offset) & ((1L << (to - from)) - 1);
+		}
+		return getFromToSpanning(from, to);
+	}
+
+	@Override
+	public void setFromTo(long from, long to, long value) {
+		int offset = (int)(from & 15);
+		if (offset + (to - from) <= 16) {
+			int index = (int)(from >>> 4);
+			long mask = ((1L << (to - from)) - 1) << offset;
+			elements[index] = (short)((elements[index] & ~mask) | ((value << offset) & mask));
+			return;
+		}
+		setFromToSpanning(from, to, value);
+	}
+
+	// moving whole entries is a copy within the array
+	@Override
+	public void shiftRange(long from, long to, long distance) {
+		if (((from | to | distance) & 15) == 0) {
+			System.arraycopy(elements, (int)(from >>> 4), elements, (int)((from + distance) >>> 4), (int)((to - from) >>> 4));
+			return;
+		}
+		super.shiftRange(from, to, distance);
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+// Reads consecutive fixed-width entries from a bitmap, e.g. the slots of a quotient filter or just their fingerprints.
+// The entries start at first_bit and are stride bits apart, and next() returns the low width bits of each entry in turn.
+// Rather than locating every entry in the bitmap from scratch, the cursor keeps a window of two aligned 64-bit words,
+// and only reads the bitmap when the next entry no longer fits in the window, i.e. about once every 64 bits.
+// The cursor reads a snapshot of the window, so it must not be used across modifications of the bitmap.
+public final class SlotCursor {
+
+	final Bitmap bitmap;
+	final long size;
+	final int stride;
+	final int width;
+	final long mask;
+	long position; // the first bit of the entry returned by the next call to next()
+	long wrap_end = Long.MAX_VALUE; // once the cursor reaches this bit, it continues from the start of the bitmap
+	long window_start = -1; // a multiple of 64, or -1 if the window was not read yet
+	long low;  // bits [window_start, window_start + 64)
+	long high; // bits [window_start + 64, window_start + 128)
+
+	public SlotCursor(Bitmap new_bitmap, long first_bit, int new_stride, int new_width) {
+		if (new_width < 0 || new_width > 64 || new_stride < new_width) {
+			throw new IllegalArgumentException("cannot read entries of " + new_width + " bits that are " + new_stride + " bits apart");
+		}
+		bitmap = new_bitmap;
+		size = bitmap.size();
+		stride = new_stride;
+		width = new_width;
+		mask = new_width == 64 ? -1L : (1L << width) - 1;
+		position = first_bit;
+	}
+
+	// returns the entry at the cursor and advances to the following one
+	public long next() {
+		long offset = position - window_start;
+		if (window_start < 0 || offset < 0 || offset + width > 128) {
+			refill();
+			offset = position - window_start;
+		}
+		position += stride;
+		if (position >= wrap_end) {
+			position -= wrap_end;
+		}
+		long entry;
+		if (offset >= 64) {
+			entry = high >>> (offset - 64);
+		}
+		else if (offset == 0) {
+			entry = low;
+		}
+		else {
+			entry = (low >>> offset) | (high << (64 - offset));
+		}
+		return entry & mask;
+	}
+
+	// skips over the given number of entries without reading them
+	public void skip(long num_entries) {
+		position += num_entries * stride;
+		if (position >= wrap_end) {
+			position %= wrap_end;
+		}
+	}
+	
+	// skips over up to max_entries entries whose bits are all zero, and returns how many it skipped. The bitmap is read
+	// a word at a time, so a stretch of zeros costs one read per 64 bits. It may stop early at a zero entry that follows a set bit
+	public long skip_zeros(long max_entries) {
+		long skipped = 0;
+		while (skipped < max_entries) {
+			long offset = position - window_start;
+			if (window_start < 0 || offset < 0 || offset >= 64) {
+				refill();
+				offset = position - window_start;
+			}
+			long bits = offset == 0 ? low : (low >>> offset) | (high << (64 - offset));
+			long zeros = bits == 0 ? 64 : Long.numberOfTrailingZeros(bits);
+			if (zeros < width) {
+				break;
+			}
+			long num_entries = Math.min((zeros - width) / stride + 1, max_entries - skipped);
+			num_entries = Math.min(num_entries, (wrap_end - position) / stride);
+			skip(num_entries);
+			skipped += num_entries;
+			if (bits != 0) {
+				break;
+			}
+		}
+		return skipped;
+	}
+
+	// makes the cursor continue from the start of the bitmap once it reaches the given bit, 
+	// e.g. to read the slots of a circular table of end_bit / stride entries
+	public SlotCursor wrap_at(long end_bit) {
+		wrap_end = end_bit;
+		if (position >= wrap_end) {
+			position %= wrap_end;
+		}
+		return this;
+	}
+
+	// returns the first bit of the entry the next call to next() returns
+	public long position() {
+		return position;
+	}
+
+	void refill() {
+		window_start = position & ~63L;
+		low = read_word(window_start);
+		high = read_word(window_start + 64);
+	}
+
+	long read_word(long from) {
+		if (from >= size) {
+			return 0;
+		}
+		return bitmap.getFromTo(from, Math.min(from + 64, size));
+	}
+
+}
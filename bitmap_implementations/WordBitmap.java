@@ -0,0 +1,117 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package bitmap_implementations;
+
+// A bitmap whose storage is addressed as a sequence of 64-bit words.
+// Subclasses only decide where the words live (off-heap, in a file, in pages, etc.),
+// while the bit-range arithmetic is the same as in QuickBitVector.
+// As with QuickBitVector, ranges are not bounds-checked and may span at most two words (64 bits).
+public abstract class WordBitmap extends Bitmap {
+
+	public abstract long numWords();
+	protected abstract long getWord(long word_index);
+	protected abstract void setWord(long word_index, long value);
+
+	static long num_words_needed(int bits_per_entry, long num_entries) {
+		long num_bits = num_entries * bits_per_entry;
+		return ((num_bits - 1) >>> QuickBitVector.ADDRESS_BITS_PER_UNIT) + 1;
+	}
+
+	@Override
+	public long size() {
+		return numWords() * QuickBitVector.BITS_PER_UNIT;
+	}
+
+	@Override
+	public void clear() {
+		long num_words = numWords();
+		for (long i = 0; i < num_words; i++) {
+			setWord(i, 0L);
+		}
+	}
+
+	@Override
+	public void set(long bit_index, boolean value) {
+		long word_index = bit_index >>> QuickBitVector.ADDRESS_BITS_PER_UNIT;
+		long mask = 1L << (bit_index & QuickBitVector.BIT_INDEX_MASK);
+		setWordBits(word_index, mask, value ? mask : 0);
+	}
+
+	// replaces the bits of a word selected by mask with bits, which must be zero outside of mask
+	protected void setWordBits(long word_index, long mask, long bits) {
+		setWord(word_index, (getWord(word_index) & ~mask) | bits);
+	}
+
+	@Override
+	public boolean get(long bit_index) {
+		long word = getWord(bit_index >>> QuickBitVector.ADDRESS_BITS_PER_UNIT);
+		return (word & (1L << (bit_index & QuickBitVector.BIT_INDEX_MASK))) != 0;
+	}
+
+	// returns the bits in [from, to) right-aligned in a long
+	@Override
+	public long getFromTo(long from, long to) {
+		if (from >= to) {
+			return 0L;
+		}
+		long last = to - 1;
+		long from_word = from >>> QuickBitVector.ADDRESS_BITS_PER_UNIT;
+		long to_word = last >>> QuickBitVector.ADDRESS_BITS_PER_UNIT;
+		int from_offset = (int)(from & QuickBitVector.BIT_INDEX_MASK);
+		int to_offset = (int)(last & QuickBitVector.BIT_INDEX_MASK);
+
+		if (from_word == to_word) { // range is contained in one word
+			long mask = QuickBitVector.bitMaskWithBitsSetFromTo(from_offset, to_offset);
+			return (getWord(from_word) & mask) >>> from_offset;
+		}
+
+		// range crosses a word boundary, so we take the high bits of the first word and the low bits of the second
+		long x1 = getWord(from_word) >>> from_offset;
+		long mask = QuickBitVector.bitMaskWithBitsSetFromTo(0, to_offset);
+		long x2 = (getWord(to_word) & mask) << (QuickBitVector.BITS_PER_UNIT - from_offset);
+		return x1 | x2;
+	}
+
+	// writes the low (to - from) bits of value into [from, to)
+	@Override
+	public void setFromTo(long from, long to, long value) {
+		if (from >= to) {
+			return;
+		}
+		long last = to - 1;
+		long from_word = from >>> QuickBitVector.ADDRESS_BITS_PER_UNIT;
+		long to_word = last >>> QuickBitVector.ADDRESS_BITS_PER_UNIT;
+		int from_offset = (int)(from & QuickBitVector.BIT_INDEX_MASK);
+		int to_offset = (int)(last & QuickBitVector.BIT_INDEX_MASK);
+
+		// make sure all unused bits to the left are cleared
+		long clean_value = value & QuickBitVector.bitMaskWithBitsSetFromTo(0, (int)(last - from));
+
+		if (from_word == to_word) {
+			long mask = QuickBitVector.bitMaskWithBitsSetFromTo(from_offset, to_offset);
+			setWordBits(from_word, mask, clean_value << from_offset);
+			return;
+		}
+
+		long mask = QuickBitVector.bitMaskWithBitsSetFromTo(from_offset, QuickBitVector.BIT_INDEX_MASK);
+		setWordBits(from_word, mask, clean_value << from_offset);
+		mask = QuickBitVector.bitMaskWithBitsSetFromTo(0, to_offset);
+		long shifted_value = clean_value >>> (QuickBitVector.BITS_PER_UNIT - from_offset);
+		setWordBits(to_word, mask, shifted_value);
+	}
+
+}
@@ -16,9 +16,13 @@ limitations under the License.
 
 package filters;
 
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Map.Entry;
 
 import bitmap_implementations.Bitmap;
+import bitmap_implementations.MappedFileBitmap;
+import bitmap_implementations.SlotCursor;
 
 import java.util.TreeMap;
 
@@ -38,11 +42,27 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 	}
 	
 	BasicInfiniFilter(int power_of_two, int bits_per_entry) {
-		super(power_of_two, bits_per_entry); // 调用了父类的构造函数 QuotientFilter，传递了两个参数 power_of_two 和 bits_per_entry; super是java的一个关键词，用于引用当前类的直接父类的成员（包括方法和构造函数）
+		this(power_of_two, bits_per_entry, BitmapType.on_heap);
+	}
+	
+	BasicInfiniFilter(int power_of_two, int bits_per_entry, BitmapType type) {
+		this(power_of_two, bits_per_entry, type, false);
+	}
+	
+	BasicInfiniFilter(int power_of_two, int bits_per_entry, BitmapType type, boolean separate_metadata) {
+		this(power_of_two, bits_per_entry, type, separate_metadata, false, null);
+	}
+	
+	BasicInfiniFilter(int power_of_two, int bits_per_entry, BitmapType type, boolean separate_metadata, boolean circular, BitmapPool pool) {
+		super(power_of_two, bits_per_entry, type, separate_metadata, circular, pool); // 调用了父类的构造函数 QuotientFilter，传递了两个参数 power_of_two 和 bits_per_entry; super是java的一个关键词，用于引用当前类的直接父类的成员（包括方法和构造函数）
 		max_entries_before_full = (long)(Math.pow(2, power_of_two_size) * fullness_threshold); //计算过滤器的理论最大容量
 		set_empty_fingerprint(fingerprintLength); //初始化过滤器中表示“空槽位”的指纹值?
 	}
 	
+	BasicInfiniFilter(int power_of_two, int bits_per_entry, Bitmap bitmap) {
+		super(power_of_two, bits_per_entry, bitmap);
+	}
+	
 	@Override
 	public Object clone() {
 		BasicInfiniFilter f = null;
@@ -69,8 +89,8 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 	}
 	
 	protected boolean compare(long index, long fingerprint, long generation) {
-		long first_fp_bit = index * bitPerEntry + 3;
-		long last_fp_bit = index * bitPerEntry + 3 + fingerprintLength - (generation + 1);
+		long first_fp_bit = fingerprint_start(index);
+		long last_fp_bit = first_fp_bit + fingerprintLength - (generation + 1);
 		long actual_fp_length = last_fp_bit - first_fp_bit;
 		long mask = (1L << actual_fp_length) - 1L;
 		long existing_fingerprint = filter.getFromTo(first_fp_bit, last_fp_bit);
@@ -78,6 +98,12 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		return existing_fingerprint == adjusted_saught_fp;
 	}
 	
+	protected boolean compare_fingerprints(long slot_fingerprint, long fingerprint) {
+		long generation = parse_unary_from_fingerprint(slot_fingerprint);
+		long mask = (1L << (fingerprintLength - generation - 1)) - 1;
+		return (slot_fingerprint & mask) == (fingerprint & mask);
+	}
+	
 	protected boolean compare(long index, long search_fingerprint, long generation, long slot_fingerprint) {
 		long mask = (1 << (fingerprintLength - generation - 1)) - 1;
 		long adjusted_saught_fp = search_fingerprint & mask;
@@ -127,6 +153,11 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		return age;
 	}
 	
+	// the generation of an entry is the unary counter at the top of its fingerprint. Void entries belong to the oldest generation
+	long get_generation(long fingerprint) {
+		return parse_unary_from_fingerprint(fingerprint);
+	}
+	
 	// TODO if we rejuvenate a void entry, we should subtract from num_void_entries 
 	// as if this count reaches zero, we can have shorter chains
 	public boolean rejuvenate(long key) {
@@ -144,9 +175,30 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		if (smallest_index == -1) {
 			return false;
 		}
+		if (sorted_runs) {
+			// the young fingerprint has a different place in the run, so the entry is moved there along with its value
+			long value = get_value(smallest_index);
+			delete(fingerprint, ideal_index, run_start_index, smallest_index);
+			num_physical_entries--;
+			return insert_with_value(fingerprint, ideal_index, value);
+		}
 		swap_fingerprints(smallest_index, fingerprint);
 		return true; 
 	}
+	
+	// the fingerprints of a sorted run are ordered by their remainders (see remainder_length) read from the lowest bit up, 
+	// and a remainder comes before the longer remainders it is the start of. An older fingerprint matches a younger one 
+	// if its remainder is the start of the younger one's in this reading, so it never comes after it. 
+	// Expanding the filter uses up the lowest bit of the remainders, which is the same for all the entries that move to a run, 
+	// so the runs of the next generation are sorted as well. 
+	int compare_in_run(long fingerprint1, long fingerprint2) {
+		int length1 = remainder_length(fingerprint1, fingerprintLength);
+		int length2 = remainder_length(fingerprint2, fingerprintLength);
+		long reversed1 = Long.reverse(fingerprint1 & ((1L << length1) - 1));
+		long reversed2 = Long.reverse(fingerprint2 & ((1L << length2) - 1));
+		int order = Long.compareUnsigned(reversed1, reversed2);
+		return order != 0 ? order : Integer.compare(length1, length2);
+	}
 
 	
 	long decide_which_fingerprint_to_delete(long index, long fingerprint) {
@@ -157,8 +209,10 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 	long find_largest_matching_fingerprint_in_run(long index, long fingerprint) {
 		long matching_fingerprint_index = -1;
 		long lowest_age = Integer.MAX_VALUE;
-		do {
-			long slot_fp = get_fingerprint(index);
+		long run_end = find_run_end(index);
+		SlotCursor fingerprints = fingerprint_cursor(index);
+		for (; index <= run_end; index++) {
+			long slot_fp = fingerprints.next();
 			long age = parse_unary_from_fingerprint(slot_fp);
 			//System.out.println("age " + age);
 			if (compare(index, fingerprint, age, slot_fp)) {
@@ -170,8 +224,10 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 					matching_fingerprint_index = index;
 				}
 			}
-			index++;
-		} while (is_continuation(index));
+			else if (sorted_runs && compare_in_run(slot_fp, fingerprint) > 0) {
+				break;
+			}
+		}
 		return matching_fingerprint_index; 
 	}
 	
@@ -210,14 +266,36 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 	}
 	
 	int get_num_void_entries_by_counting() {
-		int num = 0;
-		for (long i = 0; i < get_physcial_num_slots(); i++) {
-			long fp = get_fingerprint(i);
-			if (fp == empty_fingerprint) {
-				num++;
+		return (int) (long) new VoidEntryScan(this, 0, get_physcial_num_slots()).run();
+	}
+	
+	static class VoidEntryScan extends TableScan.SlotScan<Long> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		VoidEntryScan(BasicInfiniFilter qf, long from, long to) {
+			super(qf, from, to);
+		}
+		
+		TableScan<Long> part(long part_from, long part_to) {
+			return new VoidEntryScan((BasicInfiniFilter) qf, part_from, part_to);
+		}
+		
+		Long scan() {
+			long empty_fingerprint = ((BasicInfiniFilter) qf).empty_fingerprint;
+			long num = 0;
+			for (long i = from; i < to; i++) {
+				long fp = qf.get_fingerprint(i);
+				if (fp == empty_fingerprint) {
+					num++;
+				}
 			}
+			return num;
+		}
+		
+		Long merge(Long first, Long second) {
+			return first + second;
 		}
-		return num;
 	}
 
 	
@@ -257,15 +335,7 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		}
 	
 		
-		QuotientFilter new_qf = new QuotientFilter(power_of_two_size + 1, new_fingerprint_size + 3); //构建新的 Quotient Filter，Filter长度扩展为原来的两倍，条目长度用新指纹+3
-		Iterator it = new Iterator(this); //使用迭代器逐个读取原过滤器的槽位和指纹信息,把旧的数据放入新Filter	
-		//this 就是 new_qf
-		// 创建 new_qf 的迭代，初始如下参数
-		// 队列 s
-		// index = 0; 
-		// bucket_index = -1;		
-		// fingerprint = -1;
-
+		QuotientFilter new_qf = make_new_generation(power_of_two_size + 1, new_fingerprint_size + 3); //构建新的 Quotient Filter，Filter长度扩展为原来的两倍，条目长度用新指纹+3
 		
 		long unary_mask = prep_unary_mask(fingerprintLength, new_fingerprint_size); 
 		//fingerprintLength 是当前指纹长度
@@ -279,6 +349,39 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		//print_long_in_binary(empty_fingerprint, 32);
 		//num_void_entries = 0;
 		
+		move_entries_to_expanded(new_qf, unary_mask, current_empty_fingerprint);
+		//System.out.println("num_void_entries  " + num_void_entries);
+		empty_fingerprint = (1L << new_fingerprint_size) - 2 ;
+		fingerprintLength = new_fingerprint_size;
+		bitPerEntry = new_fingerprint_size + 3 + value_bits;
+		num_physical_entries = new_qf.num_physical_entries;
+		//num_void_entries = new_qf.num_void_entries;
+		power_of_two_size++;
+		if (!circular) {
+			num_extension_slots += 2;
+		}
+		max_entries_before_full = (long)(Math.pow(2, power_of_two_size) * fullness_threshold);
+		last_empty_slot = new_qf.last_empty_slot;
+		last_cluster_start = new_qf.last_cluster_start;
+		backward_steps = new_qf.backward_steps;
+		replace_generation(new_qf);
+		if (num_void_entries > 0) {//没啥影响
+			//is_full = true;
+		}
+		return true;
+	}
+	
+	// moves the entries into the table of the next generation. Each entry gives up the lowest bit of its fingerprint, which becomes
+	// the top bit of its slot address, and the unary counter at the top of its fingerprint grows by one
+	void move_entries_to_expanded(QuotientFilter new_qf, long unary_mask, long current_empty_fingerprint) {
+		EntryCursor it = new EntryCursor(this); //使用迭代器逐个读取原过滤器的槽位和指纹信息,把旧的数据放入新Filter	
+		//this 就是 new_qf
+		// 创建 new_qf 的迭代，初始如下参数
+		// 队列 s
+		// index = 0; 
+		// bucket_index = -1;		
+		// fingerprint = -1;
+
 		while (it.next()) {//遍历旧的qf,直到遍历完，取出每个slot的指纹和index
 			long bucket = it.bucket_index;
 			long fingerprint = it.fingerprint;
@@ -288,7 +391,7 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 				long updated_bucket = bucket | bucket_mask;	 // adding the pivot bit to the slot address field 扩展后的新位置
 				long chopped_fingerprint = fingerprint >> 1; // getting rid of this pivot bit from the fingerprint //扩展后的新指纹
 				long updated_fingerprint = chopped_fingerprint | unary_mask; //添加了1比特扩展位				
-				new_qf.insert(updated_fingerprint, updated_bucket, false); //放入新的qf
+				new_qf.insert_with_value(updated_fingerprint, updated_bucket, it.value); //放入新的qf
 				
 				//print_long_in_binary(updated_fingerprint, 32);
 				if (updated_fingerprint == empty_fingerprint) { //某个旧元素更新后的指纹恰巧等于“空指纹”
@@ -320,33 +423,15 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 				handle_empty_fingerprint(it.bucket_index, new_qf);//该方法中没有具体操作，空的
 			}
 		}
-		//System.out.println("num_void_entries  " + num_void_entries);
-		empty_fingerprint = (1L << new_fingerprint_size) - 2 ;
-		fingerprintLength = new_fingerprint_size;
-		bitPerEntry = new_fingerprint_size + 3;
-		filter = new_qf.filter;
-		num_physical_entries = new_qf.num_physical_entries;
-		//num_void_entries = new_qf.num_void_entries;
-		power_of_two_size++;
-		num_extension_slots += 2;
-		max_entries_before_full = (int)(Math.pow(2, power_of_two_size) * fullness_threshold);
-		last_empty_slot = new_qf.last_empty_slot;
-		last_cluster_start = new_qf.last_cluster_start;
-		backward_steps = new_qf.backward_steps;
-		if (num_void_entries > 0) {//没啥影响
-			//is_full = true;
-		}
-		return true;
 	}
-	
-	boolean widen() {
+		boolean widen() {
 		/*if (is_full()) {
 			return false;
 		}*/
 		//System.out.println("FP size: " + new_fingerprint_size);
 		int new_fingerprint_size = fingerprintLength + 1;
-		QuotientFilter new_qf = new QuotientFilter(power_of_two_size, new_fingerprint_size + 3);
-		Iterator it = new Iterator(this);		
+		QuotientFilter new_qf = make_new_generation(power_of_two_size, new_fingerprint_size + 3);
+		EntryCursor it = new EntryCursor(this);		
 		long unary_mask = prep_unary_mask(fingerprintLength, new_fingerprint_size - 1 );
 		unary_mask <<= 1;
 		set_empty_fingerprint(new_fingerprint_size);
@@ -361,7 +446,7 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 			long fingerprint = it.fingerprint;
 			
 			long updated_fingerprint = fingerprint | unary_mask;				
-			new_qf.insert(updated_fingerprint, bucket, false);
+			new_qf.insert_with_value(updated_fingerprint, bucket, it.value);
 
 			//print_long_in_binary(updated_fingerprint, 32);
 			//if (updated_fingerprint == empty_fingerprint) {
@@ -389,8 +474,7 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		//System.out.println("num_void_entries  " + num_void_entries);
 		empty_fingerprint = (1L << new_fingerprint_size) - 2 ;
 		fingerprintLength = new_fingerprint_size;
-		bitPerEntry = new_fingerprint_size + 3;
-		filter = new_qf.filter;
+		bitPerEntry = new_fingerprint_size + 3 + value_bits;
 		num_physical_entries = new_qf.num_physical_entries;
 		//num_void_entries = new_qf.num_void_entries;
 		//power_of_two_size++;
@@ -399,10 +483,99 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		last_empty_slot = new_qf.last_empty_slot;
 		last_cluster_start = new_qf.last_cluster_start;
 		backward_steps = new_qf.backward_steps;
+		replace_generation(new_qf);
 
 		return true;
 	}
 	
+	// a union that would fill the merged table past its expansion threshold is written into a larger table right away, 
+	// as long as neither filter has void entries, which expand() could not move into a larger table either
+	int merged_power(QuotientFilter other, boolean union) {
+		int power = super.merged_power(other, union);
+		long num_entries = num_physical_entries + other.num_physical_entries;
+		boolean can_expand = !is_full() && !((BasicInfiniFilter) other).is_full();
+		while (union && expand_autonomously && can_expand && num_entries >= (long) ((1L << power) * fullness_threshold)) {
+			power++;
+		}
+		return power;
+	}
+	
+	// the fingerprints keep the length of the larger filter, and the unary counters absorb the bits the entries of the smaller one lose
+	int merged_fingerprint_length(QuotientFilter other, int power) {
+		if (power_of_two_size != other.power_of_two_size) {
+			return power_of_two_size > other.power_of_two_size ? fingerprintLength : other.fingerprintLength;
+		}
+		return Math.max(fingerprintLength, other.fingerprintLength);
+	}
+	
+	// the bits under the unary counter of an entry are what is left of its hash. Moving the entry into a larger table uses up 
+	// the lowest of them, as expand() does, and the counter is then widened or narrowed to fill a fingerprint of target_length bits
+	long convert_fingerprint(long fingerprint, int extra_slot_bits, int target_length) {
+		long remainder_length = remainder_length(fingerprint, fingerprintLength) - extra_slot_bits;
+		if (remainder_length < 0) {
+			return -1;
+		}
+		remainder_length = Math.min(remainder_length, target_length - 1);
+		long remainder = (fingerprint >>> extra_slot_bits) & ((1L << remainder_length) - 1);
+		long unary_counter = ((1L << target_length) - 1) & ~((1L << (remainder_length + 1)) - 1);
+		return unary_counter | remainder;
+	}
+	
+	// only the bits below the unary counter of a fingerprint come from the hash of its key
+	int fingerprint_precision(long fingerprint, int length) {
+		return remainder_length(fingerprint, length);
+	}
+	
+	// the number of bits of a fingerprint of the given length below its unary counter and the zero that ends it
+	static int remainder_length(long fingerprint, int length) {
+		return length - 1 - Long.numberOfLeadingZeros(~(fingerprint << (64 - length)));
+	}
+	
+	void adopt_merged_generation(QuotientFilter new_qf) {
+		super.adopt_merged_generation(new_qf);
+		set_empty_fingerprint(fingerprintLength);
+		num_void_entries = get_num_void_entries_by_counting();
+		num_distinct_void_entries = num_void_entries;
+	}
+	
+	static final int HEADER_EMPTY_FINGERPRINT = HEADER_FIRST_SUBCLASS_FIELD;
+	static final int HEADER_NUM_VOID_ENTRIES = HEADER_FIRST_SUBCLASS_FIELD + 1;
+	static final int HEADER_NUM_DISTINCT_VOID_ENTRIES = HEADER_FIRST_SUBCLASS_FIELD + 2;
+	static final int HEADER_NUM_EXPANSIONS_ESTIMATE = HEADER_FIRST_SUBCLASS_FIELD + 3;
+	static final int HEADER_FPR_STYLE = HEADER_FIRST_SUBCLASS_FIELD + 4;
+	
+	long get_persisted_kind() {
+		return getClass() == BasicInfiniFilter.class ? KIND_BASIC_INFINIFILTER : 0;
+	}
+	
+	void write_header(MappedFileBitmap mapped) {
+		super.write_header(mapped);
+		mapped.setHeaderField(HEADER_EMPTY_FINGERPRINT, empty_fingerprint);
+		mapped.setHeaderField(HEADER_NUM_VOID_ENTRIES, num_void_entries);
+		mapped.setHeaderField(HEADER_NUM_DISTINCT_VOID_ENTRIES, num_distinct_void_entries);
+		mapped.setHeaderField(HEADER_NUM_EXPANSIONS_ESTIMATE, num_expansions_estimate);
+		mapped.setHeaderField(HEADER_FPR_STYLE, fprStyle.ordinal());
+	}
+	
+	void read_header(MappedFileBitmap mapped) {
+		super.read_header(mapped);
+		empty_fingerprint = mapped.getHeaderField(HEADER_EMPTY_FINGERPRINT);
+		num_void_entries = (int) mapped.getHeaderField(HEADER_NUM_VOID_ENTRIES);
+		num_distinct_void_entries = (int) mapped.getHeaderField(HEADER_NUM_DISTINCT_VOID_ENTRIES);
+		num_expansions_estimate = (int) mapped.getHeaderField(HEADER_NUM_EXPANSIONS_ESTIMATE);
+		fprStyle = FingerprintGrowthStrategy.FalsePositiveRateExpansion.values()[(int) mapped.getHeaderField(HEADER_FPR_STYLE)];
+	}
+	
+	// reopens an InfiniFilter persisted with persist_to()
+	public static BasicInfiniFilter open(Path path) throws IOException {
+		QuotientFilter qf = QuotientFilter.open(path);
+		if (!(qf instanceof BasicInfiniFilter)) {
+			qf.filter.release();
+			throw new IOException(path + " does not hold a persisted InfiniFilter");
+		}
+		return (BasicInfiniFilter) qf;
+	}
+	
 	boolean is_full() {//无效条目的数量大于0时，返回true,否则返回false
 		return num_void_entries > 0;
 	}
@@ -421,35 +594,12 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 	public void print_age_histogram() {	
 		
 		TreeMap<Long, Long> histogram = new TreeMap<Long, Long>();
-		int tombstones = 0;
-		int empty = 0;
+		long[] counts = new AgeScan(this, 0, get_logical_num_slots_plus_extensions()).run();
 		for (long i = 0; i <= fingerprintLength; i++) {
-			histogram.put(i, 0L);
-		}
-		
-		//long anomalies = 0;
-		for (int i = 0; i < get_logical_num_slots_plus_extensions(); i++) {
-			if (!is_slot_empty(i)) {
-				long fp = get_fingerprint(i);
-				long age = parse_unary(i); 	
-				//System.out.println();
-				//print_long_in_binary(age, 16);
-				//print_long_in_binary(fp, 16);
-				if (age >= 0) { 
-
-					long count = histogram.get(age);
-					histogram.put(age, count + 1);
-				}
-				else {
-					// entry is likely a deleted_void_fingerprint
-					//System.out.println();
-					tombstones++;
-				}
-			}
-			else {
-				empty++;
-			}
+			histogram.put(i, counts[(int) i]);
 		}
+		long tombstones = counts[fingerprintLength + 1];
+		long empty = counts[fingerprintLength + 2];
 		
 		System.out.println("fingerprint sizes histogram");
 		System.out.println("\tFP size" + "\t" + "count");
@@ -476,6 +626,48 @@ public class BasicInfiniFilter extends QuotientFilter implements Cloneable {
 		
 	}
 	
+	// counts the entries of each age, followed by the number of tombstones and the number of empty slots
+	static class AgeScan extends TableScan.SlotScan<long[]> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		AgeScan(BasicInfiniFilter qf, long from, long to) {
+			super(qf, from, to);
+		}
+		
+		TableScan<long[]> part(long part_from, long part_to) {
+			return new AgeScan((BasicInfiniFilter) qf, part_from, part_to);
+		}
+		
+		long[] scan() {
+			BasicInfiniFilter infini = (BasicInfiniFilter) qf;
+			long[] counts = new long[qf.fingerprintLength + 3];
+			for (long i = from; i < to; i++) {
+				if (!qf.is_slot_empty(i)) {
+					long age = infini.parse_unary(i);
+					if (age >= 0) {
+						counts[(int) age]++;
+					}
+					else {
+						// entry is likely a deleted_void_fingerprint
+						counts[qf.fingerprintLength + 1]++;
+					}
+				}
+				else {
+					counts[qf.fingerprintLength + 2]++;
+				}
+			}
+			return counts;
+		}
+		
+		long[] merge(long[] first, long[] second) {
+			for (int i = 0; i < first.length; i++) {
+				first[i] += second[i];
+			}
+			return first;
+		}
+	}
+	
 }
 
 
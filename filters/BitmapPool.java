@@ -0,0 +1,172 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.WeakHashMap;
+
+import bitmap_implementations.Bitmap;
+
+// Keeps the bitmaps that filters retire when they expand, widen or change their layout, 
+// and hands them out again when a filter later needs a bitmap of exactly the same dimensions. 
+// In a chain of filters (see ChainedInfiniFilter and Chaining), a new level often has the same size as a level retired earlier, 
+// so reusing its bitmap avoids allocating (and zeroing) another large array, which for the G1 collector is a humongous object. 
+// A filter uses a pool once it is given one with QuotientFilter.set_bitmap_pool(). A pool can be shared by several filters and threads. 
+// The pool retains at most max_retained_bits bits. Bitmaps that do not fit, or that were not allocated by the pool, are released instead. 
+public class BitmapPool {
+
+	static final class Dimensions {
+		final BitmapType type;
+		final int bits_per_entry;
+		final long num_entries;
+
+		Dimensions(BitmapType new_type, int new_bits_per_entry, long new_num_entries) {
+			type = new_type;
+			bits_per_entry = new_bits_per_entry;
+			num_entries = new_num_entries;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Dimensions)) {
+				return false;
+			}
+			Dimensions d = (Dimensions) o;
+			return type == d.type && bits_per_entry == d.bits_per_entry && num_entries == d.num_entries;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(type, bits_per_entry, num_entries);
+		}
+	}
+
+	final long max_retained_bits;
+	long retained_bits;
+	Map<Dimensions, ArrayDeque<Bitmap>> retired = new HashMap<Dimensions, ArrayDeque<Bitmap>>();
+	// the dimensions each bitmap was allocated with. The keys are weak, so that bitmaps of filters that are dropped can still be collected
+	Map<Bitmap, Dimensions> allocated = new WeakHashMap<Bitmap, Dimensions>();
+
+	long num_hits;
+	long num_misses;
+	long num_recycled;
+	long num_discarded;
+
+	public BitmapPool() {
+		this(Long.MAX_VALUE);
+	}
+
+	public BitmapPool(long new_max_retained_bits) {
+		max_retained_bits = new_max_retained_bits;
+	}
+
+	// returns a zeroed bitmap with room for num_entries entries of bits_per_entry bits, reusing a retired one if possible
+	synchronized Bitmap allocate(BitmapType type, int bits_per_entry, long num_entries) {
+		Dimensions dims = new Dimensions(type, bits_per_entry, num_entries);
+		ArrayDeque<Bitmap> candidates = retired.get(dims);
+		Bitmap bitmap;
+		if (candidates != null && !candidates.isEmpty()) {
+			bitmap = candidates.pop();
+			retained_bits -= bitmap.size();
+			bitmap.clear();
+			num_hits++;
+		}
+		else {
+			bitmap = Filter.make_bitmap(type, bits_per_entry, num_entries);
+			num_misses++;
+		}
+		allocated.put(bitmap, dims);
+		return bitmap;
+	}
+
+	// takes back a bitmap that its filter no longer uses. The bitmap must not be used by the filter afterward
+	synchronized void retire(Bitmap bitmap) {
+		Dimensions dims = allocated.remove(bitmap);
+		if (dims == null || retained_bits + bitmap.size() > max_retained_bits) {
+			bitmap.release();
+			num_discarded++;
+			return;
+		}
+		retired.computeIfAbsent(dims, d -> new ArrayDeque<Bitmap>()).push(bitmap);
+		retained_bits += bitmap.size();
+		num_recycled++;
+	}
+
+	// allocates a bitmap from a pool, or directly if the pool is null
+	static Bitmap allocate(BitmapPool pool, BitmapType type, int bits_per_entry, long num_entries) {
+		return pool == null ? Filter.make_bitmap(type, bits_per_entry, num_entries) : pool.allocate(type, bits_per_entry, num_entries);
+	}
+
+	// retires a bitmap to a pool, or releases it if the pool is null
+	static void retire(BitmapPool pool, Bitmap bitmap) {
+		if (pool == null) {
+			bitmap.release();
+		}
+		else {
+			pool.retire(bitmap);
+		}
+	}
+
+	// releases all the bitmaps the pool retains
+	public synchronized void clear() {
+		for (ArrayDeque<Bitmap> bitmaps : retired.values()) {
+			for (Bitmap b : bitmaps) {
+				b.release();
+			}
+		}
+		retired.clear();
+		retained_bits = 0;
+	}
+
+	// the number of allocations served with a retired bitmap
+	public synchronized long get_num_hits() {
+		return num_hits;
+	}
+
+	// the number of allocations that needed a new bitmap
+	public synchronized long get_num_misses() {
+		return num_misses;
+	}
+
+	public synchronized double get_hit_rate() {
+		long total = num_hits + num_misses;
+		return total == 0 ? 0 : num_hits / (double) total;
+	}
+
+	// the number of retired bitmaps the pool kept for reuse
+	public synchronized long get_num_recycled() {
+		return num_recycled;
+	}
+
+	// the number of retired bitmaps the pool released, because they did not fit or were not allocated by the pool
+	public synchronized long get_num_discarded() {
+		return num_discarded;
+	}
+
+	public synchronized long get_retained_bits() {
+		return retained_bits;
+	}
+
+	public synchronized String get_metrics_str() {
+		return "hits: " + num_hits + "  misses: " + num_misses + "  recycled: " + num_recycled + "  discarded: " + num_discarded
+				+ "  retained bits: " + retained_bits;
+	}
+
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+// determines which Bitmap implementation a filter allocates for its slots
+// on_heap picks a slot-aligned array when entries are 8, 16 or 32 bits wide
+// segmented stores the slots on the heap in pages, and is also picked for on_heap bitmaps too large for a single array
+// copy_on_write is a paged bitmap whose pages are shared between a filter and its clones until they are modified, so cloning is cheap
+// atomic can be read by several threads while it is written, see BloomFilter and QuotientFilter._search()
+// mapped_file cannot be allocated directly, since it needs a file. It is set by QuotientFilter.persist_to() and open()
+public enum BitmapType {
+	on_heap, off_heap, segmented, copy_on_write, atomic, mapped_file
+}
@@ -16,11 +16,25 @@ limitations under the License.
 
 package filters;
 
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
 import bitmap_implementations.Bitmap;
-import bitmap_implementations.QuickBitVectorWrapper;
 
+// With BitmapType.atomic, any number of threads may insert into and search this filter at the same time without locking, 
+// since an insertion only sets bits and every bit is set atomically. 
+// In that case, get_num_occupied_slots() remains exact, while num_logical_entries is only a best-effort count. 
 public class BloomFilter extends Filter {
 
+	static final VarHandle CURRENT_NUM_ENTRIES;
+	static {
+		try {
+			CURRENT_NUM_ENTRIES = MethodHandles.lookup().findVarHandle(BloomFilter.class, "current_num_entries", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
 	Bitmap filter;
 	long num_bits; 
 	long max_num_entries;
@@ -28,9 +42,14 @@ public class BloomFilter extends Filter {
 	long bits_per_entry;
 	int num_hash_functions;
 
-	public BloomFilter(int new_num_entries, int new_bits_per_entry) {
+	public BloomFilter(long new_num_entries, int new_bits_per_entry) {
+		this(new_num_entries, new_bits_per_entry, BitmapType.on_heap);
+	}
+	
+	public BloomFilter(long new_num_entries, int new_bits_per_entry, BitmapType type) {
 		max_num_entries = new_num_entries;
-		filter = new QuickBitVectorWrapper(new_bits_per_entry,  (int)max_num_entries);
+		bitmap_type = type;
+		filter = make_bitmap(bitmap_type, new_bits_per_entry, max_num_entries);
 		num_bits = new_bits_per_entry * max_num_entries;
 		bits_per_entry = new_bits_per_entry;
 		num_hash_functions = (int) Math.round( bits_per_entry * Math.log(2) );
@@ -69,7 +88,12 @@ public class BloomFilter extends Filter {
 			//System.out.println(target_bit);
 			filter.set(target_bit, true);
 		}
-		current_num_entries++;
+		if (bitmap_type == BitmapType.atomic) {
+			CURRENT_NUM_ENTRIES.getAndAdd(this, 1L);
+		}
+		else {
+			current_num_entries++;
+		}
 		return true;
 	}
 
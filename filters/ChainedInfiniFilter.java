@@ -17,6 +17,7 @@ limitations under the License.
 package filters;
 
 import java.util.ArrayList;
+import java.util.stream.LongStream;
 
 import filters.FingerprintGrowthStrategy.FalsePositiveRateExpansion;
 
@@ -87,6 +88,46 @@ public class ChainedInfiniFilter extends BasicInfiniFilter implements Cloneable
 		return false;
 	}
 	
+	public void set_bitmap_type(BitmapType type) {
+		super.set_bitmap_type(type);
+		if (secondary_IF != null) {
+			secondary_IF.set_bitmap_type(type);
+		}
+		for (BasicInfiniFilter f : chain) {
+			f.set_bitmap_type(type);
+		}
+	}
+	
+	public void set_separate_metadata(boolean val) {
+		super.set_separate_metadata(val);
+		if (secondary_IF != null) {
+			secondary_IF.set_separate_metadata(val);
+		}
+		for (BasicInfiniFilter f : chain) {
+			f.set_separate_metadata(val);
+		}
+	}
+	
+	public void set_circular(boolean val) {
+		super.set_circular(val);
+		if (secondary_IF != null) {
+			secondary_IF.set_circular(val);
+		}
+		for (BasicInfiniFilter f : chain) {
+			f.set_circular(val);
+		}
+	}
+	
+	public void set_bitmap_pool(BitmapPool pool) {
+		super.set_bitmap_pool(pool);
+		if (secondary_IF != null) {
+			secondary_IF.set_bitmap_pool(pool);
+		}
+		for (BasicInfiniFilter f : chain) {
+			f.set_bitmap_pool(pool);
+		}
+	}
+	
 	public boolean is_chain_empty() {
 		return chain.size() == 0;
 	}
@@ -108,6 +149,18 @@ public class ChainedInfiniFilter extends BasicInfiniFilter implements Cloneable
 		return secondary_IF;
 	}
 	
+	// the entries of the active filter come first, followed by those of the secondary filter and then those down the chain
+	LongStream entries(boolean parallel) {
+		LongStream entries = super.entries(parallel);
+		if (secondary_IF != null) {
+			entries = LongStream.concat(entries, secondary_IF.entries(parallel));
+		}
+		for (QuotientFilter qf : chain) {
+			entries = LongStream.concat(entries, qf.entries(parallel));
+		}
+		return entries;
+	}
+	
 	void prep_masks(long active_IF_power_of_two, long secondary_IF_power_of_two, long secondary_FP_length) {
 
 		long _slot_mask = (1L << secondary_IF_power_of_two) - 1L;
@@ -203,29 +256,49 @@ public class ChainedInfiniFilter extends BasicInfiniFilter implements Cloneable
 		}
 	}
 	
-	// The hash function is being computed here for each filter 
-	// However, it's not such an expensive function, so it's probably not a performance issue. 
-	public boolean search(long input) {
+	// The filters along the chain use the same hash function, so the hash is computed once and passed down the chain
+	boolean search_by_hash(long large_hash) {
 		
-		if (super.search(input)) {
+		if (super.search_by_hash(large_hash)) {
 			return true;
 		}
 		
-		if (secondary_IF != null && secondary_IF.search(input)) {
+		if (secondary_IF != null && secondary_IF.search_by_hash(large_hash)) {
 			return true;
 		}
 		
 		for (QuotientFilter qf : chain) {
-			if (qf.search(input)) {
+			if (qf.search_by_hash(large_hash)) {
 				return true;
 			}
 		}
 		return false;
 	}
 	
+	// the whole batch is probed in the active filter, and then the keys it lacks in the secondary filter and down the chain
+	void search_batch(long[] hashes, int[] keys, int count, long[] result_bits) {
+		super.search_batch(hashes, keys, count, result_bits);
+		search_older_filters(hashes, keys, count, result_bits);
+	}
+	
+	void search_older_filters(long[] hashes, int[] keys, int count, long[] result_bits) {
+		int misses = retain_misses(hashes, keys, count, result_bits);
+		if (secondary_IF != null && misses > 0) {
+			secondary_IF.search_batch(hashes, keys, misses, result_bits);
+			misses = retain_misses(hashes, keys, misses, result_bits);
+		}
+		for (QuotientFilter qf : chain) {
+			if (misses == 0) {
+				return;
+			}
+			qf.search_batch(hashes, keys, misses, result_bits);
+			misses = retain_misses(hashes, keys, misses, result_bits);
+		}
+	}
+	
 	void create_secondary(int power, int FP_size) {
 		power = Math.max(power, 3);
-		secondary_IF = new BasicInfiniFilter(power, FP_size + 3);
+		secondary_IF = new BasicInfiniFilter(power, FP_size + 3, bitmap_type, separate_metadata, circular, bitmap_pool);
 		secondary_IF.hash_type = this.hash_type;
 		secondary_IF.fprStyle = FingerprintGrowthStrategy.FalsePositiveRateExpansion.UNIFORM;
 		secondary_IF.original_fingerprint_size = original_fingerprint_size;
@@ -241,7 +314,7 @@ public class ChainedInfiniFilter extends BasicInfiniFilter implements Cloneable
 				new_power_of_two -= 2;
 			}
 			
-			secondary_IF = new BasicInfiniFilter(new_power_of_two, secondary_IF.fingerprintLength + 3);
+			secondary_IF = new BasicInfiniFilter(new_power_of_two, secondary_IF.fingerprintLength + 3, bitmap_type, separate_metadata, circular, bitmap_pool);
 			secondary_IF.hash_type = this.hash_type;
 			secondary_IF.original_fingerprint_size = original_fingerprint_size;
 			secondary_IF.fprStyle = FingerprintGrowthStrategy.FalsePositiveRateExpansion.UNIFORM;
@@ -276,7 +349,7 @@ public class ChainedInfiniFilter extends BasicInfiniFilter implements Cloneable
 	}
 	
 	boolean exceeding_secondary_threshold() {
-		int num_entries = secondary_IF.num_physical_entries /* + num_void_entries*/;
+		long num_entries = secondary_IF.num_physical_entries /* + num_void_entries*/;
 		long logical_slots = secondary_IF.get_logical_num_slots();
 		double secondary_fullness = num_entries / (double)logical_slots;
 		return secondary_fullness > fullness_threshold / 0.95;
@@ -346,8 +419,7 @@ public class ChainedInfiniFilter extends BasicInfiniFilter implements Cloneable
 	}
 	
 	
-	public long delete(long input) {
-		long large_hash = get_hash(input);
+	long delete_by_hash(long large_hash) {
 		long slot_index = get_slot_index(large_hash);
 		long fp_long = gen_fingerprint(large_hash);
 		//System.out.println("deleting  " + input + "\t b " + slot_index + " \t" + get_fingerprint_str(fp_long, fingerprintLength));
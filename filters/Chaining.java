@@ -17,6 +17,7 @@ limitations under the License.
 package filters;
 
 import java.util.ArrayList;
+import java.util.stream.LongStream;
 
 public class Chaining extends QuotientFilter {
 
@@ -39,12 +40,40 @@ public class Chaining extends QuotientFilter {
 	public Chaining(int power_of_two, int bits_per_entry) {
 		super(power_of_two, bits_per_entry);
 		older_filters = new ArrayList<QuotientFilter>();
-		max_entries_before_full = (int)(Math.pow(2, power_of_two_size) * fullness_threshold);
+		max_entries_before_full = (long)(Math.pow(2, power_of_two_size) * fullness_threshold);
 		sizeStyle = SizeExpansion.GEOMETRIC;
 		fprStyle = FingerprintGrowthStrategy.FalsePositiveRateExpansion.UNIFORM;
 	}
 	
 	ArrayList<QuotientFilter> older_filters;
+	
+	public void set_bitmap_type(BitmapType type) {
+		super.set_bitmap_type(type);
+		for (QuotientFilter q : older_filters) {
+			q.set_bitmap_type(type);
+		}
+	}
+	
+	public void set_separate_metadata(boolean val) {
+		super.set_separate_metadata(val);
+		for (QuotientFilter q : older_filters) {
+			q.set_separate_metadata(val);
+		}
+	}
+
+	public void set_circular(boolean val) {
+		super.set_circular(val);
+		for (QuotientFilter q : older_filters) {
+			q.set_circular(val);
+		}
+	}
+
+	public void set_bitmap_pool(BitmapPool pool) {
+		super.set_bitmap_pool(pool);
+		for (QuotientFilter q : older_filters) {
+			q.set_bitmap_pool(pool);
+		}
+	}
 
 	public long get_num_occupied_slots(boolean include_all_internal_filters) {
 		long num_entries = super.get_num_occupied_slots(false);
@@ -71,9 +100,24 @@ public class Chaining extends QuotientFilter {
 		return measure_num_bits_per_entry(this, older_filters);
 	}
 	
+	// the entries of the current filter come first, followed by those of the older filters from the oldest one on
+	LongStream entries(boolean parallel) {
+		LongStream entries = super.entries(parallel);
+		for (QuotientFilter q : older_filters) {
+			entries = LongStream.concat(entries, q.entries(parallel));
+		}
+		return entries;
+	}
+	
 	public boolean expand() {
 		QuotientFilter placeholder = new QuotientFilter(power_of_two_size, bitPerEntry, filter);
 		placeholder.hash_type = this.hash_type;
+		placeholder.bitmap_type = this.bitmap_type;
+		placeholder.bitmap_pool = bitmap_pool;
+		placeholder.separate_metadata = separate_metadata;
+		placeholder.planes = planes;
+		placeholder.circular = circular;
+		placeholder.num_extension_slots = num_extension_slots;
 		older_filters.add(placeholder);
 		placeholder.num_physical_entries = num_physical_entries;
 		num_physical_entries = 0;
@@ -82,23 +126,25 @@ public class Chaining extends QuotientFilter {
 		fingerprintLength = FingerprintGrowthStrategy.get_new_fingerprint_size(original_fingerprint_size, num_expansions, -1, fprStyle);
 		bitPerEntry = fingerprintLength + 3;
 		long init_size = 1L << power_of_two_size;
-		num_extension_slots += 2;		
+		if (!circular) {
+			num_extension_slots += 2;
+		}
 		filter = make_filter(init_size, bitPerEntry);
+		planes = make_planes(init_size);
 		super.update(init_size);
 		max_entries_before_full = (long)(Math.pow(2, power_of_two_size) * fullness_threshold);
 		//System.out.println("expanding");
 		return true;
 	}
 	
-	// The hash function is being computed here for each filter 
-	// However, it's not such an expensive function, so it's probably not a performance issue. 
-	public boolean search(long input) {
-		if (super.search(input)) {
+	// The filters along the chain use the same hash function, so the hash is computed once and passed down the chain
+	boolean search_by_hash(long large_hash) {
+		if (super.search_by_hash(large_hash)) {
 			return true;
 		}
 		
 		for (QuotientFilter qf : older_filters) {
-			if (qf.search(input)) {
+			if (qf.search_by_hash(large_hash)) {
 				return true;
 			}
 		}
@@ -106,6 +152,18 @@ public class Chaining extends QuotientFilter {
 		return false;
 	}
 	
+	void search_batch(long[] hashes, int[] keys, int count, long[] result_bits) {
+		super.search_batch(hashes, keys, count, result_bits);
+		int misses = retain_misses(hashes, keys, count, result_bits);
+		for (QuotientFilter qf : older_filters) {
+			if (misses == 0) {
+				return;
+			}
+			qf.search_batch(hashes, keys, misses, result_bits);
+			misses = retain_misses(hashes, keys, misses, result_bits);
+		}
+	}
+	
 	
 	void print_levels() {
 		double sum_FPRs = 0;
@@ -51,6 +51,32 @@ public class Client {
 		Tests.test25(); // testing false positive rate for cuckoo filter 
 		Tests.test26(); // testing false positive rate for bloom filter 
 		Tests.test27(); // exceeding the bound of the quotient filter 
+		Tests.test28(); // off-heap bitmap 
+		Tests.test29(); // persisting a filter to a memory-mapped file 
+		Tests.test30(); // segmented bitmap 
+		Tests.test31(); // slot-aligned bitmaps 
+		Tests.test32(); // separate metadata planes 
+		Tests.test33(); // shifting bit ranges 
+		Tests.test34(); // atomic bitmap 
+		Tests.test35(); // copy-on-write bitmap 
+		Tests.test36(); // slot cursor 
+		Tests.test37(); // bitmap pool 
+		Tests.test38(); // rank-and-select index of the metadata planes 
+		Tests.test39(); // circular filters 
+		Tests.test40(); // batched insertions and deletions 
+		Tests.test41(); // batched searches 
+		Tests.test42(); // building a filter from sorted hashes 
+		Tests.test43(); // union and intersection 
+		Tests.test44(); // counting quotient filter 
+		Tests.test45(); // maplet with values 
+		Tests.test46(); // range filter 
+		Tests.test47(); // sorted runs 
+		Tests.test48(); // expansion policy driven by probe length 
+		Tests.test49(); // entry cursor 
+		Tests.test50(); // streams of entries 
+		Tests.test51(); // parallel table scans 
+		Tests.test52(); // batch insertions under a probe cost policy 
+		Tests.test53(); // deleting from the middle of a long cluster 
 		
 		System.out.println("all tests passed");
 	}
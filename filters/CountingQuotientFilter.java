@@ -0,0 +1,391 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.Arrays;
+import java.util.Spliterator;
+
+// An InfiniFilter that counts how many times each fingerprint was inserted, in the style of the counting quotient filter.
+// A fingerprint inserted more than once is followed in its run by a counter, so a key inserted c times takes O(log c) slots
+// rather than c. The fingerprints of a run are kept in increasing order, which is what tells the counters apart:
+// a slot that holds a value no larger than the fingerprint before it belongs to that fingerprint's counter.
+// With r-bit fingerprints, M = 2^r, and a fingerprint x, a count c is encoded as
+//   c = 1: x
+//   c = 2: x x
+//   c > 2: x [0] d...d x   for x > 0, where the digits d encode c - 3 in base M - 2 with the symbols 1..M-1 other than x,
+//                          most significant first. The 0 precedes the digits if the first one is larger than x.
+//   c > 2: 0 0 0 d...d 0   for x = 0, where the digits encode c - 3 in base M - 1 with the symbols 1..M-1, and are absent if c = 3.
+// The number of physical entries of the filter counts the slots that hold fingerprints and counters.
+// Counts may be overestimated if other keys have matching fingerprints, but they are never underestimated.
+public class CountingQuotientFilter extends BasicInfiniFilter {
+
+	// the entries of the run being modified, in increasing order of their fingerprints, and the slots they are encoded into
+	long[] run_fingerprints = new long[8];
+	long[] run_counts = new long[8];
+	int run_num_entries;
+	long[] encoded_run = new long[8];
+	long[] digits = new long[64];
+
+	public CountingQuotientFilter(int power_of_two, int bits_per_entry) {
+		this(power_of_two, bits_per_entry, BitmapType.on_heap);
+	}
+
+	public CountingQuotientFilter(int power_of_two, int bits_per_entry, BitmapType type) {
+		this(power_of_two, bits_per_entry, type, false, null);
+	}
+
+	CountingQuotientFilter(int power_of_two, int bits_per_entry, BitmapType type, boolean separate_metadata, BitmapPool pool) {
+		super(power_of_two, bits_per_entry, type, separate_metadata, false, pool);
+		if (fingerprintLength < 2) {
+			throw new IllegalArgumentException("the counters need fingerprints of at least 2 bits");
+		}
+	}
+
+	@Override
+	public Object clone() {
+		CountingQuotientFilter f = (CountingQuotientFilter) super.clone();
+		f.run_fingerprints = new long[8];
+		f.run_counts = new long[8];
+		f.encoded_run = new long[8];
+		f.digits = new long[64];
+		return f;
+	}
+
+	// returns how many times the key was inserted, counting the keys whose fingerprints match its own
+	public long count(long key) {
+		long large_hash = get_hash(key);
+		long slot_index = get_slot_index(large_hash);
+		long fingerprint = gen_fingerprint(large_hash);
+		if (!is_occupied(slot_index)) {
+			return 0;
+		}
+		long run_start = find_run_start(slot_index);
+		long run_end = find_run_end(run_start);
+		long count = 0;
+		for (long index = run_start, next; index <= run_end; index = next) {
+			next = next_entry(index, run_end);
+			if (compare_fingerprints(get_fingerprint(index), fingerprint)) {
+				count += count_entry(index, next);
+			}
+		}
+		return count;
+	}
+
+	// given the slot of a fingerprint in a run, returns the slot of the next fingerprint, or run_end + 1 if it is the last one
+	long next_entry(long index, long run_end) {
+		long fingerprint = get_fingerprint(index);
+		if (index == run_end) {
+			return index + 1;
+		}
+		long next = get_fingerprint(index + 1);
+		if (fingerprint != 0) {
+			if (next > fingerprint) {
+				return index + 1;
+			}
+			if (next == fingerprint) {
+				return index + 2;
+			}
+			index += 2;
+			while (get_fingerprint(index) != fingerprint) {
+				index++;
+			}
+			return index + 1;
+		}
+		if (next != 0) {
+			return index + 1;
+		}
+		if (index + 1 == run_end || get_fingerprint(index + 2) != 0) {
+			return index + 2;
+		}
+		index += 3;
+		while (get_fingerprint(index) != 0) {
+			index++;
+		}
+		return index + 1;
+	}
+
+	// returns the count of the fingerprint in slot index, whose counter ends before slot next
+	long count_entry(long index, long next) {
+		long num_slots = next - index;
+		if (num_slots <= 2) {
+			return num_slots;
+		}
+		long fingerprint = get_fingerprint(index);
+		long value = 0;
+		if (fingerprint != 0) {
+			long base = (1L << fingerprintLength) - 2;
+			long digit_index = get_fingerprint(index + 1) == 0 ? index + 2 : index + 1;
+			for (; digit_index < next - 1; digit_index++) {
+				long symbol = get_fingerprint(digit_index);
+				value = value * base + (symbol < fingerprint ? symbol - 1 : symbol - 2);
+			}
+		}
+		else {
+			long base = (1L << fingerprintLength) - 1;
+			for (long digit_index = index + 3; digit_index < next - 1; digit_index++) {
+				value = value * base + get_fingerprint(digit_index) - 1;
+			}
+		}
+		return value + 3;
+	}
+
+	// a search only compares the fingerprints of a run, and skips over their counters
+	long find_first_fingerprint_in_run(long index, long fingerprint) {
+		long run_end = find_run_end(index);
+		for (; index <= run_end; index = next_entry(index, run_end)) {
+			if (compare_fingerprints(get_fingerprint(index), fingerprint)) {
+				return index;
+			}
+		}
+		return -1;
+	}
+
+	boolean insert(long long_fp, long index, boolean insert_only_if_no_match) {
+		if (insert_only_if_no_match && is_occupied(index) && find_first_fingerprint_in_run(find_run_start(index), long_fp) > -1) {
+			return false;
+		}
+		return insert(long_fp, index, 1);
+	}
+
+	// adds count to the count of a fingerprint in the run of a canonical slot, and returns false if the run cannot grow
+	boolean insert(long fingerprint, long index, long count) {
+		if (index > last_empty_slot) {
+			return false;
+		}
+		boolean new_run = !is_occupied(index);
+		if (new_run) {
+			if (!insert_new_run(index, fingerprint)) {
+				return false;
+			}
+			if (--count == 0) {
+				return true;
+			}
+		}
+		long run_start = find_run_start(index);
+		int old_length = decode_run(run_start);
+		int position = 0;
+		while (position < run_num_entries && run_fingerprints[position] < fingerprint) {
+			position++;
+		}
+		if (position == run_num_entries || run_fingerprints[position] != fingerprint) {
+			add_entry(position, fingerprint);
+		}
+		run_counts[position] += count;
+		int new_length = encode_run();
+		if (!resize_run(index, run_start, old_length, new_length)) {
+			if (new_run) {
+				resize_run(index, run_start, 1, 0);
+			}
+			return false;
+		}
+		write_run(run_start, new_length);
+		return true;
+	}
+
+	// decrements the count of the youngest entry that matches the fingerprint, which is removed once its count reaches zero
+	long delete(long fingerprint, long canonical_slot) {
+		if (canonical_slot >= get_logical_num_slots() || !is_occupied(canonical_slot)) {
+			return -1;
+		}
+		long run_start = find_run_start(canonical_slot);
+		int old_length = decode_run(run_start);
+		int matching_entry = -1;
+		long lowest_age = Long.MAX_VALUE;
+		for (int i = 0; i < run_num_entries; i++) {
+			if (compare_fingerprints(run_fingerprints[i], fingerprint)) {
+				long age = parse_unary_from_fingerprint(run_fingerprints[i]);
+				if (age < lowest_age) {
+					lowest_age = age;
+					matching_entry = i;
+				}
+			}
+		}
+		if (matching_entry == -1) {
+			return -1;
+		}
+		long removed_fp = run_fingerprints[matching_entry];
+		if (--run_counts[matching_entry] == 0) {
+			remove_entry(matching_entry);
+		}
+		int new_length = encode_run();
+		resize_run(canonical_slot, run_start, old_length, new_length);
+		write_run(run_start, new_length);
+		return removed_fp;
+	}
+
+	// delete() keeps track of the slots it frees
+	long delete_hash(long large_hash) {
+		return delete(gen_fingerprint(large_hash), get_slot_index(large_hash));
+	}
+
+	// reads the entries of the run that starts at run_start, and returns the number of slots it takes
+	int decode_run(long run_start) {
+		long run_end = find_run_end(run_start);
+		run_num_entries = 0;
+		for (long index = run_start, next; index <= run_end; index = next) {
+			next = next_entry(index, run_end);
+			add_entry(run_num_entries, get_fingerprint(index));
+			run_counts[run_num_entries - 1] = count_entry(index, next);
+		}
+		return (int) (run_end - run_start + 1);
+	}
+
+	void add_entry(int position, long fingerprint) {
+		if (run_num_entries == run_fingerprints.length) {
+			run_fingerprints = Arrays.copyOf(run_fingerprints, run_num_entries * 2);
+			run_counts = Arrays.copyOf(run_counts, run_num_entries * 2);
+		}
+		System.arraycopy(run_fingerprints, position, run_fingerprints, position + 1, run_num_entries - position);
+		System.arraycopy(run_counts, position, run_counts, position + 1, run_num_entries - position);
+		run_fingerprints[position] = fingerprint;
+		run_counts[position] = 0;
+		run_num_entries++;
+	}
+
+	void remove_entry(int position) {
+		System.arraycopy(run_fingerprints, position + 1, run_fingerprints, position, run_num_entries - position - 1);
+		System.arraycopy(run_counts, position + 1, run_counts, position, run_num_entries - position - 1);
+		run_num_entries--;
+	}
+
+	// encodes the entries of the run into encoded_run, and returns the number of slots they take
+	int encode_run() {
+		int length = 0;
+		for (int i = 0; i < run_num_entries; i++) {
+			length = encode_entry(run_fingerprints[i], run_counts[i], length);
+		}
+		return length;
+	}
+
+	int encode_entry(long fingerprint, long count, int length) {
+		length = append_slot(fingerprint, length);
+		if (count == 1) {
+			return length;
+		}
+		if (count == 2) {
+			return append_slot(fingerprint, length);
+		}
+		long value = count - 3;
+		int num_digits = 0;
+		if (fingerprint != 0) {
+			long base = (1L << fingerprintLength) - 2;
+			do {
+				long digit = value % base;
+				digits[num_digits++] = digit + 1 < fingerprint ? digit + 1 : digit + 2;
+				value /= base;
+			} while (value > 0);
+			if (digits[num_digits - 1] > fingerprint) {
+				length = append_slot(0, length);
+			}
+		}
+		else {
+			long base = (1L << fingerprintLength) - 1;
+			for (; value > 0; value /= base) {
+				digits[num_digits++] = value % base + 1;
+			}
+			length = append_slot(0, length);
+			length = append_slot(0, length);
+		}
+		while (num_digits > 0) {
+			length = append_slot(digits[--num_digits], length);
+		}
+		return append_slot(fingerprint, length);
+	}
+
+	int append_slot(long value, int length) {
+		if (length == encoded_run.length) {
+			encoded_run = Arrays.copyOf(encoded_run, length * 2);
+		}
+		encoded_run[length] = value;
+		return length + 1;
+	}
+
+	// grows or shrinks the run that starts at run_start by adding or removing slots at its end,
+	// and returns false if there is no room to grow it
+	boolean resize_run(long canonical_slot, long run_start, long old_length, long new_length) {
+		for (long length = old_length; length < new_length; length++) {
+			if (!insert_fingerprint_and_push_all_else(0, run_start)) {
+				resize_run(canonical_slot, run_start, length, old_length);
+				return false;
+			}
+		}
+		for (long length = old_length; length > new_length; length--) {
+			delete(0, canonical_slot, run_start, run_start + length - 1);
+			num_physical_entries--;
+		}
+		return true;
+	}
+
+	void write_run(long run_start, int length) {
+		for (int i = 0; i < length; i++) {
+			set_fingerprint(run_start + i, encoded_run[i]);
+		}
+	}
+
+	QuotientFilter make_new_generation(int power_of_two, int bits_per_entry) {
+		CountingQuotientFilter new_qf = new CountingQuotientFilter(power_of_two, bits_per_entry, bitmap_type, separate_metadata, bitmap_pool);
+		new_qf.hash_type = hash_type;
+		return new_qf;
+	}
+
+	// each entry moves to the next generation with its count, rather than slot by slot as an EntryCursor would read it
+	void move_entries_to_expanded(QuotientFilter new_qf, long unary_mask, long current_empty_fingerprint) {
+		CountingQuotientFilter target = (CountingQuotientFilter) new_qf;
+		long num_slots = get_logical_num_slots();
+		for (long bucket = 0; bucket < num_slots; bucket++) {
+			if (!is_occupied(bucket)) {
+				continue;
+			}
+			long run_start = find_run_start(bucket);
+			long run_end = find_run_end(run_start);
+			for (long index = run_start, next; index <= run_end; index = next) {
+				next = next_entry(index, run_end);
+				long fingerprint = get_fingerprint(index);
+				if (fingerprint == current_empty_fingerprint) {
+					continue;
+				}
+				long pivot_bit = 1 & fingerprint;
+				long updated_bucket = bucket | (pivot_bit << power_of_two_size);
+				long updated_fingerprint = (fingerprint >> 1) | unary_mask;
+				target.insert(updated_fingerprint, updated_bucket, count_entry(index, next));
+				if (updated_fingerprint == empty_fingerprint) {
+					report_void_entry_creation(updated_bucket);
+				}
+			}
+		}
+	}
+
+	public boolean rejuvenate(long key) {
+		throw new UnsupportedOperationException("the entries of a counting filter cannot be rejuvenated");
+	}
+
+	public void set_circular(boolean val) {
+		if (val) {
+			throw new UnsupportedOperationException("a counting filter cannot wrap around");
+		}
+	}
+
+	public void build_from_hashes(long[] hashes) {
+		throw new UnsupportedOperationException("a counting filter cannot be built from hashes");
+	}
+
+	// the slots after a fingerprint hold its counter, which an EntryCursor would read as more fingerprints
+	public Spliterator.OfLong entry_spliterator() {
+		throw new UnsupportedOperationException("the entries of a counting filter cannot be streamed");
+	}
+
+}
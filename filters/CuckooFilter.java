@@ -19,7 +19,6 @@ package filters;
 import java.util.Random;
 
 import bitmap_implementations.Bitmap;
-import bitmap_implementations.QuickBitVectorWrapper;
 
 public class CuckooFilter extends Filter {
 
@@ -40,8 +39,13 @@ public class CuckooFilter extends Filter {
 	long leftover_fingerprint = 0;
 
 	public CuckooFilter(int power_of_two, int new_bits_per_entry) {
-		max_num_entries = (long) Math.pow(2, power_of_two);
-		filter = new QuickBitVectorWrapper(new_bits_per_entry,  (int)max_num_entries);
+		this(power_of_two, new_bits_per_entry, BitmapType.on_heap);
+	}
+	
+	public CuckooFilter(int power_of_two, int new_bits_per_entry, BitmapType type) {
+		max_num_entries = 1L << power_of_two;
+		bitmap_type = type;
+		filter = make_bitmap(bitmap_type, new_bits_per_entry, max_num_entries);
 		num_bits = new_bits_per_entry * max_num_entries;
 		bits_per_entry = new_bits_per_entry;
 		hash_type = HashType.xxh;
@@ -68,13 +72,13 @@ public class CuckooFilter extends Filter {
 			large_hash = HashFunctions.xxhash(large_hash);
 			fingerprint = gen_fingerprint(large_hash);
 		}
-		int bucket1 = get_bucket_index(large_hash);
+		long bucket1 = get_bucket_index(large_hash);
 		long removed = remove(bucket1, fingerprint);	
 		if (removed > -1) {
 			return removed;
 		}	
 		long second_large_hash = HashFunctions.xxhash(fingerprint);
-		int bucket2 = bucket1 ^ get_bucket_index(second_large_hash);
+		long bucket2 = bucket1 ^ get_bucket_index(second_large_hash);
 		removed = remove(bucket2, fingerprint);
 		return removed;
 	}
@@ -141,9 +145,9 @@ public class CuckooFilter extends Filter {
 	
 
 	
-	int get_bucket_index(long large_hash) {
-		int bucket_index_mask = (1 << power_of_two_buckets) - 1;
-		int bucket_index = ((int)(large_hash)) & bucket_index_mask;
+	long get_bucket_index(long large_hash) {
+		long bucket_index_mask = (1L << power_of_two_buckets) - 1;
+		long bucket_index = large_hash & bucket_index_mask;
 		//System.out.format("\n**get_slot_index(): [total_hash:index_hash:int_index] --> [%016x:%016x:%016x]\n", large_hash, (int)large_hash, slot_index);
 		return bucket_index;
 	}
@@ -156,7 +160,7 @@ public class CuckooFilter extends Filter {
 			large_hash = HashFunctions.xxhash(large_hash);
 			fingerprint = gen_fingerprint(large_hash);
 		}
-		int bucket1 = get_bucket_index(large_hash);
+		long bucket1 = get_bucket_index(large_hash);
 		
 		/*print_long_in_binary(large_hash, 64);
 		print_long_in_binary(bucket1, power_of_two_buckets);
@@ -174,9 +178,9 @@ public class CuckooFilter extends Filter {
 	}
 	
 	// return 0 if successful, and return fingerprint of element there was no space for otherwise
-	boolean replacement_algorithm(int original_bucket, long fingerprint, int swaps) {
+	boolean replacement_algorithm(long original_bucket, long fingerprint, int swaps) {
 		long second_large_hash = HashFunctions.xxhash(fingerprint);
-		int alternative_bucket = original_bucket ^ get_bucket_index(second_large_hash);
+		long alternative_bucket = original_bucket ^ get_bucket_index(second_large_hash);
 		
 		/*System.out.println("swap");
 		print_long_in_binary(original_bucket, power_of_two_buckets);
@@ -205,36 +209,61 @@ public class CuckooFilter extends Filter {
 			large_hash = HashFunctions.xxhash(large_hash);
 			fingerprint = gen_fingerprint(large_hash);
 		}
-		int bucket1 = get_bucket_index(large_hash);
+		long bucket1 = get_bucket_index(large_hash);
 		
 		boolean exist = check(bucket1, fingerprint);	
 		if (exist) {
 			return true;
 		}	
 		long second_large_hash = HashFunctions.xxhash(fingerprint);
-		int bucket2 = bucket1 ^ get_bucket_index(second_large_hash);
+		long bucket2 = bucket1 ^ get_bucket_index(second_large_hash);
 		exist = check(bucket2, fingerprint);
 		return exist;
 	}
 
 	@Override
 	public long get_num_occupied_slots(boolean include_all_internal_filters) {
-		long num_entries = 0;
-		for (long i = 0; i < num_buckets; i++) {
-			long bucket_start = i * bucket_size * bits_per_entry;
-			for (long j = 0; j < bucket_size; j++) {
-				long slot_start = bucket_start + j * bits_per_entry;
-				long res = filter.getFromTo(slot_start, slot_start + bits_per_entry);
-				if (res != 0) {
-					num_entries++;
+		return new OccupiedSlotScan(this, 0, num_buckets).run();
+	}
+	
+	// counts the non-empty slots of a range of buckets, which may be split anywhere
+	static class OccupiedSlotScan extends TableScan<Long> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		final CuckooFilter cf;
+		
+		OccupiedSlotScan(CuckooFilter new_cf, long from, long to) {
+			super(from, to);
+			cf = new_cf;
+		}
+		
+		TableScan<Long> part(long part_from, long part_to) {
+			return new OccupiedSlotScan(cf, part_from, part_to);
+		}
+		
+		Long scan() {
+			long num_entries = 0;
+			for (long i = from; i < to; i++) {
+				long bucket_start = i * cf.bucket_size * cf.bits_per_entry;
+				for (long j = 0; j < cf.bucket_size; j++) {
+					long slot_start = bucket_start + j * cf.bits_per_entry;
+					long res = cf.filter.getFromTo(slot_start, slot_start + cf.bits_per_entry);
+					if (res != 0) {
+						num_entries++;
+					}
 				}
-			}
-		}		
-		return num_entries;
+			}		
+			return num_entries;
+		}
+		
+		Long merge(Long first, Long second) {
+			return first + second;
+		}
 	}
 	
 	public void pretty_print() {
-		for (int i = 0; i < num_buckets; i++) {
+		for (long i = 0; i < num_buckets; i++) {
 			long bucket_start = i * bucket_size * bits_per_entry;
 			for (int j = 0; j < bucket_size; j++) {
 				long slot_start = bucket_start + j * bits_per_entry;
@@ -248,7 +277,7 @@ public class CuckooFilter extends Filter {
 	
 	public void print() {
 		long num_bits = num_buckets * bucket_size * bits_per_entry;
-		for (int i = 0; i < num_bits; i++) {
+		for (long i = 0; i < num_bits; i++) {
 			boolean bit = filter.get(i);
 			String val = bit ? "1" : "0";
 			System.out.print(val);
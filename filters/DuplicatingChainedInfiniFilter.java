@@ -18,6 +18,7 @@ package filters;
 
 import java.util.ArrayList;
 
+import bitmap_implementations.SlotCursor;
 import filters.FingerprintGrowthStrategy.FalsePositiveRateExpansion;
 
 public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implements Cloneable {
@@ -105,7 +106,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 			fprStyle = FalsePositiveRateExpansion.POLYNOMIAL_SHRINK; //假阳性率扩展策略使用的是多项式收缩策略
 			fingerprintLength = FingerprintGrowthStrategy.get_new_fingerprint_size(fingerprintLength, 0, new_num_expansions_estimate, fprStyle); // 计算新的指纹大小，根据扩展次数更新指纹长度
 			bitPerEntry = fingerprintLength + 3; //将 fingerprintLength 增加 3 来计算
-			filter = make_filter(1L << power_of_two, bitPerEntry); // 用于创建一个新的过滤器，大小为 1L << power_of_two，并使用更新的 bitPerEntry
+			replace_filter(make_filter(1L << power_of_two, bitPerEntry)); // 用于创建一个新的过滤器，大小为 1L << power_of_two，并使用更新的 bitPerEntry
 			empty_fingerprint = (1L << fingerprintLength) - 2 ;
 			//original_fingerprint_size = fingerprintLength;
 			//int f = original_fingerprint_size;
@@ -193,7 +194,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 	}
 	
 	boolean exceeding_secondary_threshold() {
-		int num_entries = secondary_IF.num_physical_entries;
+		long num_entries = secondary_IF.num_physical_entries;
 		long logical_slots = secondary_IF.get_logical_num_slots();
 		double secondary_fullness = num_entries / (double)logical_slots;
 		return secondary_fullness > fullness_threshold;
@@ -251,8 +252,10 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 	long find_largest_matching_fingerprint_in_run(long index, long fingerprint) {
 		long matching_fingerprint_index = -1;
 		long lowest_age = Integer.MAX_VALUE;
-		do {
-			long slot_fp = get_fingerprint(index);
+		long run_end = find_run_end(index);
+		SlotCursor fingerprints = fingerprint_cursor(index);
+		for (; index <= run_end; index++) {
+			long slot_fp = fingerprints.next();
 			long age = parse_unary_from_fingerprint(slot_fp);
 			//System.out.println("age " + age);
 			if (slot_fp != deleted_void_fingerprint && compare(index, fingerprint, age, slot_fp)) {
@@ -264,8 +267,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 					matching_fingerprint_index = index;
 				}
 			}
-			index++;
-		} while (is_continuation(index));
+		}
 		return matching_fingerprint_index; 
 	}
 	
@@ -283,9 +285,12 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 		return success;
 	}
 	
-	public boolean search(long input) {
-		long hash = get_hash(input);
-		return _search(hash);
+	// the active filter holds duplicates of the void entries, so it alone answers searches
+	boolean search_by_hash(long large_hash) {
+		return _search(large_hash);
+	}
+	
+	void search_older_filters(long[] hashes, int[] keys, int count, long[] result_bits) {
 	}
 	
 	/*protected boolean compare2(long index, long fingerprint) {
@@ -305,6 +310,14 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 		return super.compare(index, searched_fingerprint, generation, f);
 	}
 	
+	protected boolean compare_fingerprints(long slot_fingerprint, long searched_fingerprint) {
+		if (slot_fingerprint == deleted_void_fingerprint) {
+			return false;
+		}
+		long generation = parse_unary_from_fingerprint(slot_fingerprint);
+		return super.compare(-1, searched_fingerprint, generation, slot_fingerprint);
+	}
+	
 	// returns the number of expansions ago that the entry with the longest matching hash turned void within a particular filter along the chain
 	long get_void_entry_age(long orig_slot_index, BasicInfiniFilter bi) {
 		
@@ -465,8 +478,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 		return success;
 	}
 	
-	public long delete(long input) {
-		long large_hash = get_hash(input);
+	long delete_by_hash(long large_hash) {
 		long slot_index = get_slot_index(large_hash);
 		long fp_long = gen_fingerprint(large_hash);
 		
@@ -492,7 +504,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 		if (matching_fingerprint == empty_fingerprint) {
 			
 			if (lazy_void_deletes) {
-				filter.set(matching_fingerprint_index * bitPerEntry + 3, true);
+				filter.set(fingerprint_start(matching_fingerprint_index), true);
 				deleted_void_entries.add(slot_index);
 			}
 			else {
@@ -502,7 +514,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 		else {
 			
 			if (lazy_new_deletes) {
-				filter.set(matching_fingerprint_index * bitPerEntry + 3, true);
+				filter.set(fingerprint_start(matching_fingerprint_index), true);
 				deleted_void_entries.add(slot_index);
 			}
 			else {
@@ -514,7 +526,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 		}
 		
 		/*if (lazy_void_deletes && matching_fingerprint == empty_fingerprint) {
-			filter.set(matching_fingerprint_index * bitPerEntry + 3, true);
+			filter.set(fingerprint_start(matching_fingerprint_index), true);
 			deleted_void_entries.add(slot_index);
 		}
 		else if (lazy_new_deletes && matching_fingerprint != empty_fingerprint) {
@@ -529,7 +541,7 @@ public class DuplicatingChainedInfiniFilter extends ChainedInfiniFilter implemen
 				deleted_new_entries.add(slot_index);
 			}
 			else {
-				filter.set(matching_fingerprint_index * bitPerEntry + 3, true);
+				filter.set(fingerprint_start(matching_fingerprint_index), true);
 				deleted_void_entries.add(slot_index);
 			}
 		}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import bitmap_implementations.SlotCursor;
+
+// Reads the entries of a quotient filter in slot order, along with the canonical slot (bucket) of each. 
+// This drives the expansion of a filter and the other passes over its whole table, and it is public so that 
+// external tools can inspect a filter too. The slots of a counting quotient filter that hold counters are read as entries. 
+// The cursor allocates nothing as it advances. The runs of a cluster belong to its occupied canonical slots in order, 
+// so a run that starts in a shifted slot belongs to the first occupied slot after the bucket of the previous run, 
+// and the current bucket is all the state there is to keep. Empty stretches of the table are skipped a word at a time: 
+// with the metadata flags stored apart from the fingerprints, the flags of 64 slots are checked at once, 
+// and otherwise the bitmap words that hold nothing but zeros are skipped without reading their slots one by one. 
+// The cursor must not be used across modifications of the filter. 
+public class EntryCursor {
+
+	final QuotientFilter qf;
+	final long start; // the scan starts at this slot, which is not shifted
+	final long end; // the scan stops at this slot
+	long index; // the slot after the current entry
+	long bucket; // the canonical slot of the current entry, before it is wrapped around the table of a circular filter
+	long bucket_index;
+	long fingerprint;
+	long value; // the value stored with the fingerprint if the filter is a maplet, or 0
+	SlotCursor slots; // reads the slots one after the other, unless the metadata flags are stored apart from the fingerprints
+	
+	// with the metadata flags stored apart, the flags of the aligned block of 64 slots that holds the current entry, 
+	// and a cursor over the fingerprints that reads the slot next_fingerprint_slot next
+	long block;
+	long occupieds;
+	long continuations;
+	long shifteds;
+	SlotCursor fingerprints;
+	long next_fingerprint_slot;
+
+	public EntryCursor(QuotientFilter new_qf) {
+		this(new_qf, first_slot(new_qf), first_slot(new_qf) + new_qf.get_logical_num_slots_plus_extensions());
+	}
+	
+	// reads the entries in the slots [new_start, new_end), where new_start is a slot that is not shifted, 
+	// such as the start of a cluster or an empty slot, and new_end is such a slot too or the end of the table
+	EntryCursor(QuotientFilter new_qf, long new_start, long new_end) {
+		qf = new_qf;
+		start = new_start;
+		end = new_end;
+		reset();
+	}
+	
+	// the slots of a circular filter are visited from an empty slot, where no cluster is in progress, around the table back to it
+	static long first_slot(QuotientFilter qf) {
+		return qf.circular ? qf.find_first_empty_slot(0) : 0;
+	}
+
+	// moves the cursor back to the first entry
+	public void reset() {
+		index = start;
+		bucket = -1;
+		bucket_index = -1;
+		fingerprint = -1;
+		value = 0;
+		slots = qf.separate_metadata ? null : qf.slot_cursor(index);
+		block = -1;
+		fingerprints = qf.separate_metadata ? qf.filter.cursor(0, qf.fingerprint_stride(), qf.fingerprintLength + qf.value_bits) : null;
+		next_fingerprint_slot = 0;
+	}
+
+	// moves to the next entry, and returns false if there is none
+	public boolean next() {
+		long slot;
+		if (slots != null) {
+			while (true) {
+				if (index == end) {
+					return false;
+				}
+				slot = slots.next();
+				if ((slot & 7) != 0) {
+					break;
+				}
+				index++;
+				index += slots.skip_zeros(end - index);
+			}
+		}
+		else {
+			index = next_used_slot(index);
+			if (index >= end) {
+				index = end;
+				return false;
+			}
+			fingerprints.skip(index - next_fingerprint_slot);
+			next_fingerprint_slot = index + 1;
+			int offset = (int) (index - block);
+			slot = fingerprints.next() << 3 | (occupieds >>> offset & 1) | (continuations >>> offset & 1) << 1 | (shifteds >>> offset & 1) << 2;
+		}
+		if ((slot & 4) == 0) {
+			// an entry that is not shifted starts a cluster at its canonical slot
+			bucket = index;
+		}
+		else if ((slot & 2) == 0) {
+			do {
+				bucket++;
+			} while (!qf.is_occupied(bucket));
+		}
+		bucket_index = qf.wrap_slot(bucket);
+		fingerprint = slot >>> 3;
+		if (qf.value_bits > 0) {
+			value = fingerprint >>> qf.fingerprintLength;
+			fingerprint &= (1L << qf.fingerprintLength) - 1;
+		}
+		index++;
+		return true;
+	}
+
+	// returns the first slot at or after from that is in use, or a slot at or after end if there is none. 
+	// The slots past the end of the table are never in use. 
+	long next_used_slot(long from) {
+		while (from < end) {
+			if (block < 0 || from - block >= 64) {
+				load_block(from);
+			}
+			long used = (occupieds | continuations | shifteds) >>> (from - block);
+			if (used != 0) {
+				return from + Long.numberOfTrailingZeros(used);
+			}
+			from = block + 64;
+		}
+		return from;
+	}
+	
+	void load_block(long slot) {
+		block = slot & ~63L;
+		long to = Math.min(block + 64, qf.planes.capacity);
+		occupieds = qf.planes.occupieds.getFromTo(block, to);
+		continuations = qf.planes.continuations.getFromTo(block, to);
+		shifteds = qf.planes.shifteds.getFromTo(block, to);
+	}
+
+	// returns the canonical slot of the current entry
+	public long get_bucket() {
+		return bucket_index;
+	}
+
+	// returns the slot that holds the current entry
+	public long get_slot() {
+		return qf.wrap_slot(index - 1);
+	}
+
+	public long get_fingerprint() {
+		return fingerprint;
+	}
+
+	public long get_value() {
+		return value;
+	}
+
+	// returns how many expansions ago the current entry was inserted (see QuotientFilter.get_generation)
+	public long get_generation() {
+		return qf.get_generation(fingerprint);
+	}
+
+}
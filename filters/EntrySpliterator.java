@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.Spliterator;
+import java.util.function.LongConsumer;
+
+// Streams the entries of a quotient filter in slot order (see QuotientFilter.entries). Each entry is given as a hash 
+// that would put it back into the same slot with the same fingerprint: its canonical slot in the lowest power_of_two_size bits, 
+// and its fingerprint above them. The values of a maplet are not included. 
+// A range of slots is split at the start of the first cluster after its middle, so that each part can be read 
+// by an EntryCursor of its own, which only needs to know the canonical slots of the clusters that start within its part. 
+// The filter must not be modified while its entries are streamed. 
+class EntrySpliterator implements Spliterator.OfLong {
+
+	// ranges of fewer slots are not split
+	static final long MIN_SPLIT_SLOTS = 1 << 12;
+
+	final QuotientFilter qf;
+	long from; // the range of slots, whose ends are not shifted
+	long to;
+	EntryCursor cursor; // reads the range once its first entry is requested
+
+	EntrySpliterator(QuotientFilter new_qf) {
+		this(new_qf, EntryCursor.first_slot(new_qf), EntryCursor.first_slot(new_qf) + new_qf.get_logical_num_slots_plus_extensions());
+	}
+
+	EntrySpliterator(QuotientFilter new_qf, long new_from, long new_to) {
+		qf = new_qf;
+		from = new_from;
+		to = new_to;
+	}
+
+	public boolean tryAdvance(LongConsumer action) {
+		if (cursor == null) {
+			cursor = new EntryCursor(qf, from, to);
+		}
+		if (!cursor.next()) {
+			return false;
+		}
+		action.accept(cursor.fingerprint << qf.power_of_two_size | cursor.bucket_index);
+		return true;
+	}
+
+	public void forEachRemaining(LongConsumer action) {
+		if (cursor == null) {
+			cursor = new EntryCursor(qf, from, to);
+		}
+		while (cursor.next()) {
+			action.accept(cursor.fingerprint << qf.power_of_two_size | cursor.bucket_index);
+		}
+	}
+
+	// hands over the first half of the range, up to the first slot after its middle that is not shifted
+	public Spliterator.OfLong trySplit() {
+		if (cursor != null || to - from < 2 * MIN_SPLIT_SLOTS) {
+			return null;
+		}
+		long middle = qf.find_unshifted_slot(from + (to - from) / 2, to);
+		if (middle >= to) {
+			return null;
+		}
+		EntrySpliterator first_half = new EntrySpliterator(qf, from, middle);
+		from = middle;
+		return first_half;
+	}
+
+	// the filter is assumed to be evenly full
+	public long estimateSize() {
+		long num_slots = qf.get_logical_num_slots_plus_extensions();
+		return (long) ((double) qf.num_physical_entries * (to - from) / num_slots);
+	}
+
+	public int characteristics() {
+		return ORDERED | NONNULL;
+	}
+
+}
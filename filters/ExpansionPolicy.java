@@ -0,0 +1,57 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+// Decides when a filter that expands autonomously expands (see QuotientFilter.set_expansion_policy). 
+// The filter consults its policy after each insertion, and passes it the probe length of the insertion: the distance from 
+// the canonical slot of the new entry to the empty slot that its cluster grew into. Insertions that do not probe the table, 
+// such as build_from_hashes() and merges, pass -1. 
+// A policy that keeps statistics about the table belongs to a single filter, and is copied along with it by clone(). 
+public abstract class ExpansionPolicy implements Cloneable {
+
+	// expands once the filter holds fullness_threshold times as many entries as it has slots. This is the default policy.
+	public static final ExpansionPolicy ENTRY_COUNT = new ExpansionPolicy() {
+		public boolean should_expand(QuotientFilter qf, long probe_length) {
+			return qf.num_physical_entries >= qf.max_entries_before_full;
+		}
+	};
+
+	public abstract boolean should_expand(QuotientFilter qf, long probe_length);
+
+	// called once the filter has expanded
+	public void expanded(QuotientFilter qf) {
+	}
+
+	// returns how many more insertions the filter surely takes before the policy expands it, or 0 if it may expand at any insertion. 
+	// A batch insertion is split into parts of this size, each sorted for the size of the filter it goes into. 
+	// A filter past its threshold failed to expand, and tries again after each insertion, so its batch is inserted one key at a time. 
+	public long get_insertions_before_expansion(QuotientFilter qf) {
+		return Math.max(1, qf.max_entries_before_full - qf.num_physical_entries);
+	}
+
+	public ExpansionPolicy copy() {
+		if (this == ENTRY_COUNT) {
+			return this;
+		}
+		try {
+			return (ExpansionPolicy) super.clone();
+		} catch (CloneNotSupportedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+}
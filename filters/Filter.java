@@ -18,12 +18,23 @@ package filters;
 
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.BitSet;
 
+import bitmap_implementations.AlignedBitmap;
+import bitmap_implementations.AtomicBitmap;
 import bitmap_implementations.Bitmap;
+import bitmap_implementations.CopyOnWriteBitmap;
+import bitmap_implementations.OffHeapBitmap;
+import bitmap_implementations.QuickBitVectorWrapper;
+import bitmap_implementations.SegmentedBitmap;
 
 public abstract class Filter {
 	
 	HashType hash_type;
+	BitmapType bitmap_type = BitmapType.on_heap;
+	BitmapPool bitmap_pool; // if set, bitmaps are allocated from and retired to this pool
+	KeyBatch batch; // the scratch space of insert_batch and delete_batch, allocated by the first batch
 	
 	abstract boolean rejuvenate(long key);
 	public boolean expand() { return false; }
@@ -37,6 +48,8 @@ public abstract class Filter {
 		try {
 			f = (Filter) super.clone();
 			f.hash_type = hash_type;
+			f.bitmap_type = bitmap_type;
+			f.batch = null;
 		} catch (CloneNotSupportedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -66,7 +79,12 @@ public abstract class Filter {
 	}
 
 	public long delete(long input) {
-		long slot = _delete(get_hash(input));
+		return delete_by_hash(get_hash(input));
+	}
+	
+	// deletes the key with the given hash. Filters made of several internal filters override this to delete from each in turn
+	long delete_by_hash(long large_hash) {
+		long slot = _delete(large_hash);
 		if (slot >= 0) {
 			num_logical_entries--;
 		}
@@ -92,13 +110,70 @@ public abstract class Filter {
 	}
 	
 	public boolean insert(long input, boolean insert_only_if_no_match) {		
-		long hash = get_hash(input);
-		boolean success = _insert(hash, insert_only_if_no_match);
+		return insert_by_hash(get_hash(input), insert_only_if_no_match);
+	}
+	
+	boolean insert_by_hash(long large_hash, boolean insert_only_if_no_match) {
+		boolean success = _insert(large_hash, insert_only_if_no_match);
 		if (success) {
 			num_logical_entries++;
 		}
 		return success;
 	}
+	
+	// inserts a batch of keys, and returns a bitset whose i-th bit is set if keys[i] was inserted. 
+	// The bitset belongs to the filter, and is overwritten by its next batch. 
+	// The whole batch is hashed first, and the keys are then inserted in the order chosen by sort_batch, e.g. by canonical slot. 
+	// A filter that will expand during the batch is given the batch in parts that each fit before the next expansion, 
+	// so that each part is sorted for the size of the filter it is inserted into. If the filter may expand at any insertion, 
+	// the rest of the batch is sorted once, and is only sorted again after the filter actually expands. 
+	public BitSet insert_batch(long[] keys) {
+		KeyBatch b = prepare_batch(keys);
+		for (int from = 0; from < keys.length; ) {
+			long room = get_insertions_before_expansion();
+			int to = room > 0 ? from + (int) Math.min(keys.length - from, room) : keys.length;
+			int expansions = num_expansions;
+			sort_batch(b, from, to);
+			while (from < to && num_expansions == expansions) {
+				if (insert_by_hash(b.hashes[from], false)) {
+					b.results.set(b.order[from]);
+				}
+				from++;
+			}
+		}
+		return b.results;
+	}
+	
+	// deletes a batch of keys, and returns a bitset whose i-th bit is set if keys[i] was deleted. 
+	// The bitset belongs to the filter, and is overwritten by its next batch. 
+	public BitSet delete_batch(long[] keys) {
+		KeyBatch b = prepare_batch(keys);
+		sort_batch(b, 0, keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			if (delete_by_hash(b.hashes[i]) >= 0) {
+				b.results.set(b.order[i]);
+			}
+		}
+		return b.results;
+	}
+	
+	KeyBatch prepare_batch(long[] keys) {
+		if (batch == null) {
+			batch = new KeyBatch();
+		}
+		batch.prepare(this, keys);
+		return batch;
+	}
+	
+	// chooses the order in which the keys in [from, to) of a batch are applied to the filter. By default, this is the order of the batch.
+	void sort_batch(KeyBatch b, int from, int to) {
+	}
+	
+	// returns how many more insertions the filter takes before it expands, 0 if it may expand at any insertion, 
+	// or Long.MAX_VALUE if it does not expand
+	long get_insertions_before_expansion() {
+		return Long.MAX_VALUE;
+	}
 
 	public boolean insert(String input, boolean insert_only_if_no_match) {
 		ByteBuffer input_buffer = ByteBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
@@ -119,7 +194,44 @@ public abstract class Filter {
 	}
 	
 	public boolean search(long input) {
-		return _search(get_hash(input));
+		return search_by_hash(get_hash(input));
+	}
+	
+	// searches for the key with the given hash. Filters made of several internal filters override this to search each in turn
+	boolean search_by_hash(long large_hash) {
+		return _search(large_hash);
+	}
+	
+	// searches a batch of keys, and sets the i-th bit of result_bits if keys[i] may be in the filter, or clears it otherwise. 
+	// result_bits must have room for keys.length bits. The whole batch is hashed first, 
+	// so that a filter can probe the keys in an interleaved order that keeps several cache misses in flight at once. 
+	public void search_batch(long[] keys, long[] result_bits) {
+		KeyBatch b = prepare_batch(keys);
+		Arrays.fill(result_bits, 0, (keys.length + 63) >>> 6, 0L);
+		search_batch(b.hashes, b.order, keys.length, result_bits);
+	}
+	
+	// for each of the first count keys, sets bit keys[i] of result_bits if the key, whose hash is hashes[i], may be in the filter
+	void search_batch(long[] hashes, int[] keys, int count, long[] result_bits) {
+		for (int i = 0; i < count; i++) {
+			if (search_by_hash(hashes[i])) {
+				result_bits[keys[i] >>> 6] |= 1L << keys[i];
+			}
+		}
+	}
+	
+	// moves the first count keys whose bit in result_bits is not set, along with their hashes, to the front, and returns how many there are. 
+	// A filter made of several internal filters uses this to only search its older filters for the keys its newer ones lack.
+	static int retain_misses(long[] hashes, int[] keys, int count, long[] result_bits) {
+		int misses = 0;
+		for (int i = 0; i < count; i++) {
+			int k = keys[i];
+			if ((result_bits[k >>> 6] & (1L << k)) == 0) {
+				hashes[misses] = hashes[i];
+				keys[misses++] = k;
+			}
+		}
+		return misses;
 	}
 
 	public boolean search(String input) {
@@ -146,6 +258,52 @@ public abstract class Filter {
 		return hash;
 	}
 	
+	// allocates a bitmap of the given type with room for num_entries entries of bits_per_entry bits each
+	static Bitmap make_bitmap(BitmapType type, int bits_per_entry, long num_entries) {
+		if (type == BitmapType.off_heap) {
+			return new OffHeapBitmap(bits_per_entry, num_entries);
+		}
+		else if (type == BitmapType.mapped_file) {
+			throw new IllegalArgumentException("a mapped bitmap needs a file, see QuotientFilter.persist_to()");
+		}
+		else if (type == BitmapType.segmented) {
+			return new SegmentedBitmap(bits_per_entry, num_entries);
+		}
+		else if (type == BitmapType.copy_on_write) {
+			return new CopyOnWriteBitmap(bits_per_entry, num_entries);
+		}
+		else if (type == BitmapType.atomic) {
+			return new AtomicBitmap(bits_per_entry, num_entries);
+		}
+		// entries of 8, 16 or 32 bits are each stored in one array element, so that accessing a slot takes a single load
+		Bitmap aligned = AlignedBitmap.make(bits_per_entry, num_entries);
+		if (aligned != null) {
+			return aligned;
+		}
+		if ((double) bits_per_entry * num_entries > QuickBitVectorWrapper.MAX_NUM_BITS) {
+			return new SegmentedBitmap(bits_per_entry, num_entries);
+		}
+		return new QuickBitVectorWrapper(bits_per_entry, num_entries);
+	}
+	
+	// allocates a bitmap of the filter's type, through its pool if it has one
+	Bitmap allocate_bitmap(int bits_per_entry, long num_entries) {
+		return BitmapPool.allocate(bitmap_pool, bitmap_type, bits_per_entry, num_entries);
+	}
+	
+	// gives back a bitmap the filter no longer uses
+	void retire_bitmap(Bitmap bitmap) {
+		BitmapPool.retire(bitmap_pool, bitmap);
+	}
+	
+	public BitmapPool get_bitmap_pool() {
+		return bitmap_pool;
+	}
+	
+	public BitmapType get_bitmap_type() {
+		return bitmap_type;
+	}
+	
 	public abstract long get_num_occupied_slots(boolean include_all_internal_filters);
 
 	
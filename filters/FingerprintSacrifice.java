@@ -21,7 +21,7 @@ public class FingerprintSacrifice extends QuotientFilter {
 	public FingerprintSacrifice(int power_of_two, int bits_per_entry) {
 		super(power_of_two, bits_per_entry);
 		// TODO Auto-generated constructor stub
-		max_entries_before_full = (int)(Math.pow(2, power_of_two_size) * fullness_threshold);
+		max_entries_before_full = (long)(Math.pow(2, power_of_two_size) * fullness_threshold);
 	}
 	
 	public boolean expand() {
@@ -31,8 +31,8 @@ public class FingerprintSacrifice extends QuotientFilter {
 			return false;
 		}
 		
-		QuotientFilter new_qf = new QuotientFilter(power_of_two_size + 1, bitPerEntry - 1);
-		Iterator it = new Iterator(this);
+		QuotientFilter new_qf = make_new_generation(power_of_two_size + 1, bitPerEntry - 1);
+		EntryCursor it = new EntryCursor(this);
 		//long start = System.nanoTime();
 		
 		while (it.next()) {
@@ -67,12 +67,14 @@ public class FingerprintSacrifice extends QuotientFilter {
 		last_cluster_start = new_qf.last_cluster_start;
 		backward_steps = new_qf.backward_steps;
 		
-		filter = new_qf.filter;
 		power_of_two_size++;
-		num_extension_slots += 2;
+		if (!circular) {
+			num_extension_slots += 2;
+		}
 		bitPerEntry--;
 		fingerprintLength--;
-		max_entries_before_full = (int)(Math.pow(2, power_of_two_size) * fullness_threshold);
+		max_entries_before_full = (long)(Math.pow(2, power_of_two_size) * fullness_threshold);
+		replace_generation(new_qf);
 		return true;
 	}
 	
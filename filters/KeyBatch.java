@@ -0,0 +1,92 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+// The scratch space of the batched operations of a filter (see Filter.insert_batch).
+// A filter keeps its batch between calls, so the arrays are only reallocated when a batch outgrows them,
+// and the bitset with the per-key results is the same object every time.
+// The keys of a batch are processed in the order of the arrays: hashes[i] is the hash of the key at index order[i] of the batch.
+// A quotient filter sorts both arrays by canonical slot, so that the clusters are modified from the start of the table to its end.
+// The hashes move along with their indexes, so that both the sort and the filter read them sequentially.
+class KeyBatch {
+
+	static final int RADIX_BITS = 8;
+	static final int RADIX = 1 << RADIX_BITS;
+
+	long[] hashes = new long[0];
+	int[] order = new int[0];
+	long[] hashes_scratch = new long[0]; // the radix sort alternates between the arrays and their scratch copies
+	int[] order_scratch = new int[0];
+	final int[] counts = new int[RADIX + 1];
+	final BitSet results = new BitSet();
+
+	// hashes the keys of a new batch with the given filter, and clears the results of the previous batch
+	void prepare(Filter filter, long[] keys) {
+		if (hashes.length < keys.length) {
+			hashes = new long[keys.length];
+			order = new int[keys.length];
+			hashes_scratch = new long[keys.length];
+			order_scratch = new int[keys.length];
+		}
+		for (int i = 0; i < keys.length; i++) {
+			hashes[i] = filter.get_hash(keys[i]);
+			order[i] = i;
+		}
+		results.clear();
+	}
+
+	// sorts [from, to) of the batch by the lowest num_bits bits of the hashes, which for a quotient filter are the canonical slots.
+	// This is a least-significant-digit radix sort with 8 bits per pass, so it is stable:
+	// keys that map to the same slot keep their order within the batch, and so do their fingerprints within the run.
+	void sort_by_low_bits(int from, int to, int num_bits) {
+		long[] source_hashes = hashes;
+		int[] source_order = order;
+		long[] target_hashes = hashes_scratch;
+		int[] target_order = order_scratch;
+		for (int shift = 0; shift < num_bits; shift += RADIX_BITS) {
+			long digit_mask = (1L << Math.min(RADIX_BITS, num_bits - shift)) - 1;
+			Arrays.fill(counts, 0);
+			for (int i = from; i < to; i++) {
+				counts[(int) ((source_hashes[i] >>> shift) & digit_mask) + 1]++;
+			}
+			counts[0] = from;
+			for (int d = 1; d <= RADIX; d++) {
+				counts[d] += counts[d - 1];
+			}
+			for (int i = from; i < to; i++) {
+				long hash = source_hashes[i];
+				int position = counts[(int) ((hash >>> shift) & digit_mask)]++;
+				target_hashes[position] = hash;
+				target_order[position] = source_order[i];
+			}
+			long[] h = source_hashes;
+			source_hashes = target_hashes;
+			target_hashes = h;
+			int[] o = source_order;
+			source_order = target_order;
+			target_order = o;
+		}
+		if (source_order != order) {
+			System.arraycopy(source_hashes, from, hashes, from, to - from);
+			System.arraycopy(source_order, from, order, from, to - from);
+		}
+	}
+
+}
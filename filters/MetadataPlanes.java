@@ -0,0 +1,276 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.Arrays;
+
+import bitmap_implementations.Bitmap;
+
+// Stores the is_occupied, is_continuation and is_shifted flags of a quotient filter in three dense bitmaps, 
+// one bit per slot, apart from the fingerprints. See QuotientFilter.set_separate_metadata().
+// The scans a quotient filter performs over its flags (e.g. finding the start of a cluster or the next empty slot)
+// can then read the flags of 64 slots at once and locate the slot they look for with a single bit-scan instruction. 
+// 
+// On top of the flags, we keep a rank-and-select index in the style of the RSQF. For every block of 64 slots, 
+// offsets holds the distance from the block's first slot s to the slot after the runs whose canonical slots are at or before s. 
+// The run of a canonical slot x within the block is then the d-th run that starts after that point, where d is the number of 
+// occupied canonical slots in (s, x]. d is a popcount of one word, and the run is found by selecting among the run starts 
+// (slots that are in use but are not continuations) of the next word or two, so finding a run takes O(1) expected time 
+// rather than a scan of the whole cluster. 
+// The offsets are maintained lazily. The filter reports the slots it modifies through touch(), and before the next lookup, 
+// the blocks whose offsets these modifications may have changed are marked stale. A stale offset is recomputed with a 
+// cluster scan the next time it is needed. 
+class MetadataPlanes implements Cloneable {
+
+	Bitmap occupieds;
+	Bitmap continuations;
+	Bitmap shifteds;
+	long capacity; // number of slots the bitmaps can hold, including the padding at the end of their last word
+	
+	int[] offsets;
+	long[] stale_blocks; // one bit per block, set if its offset must be recomputed before it is used
+	long modified_from = Long.MAX_VALUE; // the range of slots modified since the stale blocks were last marked, or empty
+	long modified_to = -1;
+	
+	MetadataPlanes(BitmapType type, long num_slots, BitmapPool pool) {
+		occupieds = BitmapPool.allocate(pool, type, 1, num_slots);
+		continuations = BitmapPool.allocate(pool, type, 1, num_slots);
+		shifteds = BitmapPool.allocate(pool, type, 1, num_slots);
+		capacity = occupieds.size();
+		long num_blocks = (capacity + 63) >>> 6;
+		if (num_blocks > Integer.MAX_VALUE - 8) {
+			throw new IllegalArgumentException("cannot index the runs of " + capacity + " slots");
+		}
+		offsets = new int[(int) num_blocks];
+		stale_blocks = new long[(int) ((num_blocks + 63) >>> 6)];
+		Arrays.fill(stale_blocks, -1L);
+	}
+	
+	@Override
+	public Object clone() {
+		MetadataPlanes p = null;
+		try {
+			p = (MetadataPlanes) super.clone();
+			p.occupieds = (Bitmap) occupieds.clone();
+			p.continuations = (Bitmap) continuations.clone();
+			p.shifteds = (Bitmap) shifteds.clone();
+			p.offsets = offsets.clone();
+			p.stale_blocks = stale_blocks.clone();
+		} catch (CloneNotSupportedException e) {
+			e.printStackTrace();
+		}
+		return p;
+	}
+	
+	// returns a copy of the flags stored in bitmaps of the given type
+	MetadataPlanes convert(BitmapType type, BitmapPool pool) {
+		MetadataPlanes p = new MetadataPlanes(type, capacity, pool);
+		QuotientFilter.copy_bits(occupieds, p.occupieds);
+		QuotientFilter.copy_bits(continuations, p.continuations);
+		QuotientFilter.copy_bits(shifteds, p.shifteds);
+		return p;
+	}
+	
+	// releases the bitmaps, or retires them to the given pool if it is not null
+	void release(BitmapPool pool) {
+		BitmapPool.retire(pool, occupieds);
+		BitmapPool.retire(pool, continuations);
+		BitmapPool.retire(pool, shifteds);
+	}
+	
+	static long low_bits_mask(long num_bits) {
+		return num_bits == 64 ? -1L : (1L << num_bits) - 1;
+	}
+	
+	// returns a mask of the empty slots among [from, to), where to - from <= 64
+	long empty_slots(long from, long to) {
+		long used = occupieds.getFromTo(from, to) | continuations.getFromTo(from, to) | shifteds.getFromTo(from, to);
+		return ~used & low_bits_mask(to - from);
+	}
+	
+	// returns the first empty slot in [from, limit), or limit if there is none
+	long next_empty_slot(long from, long limit) {
+		for (long i = from; i < limit; i += 64) {
+			long to = Math.min(i + 64, limit);
+			long empty = empty_slots(i, to);
+			if (empty != 0) {
+				return i + Long.numberOfTrailingZeros(empty);
+			}
+		}
+		return limit;
+	}
+	
+	// returns the last empty slot at or before the given slot, or -1 if there is none
+	long previous_empty_slot(long from) {
+		for (long i = from; i >= 0; ) {
+			long start = Math.max(0, i - 63);
+			long empty = empty_slots(start, i + 1);
+			if (empty != 0) {
+				return start + 63 - Long.numberOfLeadingZeros(empty);
+			}
+			i = start - 1;
+		}
+		return -1;
+	}
+	
+	// returns the first slot in [from, limit) whose flag in the given plane is off, or limit if there is none
+	static long next_clear(Bitmap plane, long from, long limit) {
+		for (long i = from; i < limit; i += 64) {
+			long to = Math.min(i + 64, limit);
+			long clear = ~plane.getFromTo(i, to) & low_bits_mask(to - i);
+			if (clear != 0) {
+				return i + Long.numberOfTrailingZeros(clear);
+			}
+		}
+		return limit;
+	}
+	
+	// returns the last slot at or before the given slot whose flag in the given plane is off, or -1 if there is none
+	static long previous_clear(Bitmap plane, long from) {
+		for (long i = from; i >= 0; ) {
+			long start = Math.max(0, i - 63);
+			long clear = ~plane.getFromTo(start, i + 1) & low_bits_mask(i + 1 - start);
+			if (clear != 0) {
+				return start + 63 - Long.numberOfLeadingZeros(clear);
+			}
+			i = start - 1;
+		}
+		return -1;
+	}
+	
+	// returns the n-th (starting from 1) slot at or after the given slot whose flag in the given plane is off, 
+	// or limit if there are fewer than n such slots before limit
+	static long nth_clear(Bitmap plane, long from, long n, long limit) {
+		for (long i = from; i < limit; i += 64) {
+			long to = Math.min(i + 64, limit);
+			long clear = ~plane.getFromTo(i, to) & low_bits_mask(to - i);
+			int count = Long.bitCount(clear);
+			if (count < n) {
+				n -= count;
+				continue;
+			}
+			while (--n > 0) {
+				clear &= clear - 1; // drop the lowest clear slot
+			}
+			return i + Long.numberOfTrailingZeros(clear);
+		}
+		return limit;
+	}
+	
+	// returns the number of slots in [from, to) whose flag in the given plane is on
+	static long count_set(Bitmap plane, long from, long to) {
+		long count = 0;
+		for (long i = from; i < to; i += 64) {
+			count += Long.bitCount(plane.getFromTo(i, Math.min(i + 64, to)));
+		}
+		return count;
+	}
+	
+	// records that the flags of the slots in [from, to] were modified
+	void touch(long from, long to) {
+		modified_from = Math.min(modified_from, from);
+		modified_to = Math.max(modified_to, to);
+	}
+	
+	boolean is_stale(long block) {
+		return (stale_blocks[(int)(block >>> 6)] & (1L << block)) != 0;
+	}
+	
+	// marks the blocks whose offsets the modifications recorded by touch() may have changed as stale. 
+	// These are the blocks from the first modified slot to one slot past the last one, 
+	// and the blocks before them whose runs reach the slot before the first modified slot. 
+	void mark_stale_blocks() {
+		if (modified_to < 0) {
+			return;
+		}
+		long first_block = modified_from >>> 6;
+		long last_block = Math.min((modified_to + 1) >>> 6, offsets.length - 1);
+		for (long b = first_block; b <= last_block; b++) {
+			stale_blocks[(int)(b >>> 6)] |= 1L << b;
+		}
+		// the offsets grow with the block index, so once a block's runs end before the modified slots, so do those of all blocks before it
+		for (long b = first_block - 1; b >= 0; b--) {
+			if (!is_stale(b) && (b << 6) + offsets[(int) b] < modified_from) {
+				break;
+			}
+			stale_blocks[(int)(b >>> 6)] |= 1L << b;
+		}
+		modified_from = Long.MAX_VALUE;
+		modified_to = -1;
+	}
+	
+	// returns the slot after the runs whose canonical slots are at or before the first slot of the block, 
+	// or the first slot of the block if none of these runs reach it. 
+	// A stale offset is derived from the offset of the block before it, which is brought up to date first if it is also stale. 
+	long block_runs_end(int block) {
+		int b = block;
+		while (b >= 0 && is_stale(b)) {
+			b--;
+		}
+		long runs_end = b < 0 ? 0 : ((long) b << 6) + offsets[b];
+		for (b++; b <= block; b++) {
+			long start = (long) b << 6;
+			// the runs of the canonical slots in (previous block start, start] follow those of the previous block
+			long num_runs = b == 0 ? (occupieds.get(0) ? 1 : 0) : Long.bitCount(occupieds.getFromTo(start - 63, start + 1));
+			if (num_runs > 0) {
+				long last_run_start = nth_run_start(runs_end, num_runs, capacity);
+				runs_end = next_clear(continuations, last_run_start + 1, capacity);
+			}
+			runs_end = Math.max(runs_end, start);
+			offsets[b] = (int) (runs_end - start);
+			stale_blocks[b >>> 6] &= ~(1L << b);
+		}
+		return runs_end;
+	}
+	
+	// returns the n-th (starting from 1) slot at or after the given slot that starts a run, or limit if there is none
+	long nth_run_start(long from, long n, long limit) {
+		for (long i = from; i < limit; i += 64) {
+			long to = Math.min(i + 64, limit);
+			long starts = (occupieds.getFromTo(i, to) | shifteds.getFromTo(i, to)) & ~continuations.getFromTo(i, to);
+			int count = Long.bitCount(starts);
+			if (count < n) {
+				n -= count;
+				continue;
+			}
+			while (--n > 0) {
+				starts &= starts - 1;
+			}
+			return i + Long.numberOfTrailingZeros(starts);
+		}
+		return limit;
+	}
+	
+	// given a canonical slot, returns where its run starts. This gives the same result as the scans of QuotientFilter.find_run_start, 
+	// using the offset of the slot's block: if the slot has no run but is in use, this is where the run of the last canonical slot 
+	// before it starts, and if the slot is empty, it is the slot itself. 
+	long find_run_start(long index) {
+		if (!occupieds.get(index) && !continuations.get(index) && !shifteds.get(index)) {
+			return index;
+		}
+		mark_stale_blocks();
+		int block = (int) (index >>> 6);
+		long block_start = (long) block << 6;
+		long runs_end = block_runs_end(block);
+		long num_runs = index == block_start ? 0 : Long.bitCount(occupieds.getFromTo(block_start + 1, index + 1));
+		if (num_runs == 0) { // the run we look for is the last one that ends before runs_end
+			return previous_clear(continuations, runs_end - 1);
+		}
+		return nth_run_start(runs_end, num_runs, capacity);
+	}
+	
+}
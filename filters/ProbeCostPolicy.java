@@ -0,0 +1,98 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+// Expands a filter once its insertions probe too many slots, rather than at a fixed number of entries. 
+// Skewed hashes, or the void entries that an expansion leaves behind, make clusters long before the filter reaches 
+// its fullness threshold, while uniform hashes leave them short for a while after it. 
+// The policy keeps moving averages over the recent insertions of the probe length and of how often it exceeds max_p99, 
+// and expands once the average exceeds max_average, or once more than 1% of the insertions exceed max_p99, 
+// i.e. once their 99th percentile does. The averages start over after each expansion. 
+// A filter is never expanded below min_fullness, which keeps hot spots from expanding a nearly empty filter over and over, 
+// and always expanded at max_fullness. 
+public class ProbeCostPolicy extends ExpansionPolicy {
+
+	// the weight of each insertion in the moving averages, which thus span about the last 1/SMOOTHING insertions
+	static final double SMOOTHING = 1.0 / 256;
+
+	final double max_average;
+	final double max_p99;
+	final double min_fullness;
+	final double max_fullness;
+
+	double average_probe_length;
+	double fraction_over_p99; // the fraction of recent insertions that probed more than max_p99 slots
+	long num_samples;
+
+	public ProbeCostPolicy(double max_average, double max_p99) {
+		this(max_average, max_p99, 0.5, 0.9);
+	}
+
+	public ProbeCostPolicy(double new_max_average, double new_max_p99, double new_min_fullness, double new_max_fullness) {
+		if (new_max_average <= 0 || new_max_p99 <= 0) {
+			throw new IllegalArgumentException("the probe cost budget must be positive");
+		}
+		if (new_min_fullness < 0 || new_min_fullness > new_max_fullness || new_max_fullness >= 1) {
+			throw new IllegalArgumentException("the fullness bounds must satisfy 0 <= min_fullness <= max_fullness < 1");
+		}
+		max_average = new_max_average;
+		max_p99 = new_max_p99;
+		min_fullness = new_min_fullness;
+		max_fullness = new_max_fullness;
+	}
+
+	public boolean should_expand(QuotientFilter qf, long probe_length) {
+		if (probe_length >= 0) {
+			add_sample(probe_length);
+		}
+		long num_slots = qf.get_logical_num_slots();
+		if (qf.num_physical_entries >= num_slots * max_fullness) {
+			return true;
+		}
+		// the averages are only trusted once they span their whole window
+		if (qf.num_physical_entries < num_slots * min_fullness || num_samples * SMOOTHING < 1) {
+			return false;
+		}
+		return average_probe_length > max_average || fraction_over_p99 > 0.01;
+	}
+
+	void add_sample(long probe_length) {
+		num_samples++;
+		average_probe_length += (probe_length - average_probe_length) * SMOOTHING;
+		fraction_over_p99 += ((probe_length > max_p99 ? 1 : 0) - fraction_over_p99) * SMOOTHING;
+	}
+
+	public void expanded(QuotientFilter qf) {
+		average_probe_length = 0;
+		fraction_over_p99 = 0;
+		num_samples = 0;
+	}
+
+	// the filter may expand at any insertion once it reaches min_fullness
+	public long get_insertions_before_expansion(QuotientFilter qf) {
+		return Math.max(0, (long) (qf.get_logical_num_slots() * min_fullness) - qf.num_physical_entries);
+	}
+
+	public double get_average_probe_length() {
+		return average_probe_length;
+	}
+
+	public double get_fraction_over_p99() {
+		return fraction_over_p99;
+	}
+
+}
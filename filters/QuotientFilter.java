@@ -16,14 +16,25 @@ limitations under the License.
 
 package filters;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.TreeMap;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 import bitmap_implementations.Bitmap;
-import bitmap_implementations.QuickBitVectorWrapper;
+import bitmap_implementations.MappedFileBitmap;
+import bitmap_implementations.SlotCursor;
 
 public class QuotientFilter extends Filter implements Cloneable {
 
@@ -31,9 +42,26 @@ public class QuotientFilter extends Filter implements Cloneable {
 	int fingerprintLength; 
 	int power_of_two_size; 
 	int num_extension_slots;
-	int num_physical_entries;
+	long num_physical_entries;
 	Bitmap filter;
 	
+	// if set, the metadata flags are stored in separate planes, and filter only holds the fingerprints
+	boolean separate_metadata;
+	MetadataPlanes planes;
+	
+	// if set, the table wraps around, so a cluster that runs past the last slot continues at slot 0. 
+	// A circular filter has no extension slots at the end of the table, and does not track last_empty_slot. 
+	// The scans over the slots work with indexes that may run past the end of the table, which wrap_slot() maps to physical slots. 
+	boolean circular;
+	
+	// if positive, the filter is a maplet: each slot holds a value of this many bits right after its fingerprint, 
+	// so the values move along with the fingerprints whenever slots are shifted (see set_value_bits)
+	int value_bits;
+	
+	// if set, the fingerprints of each run are kept in the order of compare_in_run() rather than in the order they were inserted, 
+	// so a scan for a fingerprint can stop at the first fingerprint that comes after it (see set_sorted_runs)
+	boolean sorted_runs;
+	
 	// These three fields are used to prevent throwing exceptions when the buffer space of the filter is exceeded 
 	long last_empty_slot;
 	long last_cluster_start;
@@ -43,6 +71,8 @@ public class QuotientFilter extends Filter implements Cloneable {
 	
 	boolean expand_autonomously; //控制自动扩展
 	boolean is_full; //表示 QuotientFilter 是否已满
+	ExpansionPolicy expansion_policy = ExpansionPolicy.ENTRY_COUNT;
+	long last_filled_slot; // the empty slot that the last insertion filled by shifting its cluster, or -1 if it filled none
 	
 	// statistics, computed in the compute_statistics method. method should be called before these are used
 	long num_runs; 
@@ -52,15 +82,48 @@ public class QuotientFilter extends Filter implements Cloneable {
 	
 	int original_fingerprint_size; 
 	
+	// With BitmapType.atomic, one thread at a time may insert into or delete from the filter while any number of threads search it. 
+	// Every insertion and deletion increments write_version before and after it, so that the version is odd while one is in progress. 
+	// A search that overlaps an insertion or deletion may have seen a cluster halfway through being shifted, so it is retried. 
+	long write_version;
+	static final VarHandle WRITE_VERSION;
+	static {
+		try {
+			WRITE_VERSION = MethodHandles.lookup().findVarHandle(QuotientFilter.class, "write_version", long.class);
+		} catch (ReflectiveOperationException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+	
 	@Override
 	public Object clone() {
 		QuotientFilter f = null;
 		f = (QuotientFilter) super.clone();
 		f.filter = (Bitmap) filter.clone();
+		if (planes != null) {
+			f.planes = (MetadataPlanes) planes.clone();
+		}
+		f.expansion_policy = expansion_policy.copy();
+		if (backing_file != null) { // the clone of a mapped bitmap is an in-memory copy that is not persisted
+			f.backing_file = null;
+			f.bitmap_type = BitmapType.off_heap;
+		}
 		return f;
 	}
 	
 	public QuotientFilter(int power_of_two, int bits_per_entry) {
+		this(power_of_two, bits_per_entry, BitmapType.on_heap);
+	}
+	
+	public QuotientFilter(int power_of_two, int bits_per_entry, BitmapType type) {
+		this(power_of_two, bits_per_entry, type, false);
+	}
+	
+	QuotientFilter(int power_of_two, int bits_per_entry, BitmapType type, boolean new_separate_metadata) {
+		this(power_of_two, bits_per_entry, type, new_separate_metadata, false, null);
+	}
+	
+	QuotientFilter(int power_of_two, int bits_per_entry, BitmapType type, boolean new_separate_metadata, boolean new_circular, BitmapPool pool) {
 		//输入两个参数 
 		//power_of_two: 决定过滤器的基本大小，定义为2^power_of_two
 		//bits_per_entry: 每个条目分配的位数
@@ -70,12 +133,17 @@ public class QuotientFilter extends Filter implements Cloneable {
 		fingerprintLength = bits_per_entry - 3; //指纹长度
 		long init_size = 1L << power_of_two; //使用左移运算符计算过滤器的初始大小  2^power_of_two
 		
-		num_extension_slots = power_of_two * 2; //扩展槽的数量
+		circular = new_circular;
+		num_extension_slots = circular ? 0 : power_of_two * 2; //扩展槽的数量
 		
+		bitmap_type = type;
+		separate_metadata = new_separate_metadata;
+		bitmap_pool = pool;
 		filter = make_filter(init_size, bits_per_entry); // 调用 make_filter 方法创建过滤器
+		planes = make_planes(init_size);
 		
 		fullness_threshold = 0.8; // 设置为 80%，表示过滤器在存储容量达到 80% 时被认为“满载”
-		max_entries_before_full = (int) (init_size * fullness_threshold); //计算过滤器在满载前能存储的最大条目数
+		max_entries_before_full = (long) (init_size * fullness_threshold); //计算过滤器在满载前能存储的最大条目数
 		expand_autonomously = true; //是否支持自动扩展
 		is_full = false; //初始设置为 false，表示过滤器尚未满载
 		
@@ -83,7 +151,7 @@ public class QuotientFilter extends Filter implements Cloneable {
 		num_expansions = 0; //扩展次数，初始为 0
 		hash_type = HashType.xxh; //设置哈希类型为 HashType.xxh
 		
-		last_empty_slot = init_size + num_extension_slots - 1; //计算出最后一个空槽的位置，利用初始大小和扩展槽计算
+		last_empty_slot = initial_last_empty_slot(init_size); //计算出最后一个空槽的位置，利用初始大小和扩展槽计算
 		last_cluster_start = 0; //初始设置为 0，可能用于标记cluster的起点
 		backward_steps = 0;
 		//measure_num_bits_per_entry();
@@ -96,11 +164,17 @@ public class QuotientFilter extends Filter implements Cloneable {
 	//nuevo
 	void update(long init_size)
 	{
-		last_empty_slot = init_size + num_extension_slots - 1;
+		last_empty_slot = initial_last_empty_slot(init_size);
 		last_cluster_start = 0;
 		backward_steps = 0;
 	}
 	
+	// a circular filter never runs out of slots at the end of its table, 
+	// so its last_empty_slot is past any slot, and the checks and updates that involve it never apply
+	long initial_last_empty_slot(long init_size) {
+		return circular ? Long.MAX_VALUE : init_size + num_extension_slots - 1;
+	}
+	
 	public boolean rejuvenate(long key) {
 		return false;
 	}
@@ -121,12 +195,422 @@ public class QuotientFilter extends Filter implements Cloneable {
 		expand_autonomously = val;
 	} // 设置是否自动扩展
 	
+	// sets the policy that decides when the filter expands autonomously, by default ExpansionPolicy.ENTRY_COUNT. 
+	// The policy is not persisted along with the filter. 
+	public void set_expansion_policy(ExpansionPolicy policy) {
+		if (policy == null) {
+			throw new IllegalArgumentException("the expansion policy cannot be null");
+		}
+		expansion_policy = policy;
+	}
+	
+	public ExpansionPolicy get_expansion_policy() {
+		return expansion_policy;
+	}
+	
+	// expands the filter if it expands autonomously and its policy calls for it, given the probe length of the last insertion
+	void consider_expanding(long probe_length) {
+		if (expand_autonomously && expansion_policy.should_expand(this, probe_length)) {
+			if (expand()) {
+				num_expansions++;
+				expansion_policy.expanded(this);
+			}
+		}
+	}
+	
 	Bitmap make_filter(long init_size, int bits_per_entry) {
-		return new QuickBitVectorWrapper(bits_per_entry,  init_size + num_extension_slots);
+		int width = separate_metadata ? Math.max(bits_per_entry - 3, 1) : bits_per_entry;
+		return allocate_bitmap(width, init_size + num_extension_slots);
+	}
+	
+	MetadataPlanes make_planes(long init_size) {
+		return separate_metadata ? new MetadataPlanes(bitmap_type, init_size + num_extension_slots, bitmap_pool) : null;
 	}
 	//该方法返回类型 Bitmap，作用是生成一个 Bitmap 类型的对象
 	// QuickBitVectorWrapper 是一个类，它可能是 Bitmap 的具体实现或子类
 	
+	// switches the filter to a different bitmap implementation, copying over its current contents
+	// if the filter was persisted to a file, it is detached from the file, which keeps the state of the last sync()
+	public void set_bitmap_type(BitmapType type) {
+		if (type == bitmap_type) {
+			return;
+		}
+		if (type == BitmapType.mapped_file) {
+			throw new IllegalArgumentException("use persist_to() to back a filter with a file");
+		}
+		bitmap_type = type;
+		backing_file = null;
+		Bitmap old_filter = filter;
+		filter = make_filter(get_logical_num_slots(), bitPerEntry);
+		copy_bits(old_filter, filter);
+		retire_bitmap(old_filter);
+		if (planes != null) {
+			MetadataPlanes old_planes = planes;
+			planes = old_planes.convert(type, bitmap_pool);
+			old_planes.release(bitmap_pool);
+		}
+	}
+	
+	// chooses whether the is_occupied, is_continuation and is_shifted flags are interleaved with the fingerprints in each slot (the default), 
+	// or stored in three separate bitmaps. The latter lets the scans over the flags examine 64 slots at a time, 
+	// and lets the fingerprints of e.g. 11- or 19-bit entries be stored in aligned arrays. 
+	// The filter's current contents are converted. Filters persisted to a file must use the default layout. 
+	public void set_separate_metadata(boolean val) {
+		if (val == separate_metadata) {
+			return;
+		}
+		if (backing_file != null) {
+			throw new UnsupportedOperationException("a filter persisted to a file must interleave its metadata with its fingerprints");
+		}
+		if (circular) {
+			throw new UnsupportedOperationException("a circular filter must interleave its metadata with its fingerprints");
+		}
+		// we write the slots into a filter with the new layout, and then adopt its bitmaps
+		QuotientFilter target = new QuotientFilter(power_of_two_size, bitPerEntry, (Bitmap) null);
+		target.num_extension_slots = num_extension_slots;
+		target.bitmap_type = bitmap_type;
+		target.bitmap_pool = bitmap_pool;
+		target.separate_metadata = val;
+		target.filter = target.make_filter(get_logical_num_slots(), bitPerEntry);
+		target.planes = target.make_planes(get_logical_num_slots());
+		long num_slots = get_logical_num_slots_plus_extensions();
+		for (long i = 0; i < num_slots; i++) {
+			target.set_slot(i, get_slot(i));
+		}
+		retire_bitmap(filter);
+		if (planes != null) {
+			planes.release(bitmap_pool);
+		}
+		filter = target.filter;
+		planes = target.planes;
+		separate_metadata = val;
+	}
+	
+	// chooses whether the table wraps around, so that a cluster that reaches the last slot continues at slot 0, 
+	// rather than running into the extension slots at the end of the table (the default). 
+	// Then no extension slots are allocated, and an insertion only fails if it would fill the last empty slot of the table. 
+	// The filter's current entries are reinserted into a table of the new kind. Circular filters must interleave their metadata 
+	// with their fingerprints, and cannot be persisted to a file. 
+	public void set_circular(boolean val) {
+		if (val == circular) {
+			return;
+		}
+		if (backing_file != null) {
+			throw new UnsupportedOperationException("a filter persisted to a file cannot wrap around");
+		}
+		if (separate_metadata) {
+			throw new UnsupportedOperationException("a circular filter must interleave its metadata with its fingerprints");
+		}
+		QuotientFilter target = new QuotientFilter(power_of_two_size, bitPerEntry, bitmap_type, false, val, bitmap_pool);
+		target.reserve_value_bits(value_bits);
+		EntryCursor it = new EntryCursor(this);
+		while (it.next()) {
+			if (!target.insert_with_value(it.fingerprint, it.bucket_index, it.value)) {
+				throw new IllegalStateException("the entries of the filter do not fit in a table that does not wrap around");
+			}
+		}
+		circular = val;
+		num_extension_slots = target.num_extension_slots;
+		last_empty_slot = target.last_empty_slot;
+		last_cluster_start = target.last_cluster_start;
+		replace_generation(target);
+	}
+	
+	public boolean is_circular() {
+		return circular;
+	}
+	
+	// turns the filter into a maplet, which stores a value of the given number of bits along with each fingerprint (see put() and get()), 
+	// or back into a plain filter if bits is 0. Keys inserted with insert() get the value 0. 
+	// The filter must be empty, since its table is reallocated with slots of the new width. 
+	public void set_value_bits(int bits) {
+		if (bits == value_bits) {
+			return;
+		}
+		if (getClass() != QuotientFilter.class && getClass() != BasicInfiniFilter.class) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot store values");
+		}
+		if (bits < 0 || fingerprintLength + bits + 3 > 64) {
+			throw new IllegalArgumentException("the values must fit in a 64-bit slot along with the fingerprint and the metadata flags");
+		}
+		if (backing_file != null) {
+			throw new UnsupportedOperationException("a maplet cannot be persisted to a file");
+		}
+		if (num_physical_entries > 0) {
+			throw new IllegalStateException("only an empty filter can change the width of its values");
+		}
+		allocate_values(bits);
+	}
+	
+	// reallocates the table of an empty filter with room for values of the given width in each slot
+	void allocate_values(int bits) {
+		bitPerEntry += bits - value_bits;
+		value_bits = bits;
+		replace_filter(make_filter(get_logical_num_slots(), bitPerEntry));
+	}
+	
+	public int get_value_bits() {
+		return value_bits;
+	}
+	
+	// chooses whether the fingerprints of each run are kept sorted, rather than in the order they were inserted (the default). 
+	// Searches and deletions then stop at the first fingerprint past the one they look for, and an insertion that must not 
+	// duplicate a matching fingerprint finds both the match and its position in the same pass. 
+	// The runs of the filter are sorted when the option is turned on. 
+	public void set_sorted_runs(boolean val) {
+		if (val == sorted_runs) {
+			return;
+		}
+		if (getClass() != QuotientFilter.class && getClass() != BasicInfiniFilter.class) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot sort its runs");
+		}
+		if (val) {
+			sort_runs();
+		}
+		sorted_runs = val;
+	}
+	
+	public boolean is_sorted_runs() {
+		return sorted_runs;
+	}
+	
+	// the order of the fingerprints within a sorted run. A fingerprint that matches another never comes after it, 
+	// so a scan for a fingerprint can stop once it reaches a fingerprint that comes after it. 
+	int compare_in_run(long fingerprint1, long fingerprint2) {
+		return Long.compare(fingerprint1, fingerprint2);
+	}
+	
+	// sorts the fingerprints of each run in place, along with their values if the filter is a maplet
+	void sort_runs() {
+		long[] entries = new long[8];
+		long num_slots = get_logical_num_slots();
+		for (long bucket = 0; bucket < num_slots; bucket++) {
+			if (!is_occupied(bucket)) {
+				continue;
+			}
+			long run_start = find_run_start(bucket);
+			long run_end = find_run_end(run_start);
+			int run_length = (int) (run_end - run_start + 1);
+			if (entries.length < run_length) {
+				entries = new long[Math.max(run_length, entries.length * 2)];
+			}
+			long fingerprint_mask = (1L << fingerprintLength) - 1;
+			for (int i = 0; i < run_length; i++) {
+				long entry = get_fingerprint(run_start + i) | get_value(run_start + i) << fingerprintLength;
+				int j = i;
+				for (; j > 0 && compare_in_run(entries[j - 1] & fingerprint_mask, entry & fingerprint_mask) > 0; j--) {
+					entries[j] = entries[j - 1];
+				}
+				entries[j] = entry;
+			}
+			for (int i = 0; i < run_length; i++) {
+				set_fingerprint(run_start + i, entries[i]);
+			}
+		}
+	}
+	
+	// from now on, the filter allocates its bitmaps from the given pool and retires the bitmaps it replaces to it, 
+	// e.g. when it expands. Its current bitmaps were not allocated from the pool, so they are released when replaced. 
+	public void set_bitmap_pool(BitmapPool pool) {
+		bitmap_pool = pool;
+	}
+	
+	public boolean is_metadata_separate() {
+		return separate_metadata;
+	}
+	
+	static void copy_bits(Bitmap source, Bitmap target) {
+		long num_bits = Math.min(source.size(), target.size());
+		for (long i = 0; i < num_bits; i += 64) {
+			long to = Math.min(i + 64, num_bits);
+			target.setFromTo(i, to, source.getFromTo(i, to));
+		}
+	}
+	
+	// creates the empty filter that the entries of this filter are migrated into when it expands or widens
+	QuotientFilter make_new_generation(int power_of_two, int bits_per_entry) {
+		if (backing_file != null) {
+			long num_slots = (1L << power_of_two) + power_of_two * 2;
+			try {
+				Bitmap bitmap = MappedFileBitmap.create(next_generation_file(), bits_per_entry, num_slots);
+				return new QuotientFilter(power_of_two, bits_per_entry, bitmap);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		QuotientFilter new_qf = new QuotientFilter(power_of_two, bits_per_entry + value_bits, bitmap_type, separate_metadata, circular, bitmap_pool);
+		new_qf.reserve_value_bits(value_bits);
+		return new_qf;
+	}
+	
+	// gives the given number of bits of each slot of a new filter, which its bits per entry already include, to the values
+	void reserve_value_bits(int bits) {
+		fingerprintLength -= bits;
+		original_fingerprint_size -= bits;
+		value_bits = bits;
+	}
+	
+	// adopts the bitmap of a filter built by make_new_generation, and retires the bitmap it replaces.
+	// This must be called once the fields of the filter describe the new generation.
+	void replace_filter(Bitmap new_filter) {
+		Bitmap old_filter = filter;
+		filter = new_filter;
+		if (backing_file != null) {
+			// the new generation is made durable under a temporary name and then renamed over the previous one, 
+			// so after a crash the file holds either the old generation or the new one, but never a mix
+			sync();
+			try {
+				((MappedFileBitmap) filter).rename_to(backing_file);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		retire_bitmap(old_filter);
+	}
+	
+	// adopts all the slots of a filter built by make_new_generation, including its metadata planes if it has them
+	void replace_generation(QuotientFilter new_qf) {
+		if (planes != null) {
+			planes.release(bitmap_pool);
+		}
+		planes = new_qf.planes;
+		replace_filter(new_qf.filter);
+	}
+	
+	// layout of the header of a filter persisted to a file, after the fields reserved by MappedFileBitmap
+	static final int HEADER_KIND = MappedFileBitmap.FIRST_FREE_HEADER_FIELD;
+	static final int HEADER_POWER_OF_TWO_SIZE = HEADER_KIND + 1;
+	static final int HEADER_BIT_PER_ENTRY = HEADER_KIND + 2;
+	static final int HEADER_FINGERPRINT_LENGTH = HEADER_KIND + 3;
+	static final int HEADER_NUM_EXTENSION_SLOTS = HEADER_KIND + 4;
+	static final int HEADER_NUM_PHYSICAL_ENTRIES = HEADER_KIND + 5;
+	static final int HEADER_NUM_LOGICAL_ENTRIES = HEADER_KIND + 6;
+	static final int HEADER_NUM_EXPANSIONS = HEADER_KIND + 7;
+	static final int HEADER_ORIGINAL_FINGERPRINT_SIZE = HEADER_KIND + 8;
+	static final int HEADER_LAST_EMPTY_SLOT = HEADER_KIND + 9;
+	static final int HEADER_LAST_CLUSTER_START = HEADER_KIND + 10;
+	static final int HEADER_BACKWARD_STEPS = HEADER_KIND + 11;
+	static final int HEADER_FULLNESS_THRESHOLD = HEADER_KIND + 12;
+	static final int HEADER_MAX_ENTRIES_BEFORE_FULL = HEADER_KIND + 13;
+	static final int HEADER_EXPAND_AUTONOMOUSLY = HEADER_KIND + 14;
+	static final int HEADER_IS_FULL = HEADER_KIND + 15;
+	static final int HEADER_HASH_TYPE = HEADER_KIND + 16;
+	static final int HEADER_FIRST_SUBCLASS_FIELD = HEADER_KIND + 17;
+	
+	static final long KIND_QUOTIENT_FILTER = 1;
+	static final long KIND_BASIC_INFINIFILTER = 2;
+	
+	Path backing_file; // set if the filter is persisted to a file, in which case the filter's bitmap maps it
+	
+	// returns the kind recorded in the header of a persisted filter, or 0 if this filter cannot be persisted.
+	// Filters that consist of several internal filters (e.g. chains) are not supported.
+	long get_persisted_kind() {
+		return getClass() == QuotientFilter.class ? KIND_QUOTIENT_FILTER : 0;
+	}
+	
+	// moves the slots of the filter into a memory-mapped file at the given path.
+	// From then on, slots are modified in place within the file, and sync() makes them durable along with the filter's counters.
+	// When the filter expands, the next generation is built in a separate file that atomically replaces this one once complete.
+	// After a restart, the filter can be reopened with open() without reinserting its keys. 
+	public void persist_to(Path path) throws IOException {
+		if (get_persisted_kind() == 0) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be persisted to a file");
+		}
+		if (separate_metadata) {
+			throw new UnsupportedOperationException("a filter with separate metadata planes cannot be persisted to a file");
+		}
+		if (circular) {
+			throw new UnsupportedOperationException("a circular filter cannot be persisted to a file");
+		}
+		if (value_bits > 0) {
+			throw new UnsupportedOperationException("a maplet cannot be persisted to a file");
+		}
+		MappedFileBitmap mapped = MappedFileBitmap.create(path, bitPerEntry, get_logical_num_slots_plus_extensions());
+		copy_bits(filter, mapped);
+		retire_bitmap(filter);
+		filter = mapped;
+		backing_file = path;
+		bitmap_type = BitmapType.mapped_file;
+		sync();
+	}
+	
+	// records the filter's counters in the header of its file and writes all modified pages to the file
+	public void sync() {
+		if (backing_file == null) {
+			return;
+		}
+		MappedFileBitmap mapped = (MappedFileBitmap) filter;
+		write_header(mapped);
+		mapped.flush();
+	}
+	
+	Path next_generation_file() {
+		return backing_file.resolveSibling(backing_file.getFileName() + ".next");
+	}
+	
+	void write_header(MappedFileBitmap mapped) {
+		mapped.setHeaderField(HEADER_KIND, get_persisted_kind());
+		mapped.setHeaderField(HEADER_POWER_OF_TWO_SIZE, power_of_two_size);
+		mapped.setHeaderField(HEADER_BIT_PER_ENTRY, bitPerEntry);
+		mapped.setHeaderField(HEADER_FINGERPRINT_LENGTH, fingerprintLength);
+		mapped.setHeaderField(HEADER_NUM_EXTENSION_SLOTS, num_extension_slots);
+		mapped.setHeaderField(HEADER_NUM_PHYSICAL_ENTRIES, num_physical_entries);
+		mapped.setHeaderField(HEADER_NUM_LOGICAL_ENTRIES, num_logical_entries);
+		mapped.setHeaderField(HEADER_NUM_EXPANSIONS, num_expansions);
+		mapped.setHeaderField(HEADER_ORIGINAL_FINGERPRINT_SIZE, original_fingerprint_size);
+		mapped.setHeaderField(HEADER_LAST_EMPTY_SLOT, last_empty_slot);
+		mapped.setHeaderField(HEADER_LAST_CLUSTER_START, last_cluster_start);
+		mapped.setHeaderField(HEADER_BACKWARD_STEPS, backward_steps);
+		mapped.setHeaderField(HEADER_FULLNESS_THRESHOLD, Double.doubleToLongBits(fullness_threshold));
+		mapped.setHeaderField(HEADER_MAX_ENTRIES_BEFORE_FULL, max_entries_before_full);
+		mapped.setHeaderField(HEADER_EXPAND_AUTONOMOUSLY, expand_autonomously ? 1 : 0);
+		mapped.setHeaderField(HEADER_IS_FULL, is_full ? 1 : 0);
+		mapped.setHeaderField(HEADER_HASH_TYPE, hash_type.ordinal());
+	}
+	
+	void read_header(MappedFileBitmap mapped) {
+		power_of_two_size = (int) mapped.getHeaderField(HEADER_POWER_OF_TWO_SIZE);
+		bitPerEntry = (int) mapped.getHeaderField(HEADER_BIT_PER_ENTRY);
+		fingerprintLength = (int) mapped.getHeaderField(HEADER_FINGERPRINT_LENGTH);
+		num_extension_slots = (int) mapped.getHeaderField(HEADER_NUM_EXTENSION_SLOTS);
+		num_physical_entries = mapped.getHeaderField(HEADER_NUM_PHYSICAL_ENTRIES);
+		num_logical_entries = (int) mapped.getHeaderField(HEADER_NUM_LOGICAL_ENTRIES);
+		num_expansions = (int) mapped.getHeaderField(HEADER_NUM_EXPANSIONS);
+		original_fingerprint_size = (int) mapped.getHeaderField(HEADER_ORIGINAL_FINGERPRINT_SIZE);
+		last_empty_slot = mapped.getHeaderField(HEADER_LAST_EMPTY_SLOT);
+		last_cluster_start = mapped.getHeaderField(HEADER_LAST_CLUSTER_START);
+		backward_steps = mapped.getHeaderField(HEADER_BACKWARD_STEPS);
+		fullness_threshold = Double.longBitsToDouble(mapped.getHeaderField(HEADER_FULLNESS_THRESHOLD));
+		max_entries_before_full = mapped.getHeaderField(HEADER_MAX_ENTRIES_BEFORE_FULL);
+		expand_autonomously = mapped.getHeaderField(HEADER_EXPAND_AUTONOMOUSLY) == 1;
+		is_full = mapped.getHeaderField(HEADER_IS_FULL) == 1;
+		hash_type = HashType.values()[(int) mapped.getHeaderField(HEADER_HASH_TYPE)];
+	}
+	
+	// reopens a filter persisted with persist_to(). This only maps the file, and its pages are read lazily as they are accessed.
+	// The counters are those recorded by the last sync() or expansion.
+	public static QuotientFilter open(Path path) throws IOException {
+		MappedFileBitmap mapped = MappedFileBitmap.open(path);
+		long kind = mapped.getHeaderField(HEADER_KIND);
+		int power_of_two = (int) mapped.getHeaderField(HEADER_POWER_OF_TWO_SIZE);
+		int bits_per_entry = (int) mapped.getHeaderField(HEADER_BIT_PER_ENTRY);
+		QuotientFilter qf;
+		if (kind == KIND_QUOTIENT_FILTER) {
+			qf = new QuotientFilter(power_of_two, bits_per_entry, mapped);
+		}
+		else if (kind == KIND_BASIC_INFINIFILTER) {
+			qf = new BasicInfiniFilter(power_of_two, bits_per_entry, mapped);
+		}
+		else {
+			mapped.release();
+			throw new IOException(path + " does not hold a persisted filter");
+		}
+		qf.read_header(mapped);
+		qf.backing_file = path;
+		qf.bitmap_type = BitmapType.mapped_file;
+		return qf;
+	}
+	
 	public int get_fingerprint_length() {
 		return fingerprintLength;
 	}
@@ -192,14 +676,34 @@ public class QuotientFilter extends Filter implements Cloneable {
 	// scans the quotient filter and returns the number of non-empty slots
 	public long get_num_occupied_slots(boolean include_all_internal_filters) {
 		//long bits = filter.size();
-		long slots = get_physcial_num_slots();
-		long num_entries = 0;
-		for (long i = 0; i < slots; i++) {
-			if (is_occupied(i) || is_continuation(i) || is_shifted(i)) {
-				num_entries++;
+		return new OccupiedSlotScan(this, 0, get_physcial_num_slots()).run();
+	}
+	
+	static class OccupiedSlotScan extends TableScan.SlotScan<Long> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		OccupiedSlotScan(QuotientFilter qf, long from, long to) {
+			super(qf, from, to);
+		}
+		
+		TableScan<Long> part(long part_from, long part_to) {
+			return new OccupiedSlotScan(qf, part_from, part_to);
+		}
+		
+		Long scan() {
+			long num_entries = 0;
+			for (long i = from; i < to; i++) {
+				if (qf.is_occupied(i) || qf.is_continuation(i) || qf.is_shifted(i)) {
+					num_entries++;
+				}
 			}
+			return num_entries;
+		}
+		
+		Long merge(Long first, Long second) {
+			return first + second;
 		}
-		return num_entries;
 	}
 	
 	// returns the fraction of occupied slots in the filter
@@ -212,7 +716,7 @@ public class QuotientFilter extends Filter implements Cloneable {
 	
 	public long get_physcial_num_slots() {
 		long bits = filter.size();
-		return bits / bitPerEntry;
+		return bits / fingerprint_stride();
 	}
 	
 	// returns the number of physical slots in the filter (including the extention/buffer slots at the end)
@@ -236,9 +740,41 @@ public class QuotientFilter extends Filter implements Cloneable {
 		set_shifted(index, is_shifted);
 	}
 	
-	// sets the fingerprint for a given slot index
+	// maps a slot index to the physical slot that holds it. In a circular filter, an index may run past the end of the table 
+	// (or before its start) while scanning a cluster that wraps around, and it then maps to a slot at the other end. 
+	long wrap_slot(long index) {
+		return circular ? index & ((1L << power_of_two_size) - 1) : index;
+	}
+	
+	// the number of bits between the starts of the fingerprints of consecutive slots in the filter bitmap
+	int fingerprint_stride() {
+		return separate_metadata ? Math.max(bitPerEntry - 3, 1) : bitPerEntry;
+	}
+	
+	// returns the offset in the filter bitmap of the first bit of the fingerprint in a given slot index
+	long fingerprint_start(long index) {
+		return separate_metadata ? index * fingerprint_stride() : wrap_slot(index) * bitPerEntry + 3;
+	}
+	
+	// sets the fingerprint for a given slot index. In a maplet, this clears the value of the slot too, 
+	// unless the bits above the fingerprint hold one
 	void set_fingerprint(long index, long fingerprint) {
-		filter.setFromTo(index * bitPerEntry + 3, (long)index * bitPerEntry + 3 + fingerprintLength, fingerprint);
+		long start = fingerprint_start(index);
+		filter.setFromTo(start, start + fingerprintLength + value_bits, fingerprint);
+	}
+	
+	// returns the value stored after the fingerprint of a given slot, which is 0 unless the filter is a maplet
+	long get_value(long index) {
+		if (value_bits == 0) {
+			return 0;
+		}
+		long start = fingerprint_start(index) + fingerprintLength;
+		return filter.getFromTo(start, start + value_bits);
+	}
+	
+	void set_value(long index, long value) {
+		long start = fingerprint_start(index) + fingerprintLength;
+		filter.setFromTo(start, start + value_bits, value);
 	}
 	
 	// print a nice representation of the filter that can be understood. 
@@ -249,7 +785,8 @@ public class QuotientFilter extends Filter implements Cloneable {
 		long logic_slots = get_logical_num_slots();
 		long all_slots = get_logical_num_slots_plus_extensions();
 		
-		for (long i = 0; i < filter.size(); i++) {
+		long num_bits = separate_metadata ? get_physcial_num_slots() * bitPerEntry : filter.size();
+		for (long i = 0; i < num_bits; i++) {
 		//for (long i = 0; i < 100; i++) {
 
 			long remainder = i % bitPerEntry;
@@ -267,7 +804,7 @@ public class QuotientFilter extends Filter implements Cloneable {
 			if (remainder == 3) {
 				sbr.append(" ");
 			}
-			sbr.append(filter.get(i) ? "1" : "0");
+			sbr.append(get_bit_at_offset(i) ? "1" : "0");
 		}
 		sbr.append("\n");
 		return sbr.toString();
@@ -280,12 +817,28 @@ public class QuotientFilter extends Filter implements Cloneable {
 
 	// return a fingerprint in a given slot index
 	long get_fingerprint(long index) {
-		return filter.getFromTo(index * bitPerEntry + 3, index * bitPerEntry + 3 + fingerprintLength);
+		long start = fingerprint_start(index);
+		return filter.getFromTo(start, start + fingerprintLength);
 	}
 	
 	// return an entire slot representation, including metadata flags and fingerprint
 	long get_slot(long index) {
-		return filter.getFromTo(index * bitPerEntry, (index + 1) * bitPerEntry);
+		if (separate_metadata) {
+			long flags = (planes.occupieds.get(index) ? 1 : 0) | (planes.continuations.get(index) ? 2 : 0) | (planes.shifteds.get(index) ? 4 : 0);
+			return ((get_fingerprint(index) | get_value(index) << fingerprintLength) << 3) | flags;
+		}
+		long start = wrap_slot(index) * bitPerEntry;
+		return filter.getFromTo(start, start + bitPerEntry);
+	}
+	
+	// overwrite an entire slot, given in the representation returned by get_slot
+	void set_slot(long index, long slot) {
+		if (separate_metadata) {
+			modify_slot((slot & 1) != 0, (slot & 2) != 0, (slot & 4) != 0, index, slot >>> 3);
+			return;
+		}
+		long start = wrap_slot(index) * bitPerEntry;
+		filter.setFromTo(start, start + bitPerEntry, slot);
 	}
 	
 	// compare a fingerprint input to the fingerprint in some slot index
@@ -293,6 +846,24 @@ public class QuotientFilter extends Filter implements Cloneable {
 		return get_fingerprint(index) == fingerprint;
 	}
 	
+	// compare a fingerprint input to a fingerprint that was already read from a slot
+	protected boolean compare_fingerprints(long slot_fingerprint, long fingerprint) {
+		return slot_fingerprint == fingerprint;
+	}
+	
+	// returns a cursor that reads the fingerprints of consecutive slots, starting from a given slot index
+	SlotCursor fingerprint_cursor(long index) {
+		SlotCursor cursor = filter.cursor(fingerprint_start(index), fingerprint_stride(), fingerprintLength);
+		return circular ? cursor.wrap_at(get_logical_num_slots() * bitPerEntry) : cursor;
+	}
+	
+	// returns a cursor that reads consecutive slots in the representation of get_slot, starting from a given slot index. 
+	// This is only possible when the metadata flags are interleaved with the fingerprints. 
+	SlotCursor slot_cursor(long index) {
+		SlotCursor cursor = filter.cursor(wrap_slot(index) * bitPerEntry, bitPerEntry, bitPerEntry);
+		return circular ? cursor.wrap_at(get_logical_num_slots() * bitPerEntry) : cursor;
+	}
+	
 	// modify the flags and fingerprint of a given slot
 	void modify_slot(boolean is_occupied, boolean is_continuation, boolean is_shifted, 
 			long index, long fingerprint) {
@@ -320,27 +891,51 @@ public class QuotientFilter extends Filter implements Cloneable {
 	}
 	
 	boolean is_occupied(long index) { //检查给定索引 index (slot) 是否被占用，返回is_occupied对应的结果，true或false
-		return filter.get(index * bitPerEntry);
+		if (separate_metadata) {
+			return planes.occupieds.get(index);
+		}
+		return filter.get(wrap_slot(index) * bitPerEntry);
 	}
 	
 	boolean is_continuation(long index) { //检查给定索引 index 是否在一个run内
-		return filter.get(index * bitPerEntry + 1);
+		if (separate_metadata) {
+			return planes.continuations.get(index);
+		}
+		return filter.get(wrap_slot(index) * bitPerEntry + 1);
 	}
 	
 	boolean is_shifted(long index) {
-		return filter.get(index * bitPerEntry + 2); //检查给定索引 index 是否在一个cluster内
+		if (separate_metadata) {
+			return planes.shifteds.get(index);
+		}
+		return filter.get(wrap_slot(index) * bitPerEntry + 2); //检查给定索引 index 是否在一个cluster内
 	}
 	
 	void set_occupied(long index, boolean val) {
-		filter.set(index * bitPerEntry, val);//调用QuickBitVectorWrapper.java中set(),把filter中index对应的slot
+		if (separate_metadata) {
+			planes.occupieds.set(index, val);
+			planes.touch(index, index);
+			return;
+		}
+		filter.set(wrap_slot(index) * bitPerEntry, val);//调用QuickBitVectorWrapper.java中set(),把filter中index对应的slot
 	}
 	
 	void set_continuation(long index, boolean val) {
-		filter.set(index * bitPerEntry + 1, val);
+		if (separate_metadata) {
+			planes.continuations.set(index, val);
+			planes.touch(index, index);
+			return;
+		}
+		filter.set(wrap_slot(index) * bitPerEntry + 1, val);
 	}
 	
 	void set_shifted(long index, boolean val) {
-		filter.set(index * bitPerEntry + 2, val);
+		if (separate_metadata) {
+			planes.shifteds.set(index, val);
+			planes.touch(index, index);
+			return;
+		}
+		filter.set(wrap_slot(index) * bitPerEntry + 2, val);
 	}
 	
 	boolean is_slot_empty(long index) {//判断一个slot是否为空，如果该slot的三个比特均为0，则认为该slot为空，返回true,否则返回false（即三个比特存在任意一位为0）
@@ -350,6 +945,9 @@ public class QuotientFilter extends Filter implements Cloneable {
 	// scan the cluster leftwards until finding the start of the cluster and returning its slot index
 	// used by deletes
 	long find_cluster_start(long index) {
+		if (separate_metadata) {
+			return MetadataPlanes.previous_clear(planes.shifteds, index);
+		}
 		long current_index = index;
 		while (is_shifted(current_index)) {
 			current_index--;
@@ -360,6 +958,23 @@ public class QuotientFilter extends Filter implements Cloneable {
 	// given a canonical slot A, finds the actual index B of where the run belonging to slot A now resides
 	// since the run might have been shifted to the right due to collisions
 	long find_run_start(long index) {// index 是slot的标号，从0开始
+		// with separate metadata, the run is located through the rank-and-select index of the planes. 
+		// The index is updated lazily by whichever thread looks up a run, so searches that run concurrently with 
+		// an insertion (see search_concurrently) scan the cluster instead. 
+		if (separate_metadata && bitmap_type != BitmapType.atomic) {
+			// the slots between the cluster start and the run start are all in use, 
+			// so the empty slot before the cluster is also the empty slot before the run start
+			long run_start = planes.find_run_start(index);
+			last_cluster_start = run_start - 1;
+			return run_start;
+		}
+		if (separate_metadata) {
+			// count the runs that start in the cluster before our canonical slot, and then skip over as many runs plus one
+			long cluster_start = MetadataPlanes.previous_clear(planes.shifteds, index);
+			long runs_to_skip = 1 + MetadataPlanes.count_set(planes.occupieds, cluster_start + 1, index + 1);
+			last_cluster_start = cluster_start - 1;
+			return MetadataPlanes.nth_clear(planes.continuations, cluster_start, runs_to_skip, planes.capacity);
+		}
 		long current_index = index; 
 		int runs_to_skip_counter = 1;
 		while (is_shifted(current_index)) {
@@ -383,32 +998,47 @@ public class QuotientFilter extends Filter implements Cloneable {
 	// given the start of a run, scan the run and return the index of the first matching fingerprint
 	long find_first_fingerprint_in_run(long index, long fingerprint) {
 		assert(!is_continuation(index));
-		do {
-			if (compare(index, fingerprint)) {
+		long run_end = find_run_end(index);
+		SlotCursor fingerprints = fingerprint_cursor(index);
+		for (; index <= run_end; index++) {
+			long slot_fp = fingerprints.next();
+			if (compare_fingerprints(slot_fp, fingerprint)) {
 				//System.out.println("found matching FP at index " + index);
 				return index; 
 			}
-			index++;
-		} while (index < get_logical_num_slots_plus_extensions() && is_continuation(index));
+			if (sorted_runs && compare_in_run(slot_fp, fingerprint) > 0) {
+				return -1;
+			}
+		}
 		return -1; 
 	}
 	
 	// delete the last matching fingerprint in the run
 	long decide_which_fingerprint_to_delete(long index, long fingerprint) {
 		long matching_fingerprint_index = -1;
-		do {
-			if (compare(index, fingerprint)) {
+		long run_end = find_run_end(index);
+		SlotCursor fingerprints = fingerprint_cursor(index);
+		for (; index <= run_end; index++) {
+			long slot_fp = fingerprints.next();
+			if (compare_fingerprints(slot_fp, fingerprint)) {
 				//System.out.println("found matching FP at index " + index);
 				matching_fingerprint_index = index;
 			}
-			index++;
-		} while (index < get_logical_num_slots_plus_extensions() && is_continuation(index));
+			else if (sorted_runs && compare_in_run(slot_fp, fingerprint) > 0) {
+				break;
+			}
+		}
 		return matching_fingerprint_index; 
 	}
 	
 	// given the start of a run, find the last slot index that still belongs to this run
 	long find_run_end(long index) {
-		while(index < get_logical_num_slots_plus_extensions() - 1 && is_continuation(index+1)) {
+		long num_slots = circular ? Long.MAX_VALUE : get_logical_num_slots_plus_extensions();
+		if (separate_metadata) {
+			return MetadataPlanes.next_clear(planes.continuations, index + 1, num_slots) - 1;
+		}
+		SlotCursor slots = slot_cursor(index + 1);
+		while (index < num_slots - 1 && (slots.next() & 2) != 0) {
 			index++;
 		} 
 		return index; 
@@ -441,15 +1071,34 @@ public class QuotientFilter extends Filter implements Cloneable {
 		return set;
 	}
 	
-	// Swaps the fingerprint in a given slot with a new one. Return the pre-existing fingerprint
+	// Swaps the fingerprint in a given slot with a new one, which keeps the value of the slot. Return the pre-existing fingerprint
 	long swap_fingerprints(long index, long new_fingerprint) {
 		long existing = get_fingerprint(index);
-		set_fingerprint(index, new_fingerprint);
+		set_fingerprint(index, new_fingerprint | get_value(index) << fingerprintLength);
 		return existing;
 	}
 	
+	// returns whether a slot lies beyond the extension slots at the end of the table. In a circular filter, no slot does. 
+	boolean is_past_table_end(long index) {
+		return !circular && index >= get_logical_num_slots_plus_extensions();
+	}
+	
+	// returns the first slot in [index, limit) that is not shifted, i.e. an empty slot or the start of a cluster, or limit if there is none
+	long find_unshifted_slot(long index, long limit) {
+		if (separate_metadata) {
+			return MetadataPlanes.next_clear(planes.shifteds, index, limit);
+		}
+		while (index < limit && is_shifted(index)) {
+			index++;
+		}
+		return index;
+	}
+	
 	// finds the first empty slot after the given slot index
 	long find_first_empty_slot(long index) {
+		if (separate_metadata) {
+			return planes.next_empty_slot(index, planes.capacity);
+		}
 		while (!is_slot_empty(index)) {
 			index++;
 		}
@@ -459,6 +1108,11 @@ public class QuotientFilter extends Filter implements Cloneable {
 	// moves backwards to find the first empty slot
 	// used as a part of the mechanism to prevent exceptions when exceeding the quotient filter's bounds 
 	long find_backward_empty_slot(long index) {
+		if (separate_metadata && index >= 0) {
+			long empty_slot = planes.previous_empty_slot(index);
+			backward_steps += index - empty_slot;
+			return empty_slot;
+		}
 		while (index >= 0 && !is_slot_empty(index)) {
 			backward_steps++;
 			index--;
@@ -471,6 +1125,9 @@ public class QuotientFilter extends Filter implements Cloneable {
 		if (!is_slot_empty(index)) {
 			index++;
 		}
+		if (separate_metadata) {
+			return MetadataPlanes.next_clear(planes.continuations, index, planes.capacity);
+		}
 		while (is_continuation(index)) {
 			index++;
 		}
@@ -479,6 +1136,7 @@ public class QuotientFilter extends Filter implements Cloneable {
 	
 	boolean insert_new_run(long canonical_slot, long long_fp) {//把指纹插入到候选slot
 		long first_empty_slot = find_first_empty_slot(canonical_slot); // finds the first empty slot to the right of the canonical slot that is empty
+		last_filled_slot = first_empty_slot;
 		long preexisting_run_start_index = find_run_start(canonical_slot); // scans the cluster leftwards and then to the right until reaching our run's would be location
 		long start_of_this_new_run = find_new_run_location(preexisting_run_start_index); // If there is already a run at the would-be location, find its end and insert the new run after it
 		boolean slot_initially_empty = is_slot_empty(start_of_this_new_run); 
@@ -502,31 +1160,15 @@ public class QuotientFilter extends Filter implements Cloneable {
 		
 		// push all entries one slot to the right
 		// if we inserted this run in the middle of a cluster
-		long current_index = start_of_this_new_run;
-		boolean is_this_slot_empty;
-		boolean temp_continuation = false;
-		do {
-			if (current_index >= get_logical_num_slots_plus_extensions()) {
-				return false;
-			}
-			
-			is_this_slot_empty = is_slot_empty(current_index);
-			long_fp = swap_fingerprints(current_index, long_fp);
-
-			if (current_index > start_of_this_new_run) {
-				set_shifted(current_index, true);
-			}
-			
-			if (current_index > start_of_this_new_run) {
-				boolean current_continuation = is_continuation(current_index);
-				set_continuation(current_index, temp_continuation);
-				temp_continuation = current_continuation;
-			}
-			current_index++;
-			if (current_index == last_empty_slot) {  // TODO get this out of the while loop
-				last_empty_slot = find_backward_empty_slot(last_cluster_start);
-			}
-		} while (!is_this_slot_empty);
+		if (is_past_table_end(first_empty_slot)) {
+			return false;
+		}
+		shift_slots(start_of_this_new_run, first_empty_slot, 1);
+		set_fingerprint(start_of_this_new_run, long_fp);
+		set_shifted_range(start_of_this_new_run + 1, first_empty_slot + 1);
+		if (last_empty_slot > start_of_this_new_run && last_empty_slot <= first_empty_slot + 1) {
+			last_empty_slot = find_backward_empty_slot(last_cluster_start);
+		}
 		num_physical_entries++;
 		return true; 
 	}
@@ -535,6 +1177,10 @@ public class QuotientFilter extends Filter implements Cloneable {
 		if (index > last_empty_slot) {//判断插入的 index 是否超出了filter的最后一个slot的位置；如果超出，则插入失败。
 			return false;
 		}
+		// a circular filter keeps at least one slot empty, so that every cluster ends and every scan over one terminates
+		if (circular && num_physical_entries >= get_logical_num_slots() - 1) {
+			return false;
+		}
 		boolean does_run_exist = is_occupied(index);//取出 index 对应的 slot 中 is_occupied 是 true 还是 false
 		if (!does_run_exist) { //如果is_occupied=false（即该slot曾经没有作为候选slot，也就是说还没有开启一个新的run），那么就把指纹放在该slot
 			boolean val = insert_new_run(index, long_fp);
@@ -542,6 +1188,9 @@ public class QuotientFilter extends Filter implements Cloneable {
 		}
 		
 		long run_start_index = find_run_start(index);
+		if (sorted_runs) {
+			return insert_in_order(long_fp, run_start_index, insert_only_if_no_match);
+		}
 		//如果 is_occupied = false ，
 		//如果 is_occupied = true ，说明之前已经有数据也是属于这个run，但是该run真实的开始并不在候选的slot里，因此需要找到run的真实开始位置
 		//该算法就是找到该指纹所述run的真实开始位置
@@ -554,123 +1203,241 @@ public class QuotientFilter extends Filter implements Cloneable {
 		return insert_fingerprint_and_push_all_else(long_fp, run_start_index);
 	}
 	
-	// insert an fingerprint as the first fingerprint of the new run and push all other entries in the cluster to the right.
-	boolean insert_fingerprint_and_push_all_else(long long_fp, long run_start_index) {
-		long current_index = run_start_index;
-		boolean is_this_slot_empty;
-		boolean finished_first_run = false;
-		boolean temp_continuation = false;
-				
-		do {
-			if (current_index >= get_logical_num_slots_plus_extensions()) {	 
+	// inserts a fingerprint along with its value. The new fingerprint always ends up last in its run, 
+	// whether it starts a new run or goes after the end of an existing one
+	boolean insert_with_value(long long_fp, long index, long value) {
+		if (!insert(long_fp, index, false)) {
+			return false;
+		}
+		if (value != 0) {
+			set_value(find_inserted_slot(find_run_start(index), long_fp), value);
+		}
+		return true;
+	}
+	
+	// returns the slot of the fingerprint just inserted into the run that starts at run_start_index. 
+	// In a sorted run, it comes after the fingerprints equal to it. 
+	long find_inserted_slot(long run_start_index, long long_fp) {
+		long index = find_run_end(run_start_index);
+		while (sorted_runs && get_fingerprint(index) != long_fp) {
+			index--;
+		}
+		return index;
+	}
+	
+	// inserts a fingerprint into a sorted run, after the fingerprints that come before it or equal it. 
+	// Any fingerprint that matches it comes before that position, so the scan for the position also checks for a match. 
+	boolean insert_in_order(long long_fp, long run_start_index, boolean insert_only_if_no_match) {
+		long run_end = find_run_end(run_start_index);
+		SlotCursor fingerprints = fingerprint_cursor(run_start_index);
+		long insertion_slot = run_start_index;
+		for (; insertion_slot <= run_end; insertion_slot++) {
+			long slot_fp = fingerprints.next();
+			if (insert_only_if_no_match && compare_fingerprints(slot_fp, long_fp)) {
 				return false;
 			}
-			is_this_slot_empty = is_slot_empty(current_index);
-			if (current_index > run_start_index) {			
-				set_shifted(current_index, true);
+			if (compare_in_run(slot_fp, long_fp) > 0) {
+				break;
+			}
+		}
+		return insert_fingerprint_at(long_fp, run_start_index, insertion_slot);
+	}
+	
+	// insert an fingerprint as the first fingerprint of the new run and push all other entries in the cluster to the right.
+	boolean insert_fingerprint_and_push_all_else(long long_fp, long run_start_index) {
+		return insert_fingerprint_at(long_fp, run_start_index, find_run_end(run_start_index) + 1);
+	}
+	
+	// inserts a fingerprint into the run that starts at run_start_index, at a slot between the run start and the slot after the run end. 
+	// The fingerprints from that slot to the end of the cluster move one slot to the right. 
+	boolean insert_fingerprint_at(long long_fp, long run_start_index, long insertion_slot) {
+		long empty_slot = find_first_empty_slot(run_start_index);
+		if (is_past_table_end(empty_slot)) {	 
+			return false;
+		}
+		last_filled_slot = empty_slot;
+		shift_slots(insertion_slot, empty_slot, 1);
+		set_fingerprint(insertion_slot, long_fp);
+		if (insertion_slot == run_start_index) {
+			// the vacated run start keeps its flags, and the previous first fingerprint of the run becomes its continuation
+			set_continuation(insertion_slot + 1, true);
+		}
+		else {
+			set_continuation(insertion_slot, true);
+		}
+		set_shifted_range(run_start_index + 1, empty_slot + 1);
+		if (last_empty_slot >= run_start_index && last_empty_slot <= empty_slot) {  
+			last_empty_slot = find_backward_empty_slot(last_cluster_start);
+		}
+		num_physical_entries++;
+		return true; 
+	}
+	
+	// moves the fingerprints and the is_continuation and is_shifted flags of the slots in [from, to) by one slot 
+	// to the right (distance 1) or to the left (distance -1), using Bitmap.shiftRange() rather than slot by slot.
+	// The is_occupied flags stay in place, since they belong to the canonical slots rather than to the entries.
+	// The vacated slot keeps its old contents. 
+	void shift_slots(long from, long to, int distance) {
+		if (from >= to) {
+			return;
+		}
+		if (circular) {
+			long num_slots = get_logical_num_slots();
+			long start = wrap_slot(from);
+			long end = start + (to - from);
+			if (end + distance > num_slots || end > num_slots || start + distance < 0) {
+				shift_slots_around_table_end(start, end, distance);
+				return;
 			}
-			if (current_index > run_start_index && !finished_first_run && !is_continuation(current_index)) {	
-				finished_first_run = true;
-				set_continuation(current_index, true);
-				long_fp = swap_fingerprints(current_index, long_fp);
+			from = start;
+			to = end;
+		}
+		if (separate_metadata) {
+			int stride = fingerprint_stride();
+			filter.shiftRange(from * stride, to * stride, (long) distance * stride);
+			planes.continuations.shiftRange(from, to, distance);
+			planes.shifteds.shiftRange(from, to, distance);
+			planes.touch(Math.min(from, from + distance), Math.max(to, to + distance));
+			return;
+		}
+		// whole slots are moved in words of as many slots as fit in a word of the bitmap (see Bitmap.word_bits). 
+		// Each word keeps its own is_occupied flags, which sit every bitPerEntry bits, by merging the moved word 
+		// with the word it overwrites under a periodic mask. Like memmove, we start from the end of the range that the slots move towards. 
+		int slots_per_word = filter.word_bits() / bitPerEntry;
+		if (slots_per_word <= 1) {
+			shift_whole_word_slots(from, to, distance);
+			return;
+		}
+		long occupieds = 0;
+		for (int i = 0; i < slots_per_word; i++) {
+			occupieds |= 1L << (i * bitPerEntry);
+		}
+		long num_words = (to - from + slots_per_word - 1) / slots_per_word;
+		for (long w = 0; w < num_words; w++) {
+			long word_start = distance > 0 ? Math.max(from, to - (w + 1) * slots_per_word) : from + w * slots_per_word;
+			long word_end = distance > 0 ? to - w * slots_per_word : Math.min(to, word_start + slots_per_word);
+			long start = (word_start + distance) * bitPerEntry;
+			long end = (word_end + distance) * bitPerEntry;
+			long saved = filter.getFromTo(start, end);
+			long moved = filter.getFromTo(word_start * bitPerEntry, word_end * bitPerEntry);
+			filter.setFromTo(start, end, (moved & ~occupieds) | (saved & occupieds));
+		}
+	}
+	
+	// shift_slots for slots that each take up a whole word of the bitmap (e.g. an element of an AlignedBitmap), 
+	// where the words can be moved together with shiftRange, in batches of 64, after each of which we restore the is_occupied flags 
+	// the batch overwrote from a word that holds one flag per slot.
+	void shift_whole_word_slots(long from, long to, int distance) {
+		long num_batches = (to - from + 63) / 64;
+		for (long b = 0; b < num_batches; b++) {
+			long batch_start = distance > 0 ? Math.max(from, to - (b + 1) * 64) : from + b * 64;
+			long batch_end = distance > 0 ? to - b * 64 : Math.min(to, batch_start + 64);
+			long occupieds = 0;
+			for (long i = batch_start; i < batch_end; i++) {
+				occupieds |= filter.get((i + distance) * bitPerEntry) ? 1L << (i - batch_start) : 0;
 			}
-			else if (finished_first_run) {			
-				boolean current_continuation = is_continuation(current_index);
-				set_continuation(current_index, temp_continuation);
-				temp_continuation = current_continuation;
-				long_fp = swap_fingerprints(current_index, long_fp);
+			filter.shiftRange(batch_start * bitPerEntry, batch_end * bitPerEntry, (long) distance * bitPerEntry);
+			for (long i = batch_start; i < batch_end; i++) {
+				filter.set((i + distance) * bitPerEntry, (occupieds & (1L << (i - batch_start))) != 0);
 			}
-			if (current_index == last_empty_slot) {  
-				last_empty_slot = find_backward_empty_slot(last_cluster_start);
+		}
+	}
+	
+	// shifts the slots in [from, to) of a circular filter, where the slots or their destinations wrap around the end of the table. 
+	// from is a physical slot, and to may be past the end of the table. We shift the parts before and after the end separately, 
+	// and move the slot that crosses the end on its own, in the order that does not overwrite slots before they are moved. 
+	void shift_slots_around_table_end(long from, long to, int distance) {
+		long num_slots = get_logical_num_slots();
+		if (distance > 0) {
+			shift_slots(0, to - num_slots, distance);
+			move_slot(num_slots - 1, 0);
+			shift_slots(from, num_slots - 1, distance);
+		}
+		else if (from == 0) {
+			move_slot(0, num_slots - 1);
+			shift_slots(1, to, distance);
+		}
+		else {
+			shift_slots(from, num_slots, distance);
+			move_slot(0, num_slots - 1);
+			shift_slots(1, to - num_slots, distance);
+		}
+	}
+	
+	// moves the fingerprint and the is_continuation and is_shifted flags of a slot to another slot, like shift_slots
+	void move_slot(long from, long to) {
+		long slot = get_slot(from);
+		set_slot(to, (slot & ~1L) | (is_occupied(to) ? 1 : 0));
+	}
+	
+	// sets the is_shifted flags of the slots in [from, to)
+	void set_shifted_range(long from, long to) {
+		if (separate_metadata) {
+			for (long i = from; i < to; i += 64) {
+				long end = Math.min(to, i + 64);
+				planes.shifteds.setFromTo(i, end, -1L);
 			}
-			current_index++;
-		} while (!is_this_slot_empty);
-		num_physical_entries++;
-		return true; 
+			planes.touch(from, to);
+			return;
+		}
+		for (long i = from; i < to; i++) {
+			set_shifted(i, true);
+		}
 	}
 	
+	// removes the fingerprint in slot matching_fingerprint_index from the run that starts at run_start_index. 
+	// The rest of the run and the runs after it in the cluster move back by one slot, which takes a single forward pass 
+	// to find where the cluster ends and a single block move. 
+	// The runs after the run we delete from belong to the next occupied canonical slots, in order, 
+	// so the pass tells which of them move back into their canonical slots by tracking these slots as it goes. 
 	boolean delete(long fingerprint, long canonical_slot, long run_start_index, long matching_fingerprint_index) {
 		long run_end = find_run_end(matching_fingerprint_index);
 		
 		// the run has only one entry, we need to disable its is_occupied flag
-		// we just remember we need to do this here, and we do it later to not interfere with counts
+		// we just remember we need to do this here, and we do it later to not interfere with the canonical slots of the next runs
 		boolean turn_off_occupied = run_start_index == run_end;
 		
-		// First thing to do is move everything else in the run back by one slot
-		for (long i = matching_fingerprint_index; i < run_end; i++) {
-			long f = get_fingerprint(i + 1);
-			set_fingerprint(i, f);
-		}
-
-		// for each slot, we want to know by how much the entry there is shifted
-		// we can do this by counting the number of continuation flags set to true 
-		// and the number of occupied flags set to false from the start of the cluster to the given cell
-		// and then subtracting: num_shifted_count - num_non_occupied = number of slots by which an entry is shifted 
-		long cluster_start = find_cluster_start(canonical_slot);
-		long num_shifted_count = 0;
-		long num_non_occupied = 0;
-		for (long i = cluster_start; i <= run_end; i++) {
-			if (is_continuation(i)) {
-				num_shifted_count++;
+		// the slots that move back are those up to the first slot that is not shifted, which is empty or starts another cluster. 
+		// A run that reaches its canonical slot is no longer shifted, and its flag is cleared before it moves, as it moves along. 
+		long end = run_end + 1;
+		long canonical = canonical_slot;
+		SlotCursor slots = separate_metadata ? null : slot_cursor(end);
+		while (!is_past_table_end(end)) {
+			long flags = slots != null ? slots.next() : (is_continuation(end) ? 2 : 0) | (is_shifted(end) ? 4 : 0);
+			if ((flags & 4) == 0) {
+				break;
 			}
-			if (!is_occupied(i)) {
-				num_non_occupied++;
+			if ((flags & 2) == 0) {
+				do {
+					canonical++;
+				} while (!is_occupied(canonical));
+				if (canonical == end - 1) {
+					set_shifted(end, false);
+				}
 			}
+			end++;
 		}
 		
-		set_fingerprint(run_end, 0); 
-		set_shifted(run_end, false);
-		set_continuation(run_end, false);
+		// only the fingerprints and the is_continuation and is_shifted flags move. If the deleted fingerprint was not the last 
+		// of its run, the next one of the run takes its place and its flags
+		boolean matching_continuation = is_continuation(matching_fingerprint_index);
+		boolean matching_shifted = is_shifted(matching_fingerprint_index);
+		shift_slots(matching_fingerprint_index + 1, end, -1);
+		if (matching_fingerprint_index < run_end) {
+			set_continuation(matching_fingerprint_index, matching_continuation);
+			set_shifted(matching_fingerprint_index, matching_shifted);
+		}
+		set_fingerprint(end - 1, 0);
+		set_shifted(end - 1, false);
+		set_continuation(end - 1, false);
 		
-		// we now have a nested loop. The outer do-while iterates over the remaining runs in the cluster. 
-		// the inner for loop iterates over cells of particular runs, pushing entries one slot back. 
-		do {
-			// we first check if the next run actually exists and if it is shifted.
-			// only if both conditions hold, we need to shift it back one slot.
-			//boolean does_next_run_exist = !is_slot_empty(run_end + 1);
-			//boolean is_next_run_shifted = is_shifted(run_end + 1);
-			//if (!does_next_run_exist || !is_next_run_shifted) {
-			if (run_end >= get_logical_num_slots_plus_extensions()-1 ||
-				 is_slot_empty(run_end + 1) || !is_shifted(run_end + 1)) {
-				if (turn_off_occupied) {
-					// if we eliminated a run and now need to turn the is_occupied flag off, we do it at the end to not interfere in our counts 
-					set_occupied(canonical_slot, false);
-					
-				}
-				if (run_end > last_empty_slot) {         
-					last_empty_slot = run_end;
-				}
-				return true;
-			}
-			
-			// we now find the start and end of the next run
-			long next_run_start = run_end + 1;
-			run_end = find_run_end(next_run_start);
-			
-			// before we start processing the next run, we check whether the previous run we shifted is now back to its canonical slot
-			// The condition num_shifted_count - num_non_occupied == 1 ensures that the run was shifted by only 1 slot, meaning it is now back in its proper place
-			if ( is_occupied(next_run_start - 1) && num_shifted_count - num_non_occupied == 1 ) {
-				set_shifted(next_run_start - 1, false); 
-			}
-			else  {
-				set_shifted(next_run_start - 1, true);
-			}
-
-			for (long i = next_run_start; i <= run_end; i++) {
-				long f = get_fingerprint(i);
-				set_fingerprint(i - 1, f);
-				if (is_continuation(i)) {
-					set_continuation(i-1, true);
-				}
-				if (!is_occupied(i)) {
-					num_non_occupied++;
-				}
-			}
-			num_shifted_count += run_end - next_run_start;
-			set_fingerprint(run_end, 0);
-			set_shifted(run_end, false);
-			set_continuation(run_end, false);
-		} while (true);
+		if (turn_off_occupied) {
+			set_occupied(canonical_slot, false);
+		}
+		if (end - 1 > last_empty_slot) {
+			last_empty_slot = end - 1;
+		}
+		return true;
 	}
 	
 	long delete(long fingerprint, long canonical_slot) {
@@ -720,6 +1487,12 @@ public class QuotientFilter extends Filter implements Cloneable {
 		return fingerprint;
 	}
 	
+	// returns how many expansions ago the entry with the given fingerprint was inserted. A quotient filter does not keep its 
+	// entries when it expands, so all of them belong to its current generation
+	long get_generation(long fingerprint) {
+		return 0;
+	}
+	
 	void print_key(int input) {
 		long large_hash = HashFunctions.normal_hash(input);
 		long slot_index = get_slot_index(large_hash);
@@ -743,7 +1516,28 @@ public class QuotientFilter extends Filter implements Cloneable {
 		max_entries_before_full = (long)(Math.pow(2, power_of_two_size) * fullness_threshold);
 	} //在哪里调用？
 	
+	// the keys of a batch are applied in the order of their canonical slots, so the clusters are visited from one end of the table to the other
+	void sort_batch(KeyBatch b, int from, int to) {
+		b.sort_by_low_bits(from, to, power_of_two_size);
+	}
+	
+	long get_insertions_before_expansion() {
+		return expand_autonomously && !is_full ? expansion_policy.get_insertions_before_expansion(this) : Long.MAX_VALUE;
+	}
+	
 	protected boolean _insert(long large_hash, boolean insert_only_if_no_match) { //和insert方法的区别？
+		if (bitmap_type == BitmapType.atomic) {
+			begin_write();
+			try {
+				return insert_hash(large_hash);
+			} finally {
+				end_write();
+			}
+		}
+		return insert_hash(large_hash);
+	}
+	
+	boolean insert_hash(long large_hash) {
 		if (is_full) {
 			return false; //// 如果过滤器已经满了，则返回 false，停止插入！
 		}
@@ -756,6 +1550,7 @@ public class QuotientFilter extends Filter implements Cloneable {
 		System.out.println(slot_index + "  " + fingerprint );
 		System.out.println(); */
 		
+		last_filled_slot = -1;
 		boolean success = insert(fingerprint, slot_index, false); // 执行插入操作，尝试将指纹插入到槽位中
 		/*if (!success) {
 			System.out.println("insertion failure");
@@ -764,16 +1559,29 @@ public class QuotientFilter extends Filter implements Cloneable {
 			System.exit(1);
 		}*/
 		// 如果设置了自动扩展，并且当前条目数大于扩展前的最大值，则执行扩展操作。num_physical_entries？？max_entries_before_full？？
-		if (expand_autonomously && num_physical_entries >= max_entries_before_full) {
-			boolean expanded = expand();//设置is_full = true，返回false
-			if (expanded) {
-				num_expansions++;
-			}
-		}
+		consider_expanding(probe_length(success, slot_index));
 		return success; 
 	}
 
+	// returns how many slots an insertion into a canonical slot probed, or -1 if it failed or filled no empty slot, e.g. when 
+	// a counting quotient filter increments a counter in place
+	long probe_length(boolean success, long slot_index) {
+		return success && last_filled_slot >= 0 ? last_filled_slot - slot_index : -1;
+	}
+
 	protected long _delete(long large_hash) {
+		if (bitmap_type == BitmapType.atomic) {
+			begin_write();
+			try {
+				return delete_hash(large_hash);
+			} finally {
+				end_write();
+			}
+		}
+		return delete_hash(large_hash);
+	}
+	
+	long delete_hash(long large_hash) {
 		long slot_index = get_slot_index(large_hash);
 		long fp_long = gen_fingerprint(large_hash);
 		long removed_fp = delete(fp_long, slot_index);
@@ -782,91 +1590,536 @@ public class QuotientFilter extends Filter implements Cloneable {
 		}
 		return removed_fp; 
 	}
+	
+	// inserts a key along with a value into a maplet (see set_value_bits). Putting a key twice stores two entries, 
+	// and get() then returns both values. 
+	public boolean put(long key, long value) {
+		if (value_bits == 0) {
+			throw new IllegalStateException("the filter does not store values");
+		}
+		if (value < 0 || value >= 1L << value_bits) {
+			throw new IllegalArgumentException("the value " + value + " does not fit in " + value_bits + " bits");
+		}
+		long large_hash = get_hash(key);
+		boolean success;
+		if (bitmap_type == BitmapType.atomic) {
+			begin_write();
+			try {
+				success = put_hash(large_hash, value);
+			} finally {
+				end_write();
+			}
+		}
+		else {
+			success = put_hash(large_hash, value);
+		}
+		if (success) {
+			num_logical_entries++;
+		}
+		return success;
+	}
+	
+	boolean put_hash(long large_hash, long value) {
+		if (is_full) {
+			return false;
+		}
+		long slot_index = get_slot_index(large_hash);
+		last_filled_slot = -1;
+		boolean success = insert_with_value(gen_fingerprint(large_hash), slot_index, value);
+		consider_expanding(probe_length(success, slot_index));
+		return success;
+	}
+	
+	// returns the values of the entries of a maplet whose fingerprints match the key. These include the values put with the key, 
+	// and possibly values of other keys with matching fingerprints. The result is empty if the key is not in the filter. 
+	// Unlike search(), this does not retry around a concurrent put() or delete() on an atomic bitmap. 
+	public long[] get(long key) {
+		if (value_bits == 0) {
+			throw new IllegalStateException("the filter does not store values");
+		}
+		long large_hash = get_hash(key);
+		long slot_index = get_slot_index(large_hash);
+		long fingerprint = gen_fingerprint(large_hash);
+		if (!is_occupied(slot_index)) {
+			return new long[0];
+		}
+		long index = find_run_start(slot_index);
+		long run_end = find_run_end(index);
+		long[] values = new long[4];
+		int num_values = 0;
+		for (; index <= run_end; index++) {
+			if (compare_fingerprints(get_fingerprint(index), fingerprint)) {
+				if (num_values == values.length) {
+					values = Arrays.copyOf(values, num_values * 2);
+				}
+				values[num_values++] = get_value(index);
+			}
+		}
+		return Arrays.copyOf(values, num_values);
+	}
 
+	// returns the entries of the filter in slot order, each as a hash that would insert it back into the same slot with the same 
+	// fingerprint (see EntrySpliterator). These hashes can e.g. rebuild the filter with build_from_hashes(). 
+	// A filter made of several tables returns the entries of each table in turn, each in the layout of its own table. 
+	// The filter must not be modified while its entries are streamed. 
+	public LongStream entries() {
+		return entries(false);
+	}
+	
+	// returns the entries of the filter as a parallel stream, which splits the table at the starts of clusters
+	public LongStream parallel_entries() {
+		return entries(true);
+	}
+	
+	LongStream entries(boolean parallel) {
+		return StreamSupport.longStream(entry_spliterator(), parallel);
+	}
+	
+	public Spliterator.OfLong entry_spliterator() {
+		return new EntrySpliterator(this);
+	}
+
+	// fills an empty filter with the entries of the given hashes (see Filter.get_hash) in a single pass over the table,
+	// rather than inserting them one at a time. The hashes are sorted by canonical slot and then by fingerprint, which is
+	// the order in which an EntryCursor reads the entries, so that each run is written right after the previous one and nothing
+	// is ever shifted. The array is sorted in place. A filter that reaches its expansion threshold expands once it is built.
+	public void build_from_hashes(long[] hashes) {
+		if (num_physical_entries != 0) {
+			throw new IllegalStateException("a filter can only be built from hashes while it is empty");
+		}
+		sort_by_slot(hashes);
+		long num_slots = get_logical_num_slots();
+		// the entries are laid out from slot start onwards. In a circular filter, the cluster that runs past the last slot
+		// wraps around to slot 0, so the layout starts late enough for the entries that wrap around to fit before it
+		long start = 0;
+		long end = find_end_of_layout(hashes, start);
+		if (circular) {
+			if (hashes.length >= num_slots) {
+				throw new IllegalArgumentException(hashes.length + " entries do not fit in a circular filter of " + num_slots + " slots");
+			}
+			while (end - num_slots > start) {
+				start = end - num_slots;
+				end = find_end_of_layout(hashes, start);
+			}
+		}
+		else if (end > get_logical_num_slots_plus_extensions()) {
+			throw new IllegalArgumentException("the clusters of " + hashes.length + " entries run past the end of a filter of " + num_slots + " slots");
+		}
+		if (bitmap_type == BitmapType.atomic) {
+			begin_write();
+			try {
+				write_sorted_hashes(hashes, start);
+			} finally {
+				end_write();
+			}
+		}
+		else {
+			write_sorted_hashes(hashes, start);
+		}
+		num_logical_entries += hashes.length;
+		consider_expanding(-1);
+	}
+
+	// sorts hashes by canonical slot, and the hashes of each canonical slot by fingerprint. 
+	// The slots are sorted with a least-significant-digit radix sort, which takes linear time.
+	void sort_by_slot(long[] hashes) {
+		long[] source = hashes;
+		long[] target = new long[hashes.length];
+		int[] counts = new int[KeyBatch.RADIX + 1];
+		for (int shift = 0; shift < power_of_two_size; shift += KeyBatch.RADIX_BITS) {
+			long digit_mask = (1L << Math.min(KeyBatch.RADIX_BITS, power_of_two_size - shift)) - 1;
+			Arrays.fill(counts, 0);
+			for (long hash : source) {
+				counts[(int) ((hash >>> shift) & digit_mask) + 1]++;
+			}
+			for (int d = 1; d <= KeyBatch.RADIX; d++) {
+				counts[d] += counts[d - 1];
+			}
+			for (long hash : source) {
+				target[counts[(int) ((hash >>> shift) & digit_mask)]++] = hash;
+			}
+			long[] t = source;
+			source = target;
+			target = t;
+		}
+		if (source != hashes) {
+			System.arraycopy(source, 0, hashes, 0, hashes.length);
+		}
+		// the sort is stable, so the hashes of a slot are still in their original order, and each run is sorted by insertion, 
+		// in the order of compare_in_run() if the filter keeps its runs sorted
+		for (int run_start = 0, i = 1; i <= hashes.length; i++) {
+			if (i < hashes.length && get_slot_index(hashes[i]) == get_slot_index(hashes[run_start])) {
+				long hash = hashes[i];
+				long fingerprint = gen_fingerprint(hash);
+				int j = i;
+				for (; j > run_start && (sorted_runs ? compare_in_run(gen_fingerprint(hashes[j - 1]), fingerprint) > 0 
+						: gen_fingerprint(hashes[j - 1]) > fingerprint); j--) {
+					hashes[j] = hashes[j - 1];
+				}
+				hashes[j] = hash;
+			}
+			else {
+				run_start = i;
+			}
+		}
+	}
+
+	// returns the slot after the last entry of the sorted hashes, if their runs are laid out from slot start onwards.
+	// Each entry goes into its canonical slot, or right after the previous entry if that slot is taken.
+	long find_end_of_layout(long[] hashes, long start) {
+		long next_free = start;
+		for (long hash : hashes) {
+			next_free = Math.max(next_free, get_slot_index(hash)) + 1;
+		}
+		return next_free;
+	}
+
+	// writes the entries of the sorted hashes into the empty table, laying out their runs from slot start onwards
+	void write_sorted_hashes(long[] hashes, long start) {
+		RunWriter writer = new RunWriter(this, start);
+		for (long hash : hashes) {
+			writer.append(get_slot_index(hash), gen_fingerprint(hash));
+		}
+		writer.finish();
+	}
+
+	// adds the entries of another filter of the same kind to this one. The runs of both filters are streamed in the order
+	// of their canonical slots and written into a new table one after the other, rather than reinserted one at a time.
+	// If the filters differ in size, the entries of the smaller one are moved into the larger table the way expand() moves them,
+	// so they give up a fingerprint bit for each slot bit they gain. An entry held by both filters is then held twice.
+	public void union(QuotientFilter other) {
+		merge(other, true);
+	}
+
+	// keeps only the entries of this filter that match an entry of another filter of the same kind,
+	// streaming both tables as union() does. An entry that matches a longer fingerprint of the other filter is replaced by it.
+	public void intersect(QuotientFilter other) {
+		merge(other, false);
+	}
+
+	void merge(QuotientFilter other, boolean union) {
+		if (getClass() != QuotientFilter.class && getClass() != BasicInfiniFilter.class) {
+			throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot be merged with another filter");
+		}
+		if (other.getClass() != getClass() || other.hash_type != hash_type) {
+			throw new IllegalArgumentException("only filters of the same kind and hash function can be merged");
+		}
+		if (value_bits > 0 || other.value_bits > 0) {
+			throw new UnsupportedOperationException("maplets cannot be merged");
+		}
+		int power = merged_power(other, union);
+		int fingerprint_length = merged_fingerprint_length(other, power);
+		if (fingerprint_length < 1) {
+			throw new IllegalArgumentException("the fingerprints are too short to move the entries into a table of 2^" + power + " slots");
+		}
+		QuotientFilter new_qf = make_new_generation(power, fingerprint_length + 3);
+		RunReader mine = new RunReader(this, power - power_of_two_size, fingerprint_length);
+		RunReader theirs = new RunReader(other, power - other.power_of_two_size, fingerprint_length);
+		RunWriter writer = new RunWriter(new_qf, 0);
+		BitSet kept = new BitSet();
+		mine.next_run();
+		theirs.next_run();
+		while (mine.slot != Long.MAX_VALUE || theirs.slot != Long.MAX_VALUE) {
+			long slot = Math.min(mine.slot, theirs.slot);
+			if (union) {
+				for (int i = 0; mine.slot == slot && i < mine.run_length; i++) {
+					writer.append(slot, mine.fingerprints[i]);
+				}
+				for (int i = 0; theirs.slot == slot && i < theirs.run_length; i++) {
+					writer.append(slot, theirs.fingerprints[i]);
+				}
+			}
+			else if (mine.slot == theirs.slot) {
+				intersect_runs(writer, mine, theirs, fingerprint_length, kept);
+			}
+			if (mine.slot == slot) {
+				mine.next_run();
+			}
+			if (theirs.slot == slot) {
+				theirs.next_run();
+			}
+		}
+		writer.finish();
+
+		int new_num_logical_entries = union ? num_logical_entries + other.num_logical_entries : (int) new_qf.num_physical_entries;
+		int new_num_expansions = Math.max(num_expansions + power - power_of_two_size, other.num_expansions + power - other.power_of_two_size);
+		if (bitmap_type == BitmapType.atomic) {
+			begin_write();
+		}
+		try {
+			adopt_merged_generation(new_qf);
+			num_logical_entries = new_num_logical_entries;
+			num_expansions = new_num_expansions;
+			if (sorted_runs) {
+				sort_runs();
+			}
+			consider_expanding(-1);
+		} finally {
+			if (bitmap_type == BitmapType.atomic) {
+				end_write();
+			}
+		}
+	}
+
+	// the merged table is as large as the larger of the two filters
+	int merged_power(QuotientFilter other, boolean union) {
+		return Math.max(power_of_two_size, other.power_of_two_size);
+	}
+
+	// the fingerprints of both filters must fit the merged table once they gave up their bits to its slot addresses
+	int merged_fingerprint_length(QuotientFilter other, int power) {
+		return Math.min(fingerprintLength - (power - power_of_two_size), other.fingerprintLength - (power - other.power_of_two_size));
+	}
+
+	// returns the fingerprint that an entry of this filter has once moved into a table with extra_slot_bits more slot bits
+	// and fingerprints of target_length bits, or -1 if the entry does not have enough fingerprint bits left
+	long convert_fingerprint(long fingerprint, int extra_slot_bits, int target_length) {
+		return (fingerprint >>> extra_slot_bits) & ((1L << target_length) - 1);
+	}
+
+	// appends the entries that the runs of both filters in the same slot have in common. An entry of this filter is kept 
+	// if it matches an entry of the other filter that is at most as precise. Otherwise, the more precise entries it matches 
+	// are kept instead, each of them once, as any key that both filters hold matches one of them. 
+	void intersect_runs(RunWriter writer, RunReader mine, RunReader theirs, int length, BitSet kept) {
+		kept.clear();
+		for (int i = 0; i < mine.run_length; i++) {
+			long fingerprint = mine.fingerprints[i];
+			int precision = fingerprint_precision(fingerprint, length);
+			boolean keep = false;
+			for (int j = 0; j < theirs.run_length; j++) {
+				long other_fingerprint = theirs.fingerprints[j];
+				int other_precision = fingerprint_precision(other_fingerprint, length);
+				long mask = (1L << Math.min(precision, other_precision)) - 1;
+				if (((fingerprint ^ other_fingerprint) & mask) == 0) {
+					if (precision >= other_precision) {
+						keep = true;
+					}
+					else {
+						kept.set(j);
+					}
+				}
+			}
+			if (keep) {
+				writer.append(mine.slot, fingerprint);
+			}
+		}
+		for (int j = kept.nextSetBit(0); j >= 0; j = kept.nextSetBit(j + 1)) {
+			writer.append(mine.slot, theirs.fingerprints[j]);
+		}
+	}
+
+	// the number of bits of a fingerprint of the given length that come from the hash of its key
+	int fingerprint_precision(long fingerprint, int length) {
+		return length;
+	}
+
+	// adopts a table built by merge(), whose fields describe the merged filter
+	void adopt_merged_generation(QuotientFilter new_qf) {
+		power_of_two_size = new_qf.power_of_two_size;
+		fingerprintLength = new_qf.fingerprintLength;
+		bitPerEntry = new_qf.bitPerEntry;
+		num_extension_slots = new_qf.num_extension_slots;
+		num_physical_entries = new_qf.num_physical_entries;
+		max_entries_before_full = (long) ((1L << power_of_two_size) * fullness_threshold);
+		last_empty_slot = new_qf.last_empty_slot;
+		last_cluster_start = new_qf.last_cluster_start;
+		replace_generation(new_qf);
+	}
+
+	static final int SEARCH_GROUP_SIZE = 16;
+	
+	// probes the keys in groups. The first pass over a group reads the canonical slot of each key. These loads do not depend 
+	// on each other, so their cache misses overlap rather than follow one another. The second pass searches the runs of the keys 
+	// whose canonical slot is occupied, which mostly starts from the cache lines the first pass brought in. 
+	// Filters on atomic bitmaps search one key at a time, as each search may have to be retried. 
+	void search_batch(long[] hashes, int[] keys, int count, long[] result_bits) {
+		if (bitmap_type == BitmapType.atomic) {
+			super.search_batch(hashes, keys, count, result_bits);
+			return;
+		}
+		for (int group = 0; group < count; group += SEARCH_GROUP_SIZE) {
+			int group_end = Math.min(count, group + SEARCH_GROUP_SIZE);
+			int occupieds = 0;
+			for (int i = group; i < group_end; i++) {
+				if (is_occupied(get_slot_index(hashes[i]))) {
+					occupieds |= 1 << (i - group);
+				}
+			}
+			for (; occupieds != 0; occupieds &= occupieds - 1) {
+				int i = group + Integer.numberOfTrailingZeros(occupieds);
+				long run_start_index = find_run_start(get_slot_index(hashes[i]));
+				if (find_first_fingerprint_in_run(run_start_index, gen_fingerprint(hashes[i])) > -1) {
+					result_bits[keys[i] >>> 6] |= 1L << keys[i];
+				}
+			}
+		}
+	}
+	
 	protected boolean _search(long large_hash) {
+		if (bitmap_type == BitmapType.atomic) {
+			return search_concurrently(large_hash);
+		}
 		long slot_index = get_slot_index(large_hash);
 		long fingerprint = gen_fingerprint(large_hash);
 		return search(fingerprint, slot_index);
 	}
+	
+	void begin_write() {
+		WRITE_VERSION.setOpaque(this, write_version + 1);
+		VarHandle.storeStoreFence(); // the slots must not be modified before the version turns odd
+	}
+	
+	void end_write() {
+		WRITE_VERSION.setRelease(this, write_version + 1);
+	}
+	
+	// searches the filter while another thread may be modifying it, retrying until the search did not overlap a modification.
+	// A search that overlaps one reads the slots in an inconsistent state, and may even step out of the bitmap, 
+	// so its result or exception only counts if the version did not change meanwhile. 
+	boolean search_concurrently(long large_hash) {
+		for (int attempt = 0; ; attempt++) {
+			long version = (long) WRITE_VERSION.getAcquire(this);
+			if ((version & 1) != 0) {
+				// the writer may have been descheduled in the middle of a modification, so we eventually give up the processor
+				if (attempt < 100) {
+					Thread.onSpinWait();
+				}
+				else {
+					Thread.yield();
+				}
+				continue;
+			}
+			boolean found = false;
+			RuntimeException failure = null;
+			try {
+				long slot_index = get_slot_index(large_hash);
+				long fingerprint = gen_fingerprint(large_hash);
+				found = search(fingerprint, slot_index);
+			} catch (RuntimeException e) {
+				failure = e;
+			}
+			VarHandle.loadLoadFence(); // the slots must be read before the version is checked again
+			if ((long) WRITE_VERSION.getOpaque(this) == version) {
+				if (failure != null) {
+					throw failure;
+				}
+				return found;
+			}
+		}
+	}
 
 
 	
 	public boolean get_bit_at_offset(int offset) {
+		return get_bit_at_offset((long) offset);
+	}
+	
+	// returns a bit of the filter as if its slots were laid out one after the other, with the three flags before each fingerprint
+	boolean get_bit_at_offset(long offset) {
+		if (separate_metadata) {
+			long index = offset / bitPerEntry;
+			int bit = (int)(offset % bitPerEntry);
+			return ((get_slot(index) >>> bit) & 1) != 0;
+		}
 		return filter.get(offset);
 	}
 
 	public Map<Integer,Integer> compute_statistics() {
-		num_runs = 0;
-		num_clusters = 0; 
+		ClusterCounts counts = new StatisticsScan(this, 0, get_logical_num_slots_plus_extensions()).run();
+		num_runs = counts.num_runs;
+		num_clusters = counts.num_clusters;
+		avg_run_length = counts.sum_run_lengths / num_runs;
+		avg_cluster_length = counts.sum_cluster_lengths / num_clusters;
+		return counts.histogram;
+	}
+	
+	// the runs and clusters in a range of slots, as counted by compute_statistics() or measure_cluster_length(). 
+	// The lengths of the run and the cluster the range ends with are pending: the scan adds them up at the slot that follows them
+	static class ClusterCounts {
 		Map<Integer,Integer> histogram = new TreeMap<Integer,Integer>();
+		ArrayList<Integer> cluster_lengths = new ArrayList<Integer>();
+		long num_runs;
+		long num_clusters;
+		double sum_run_lengths;
+		double sum_cluster_lengths;
+		int current_run_length;
+		int current_cluster_length;
+		
+		void add_to_histogram(int cluster_length, int count) {
+			int new_hist_val = histogram.getOrDefault(cluster_length, 0) + count;
+			if (new_hist_val == 0) {
+				histogram.remove(cluster_length);
+			}
+			else {
+				histogram.put(cluster_length, new_hist_val);
+			}
+		}
+	}
+	
+	static class StatisticsScan extends TableScan.SlotScan<ClusterCounts> {
 		
-		double sum_run_lengths = 0;
-		double sum_cluster_lengths = 0; 
+		private static final long serialVersionUID = 1L;
 		
-		int current_run_length = 0;
-		int current_cluster_length = 0;
+		StatisticsScan(QuotientFilter qf, long from, long to) {
+			super(qf, from, to);
+		}
 		
-		long num_slots = get_logical_num_slots_plus_extensions();		
-		for (long i = 0; i < num_slots; i++) {
-			
-			boolean occupied = is_occupied(i);
-			boolean continuation = is_continuation(i); 
-			boolean shifted = is_shifted(i);
-			
-			if 	( !occupied && !continuation && !shifted ) { // empty slot
-				sum_cluster_lengths += current_cluster_length;
-				int new_hist_val = 1;
-				if (histogram.containsKey(current_cluster_length)) {
-					new_hist_val = histogram.get(current_cluster_length) + 1;
-				}
-				histogram.put(current_cluster_length, new_hist_val);
+		TableScan<ClusterCounts> part(long part_from, long part_to) {
+			return new StatisticsScan(qf, part_from, part_to);
+		}
+		
+		ClusterCounts scan() {
+			ClusterCounts c = new ClusterCounts();
+			for (long i = from; i < to; i++) {
+				
+				boolean occupied = qf.is_occupied(i);
+				boolean continuation = qf.is_continuation(i); 
+				boolean shifted = qf.is_shifted(i);
 				
-				current_cluster_length = 0; 
-				sum_run_lengths += current_run_length;
-				current_run_length = 0;
-			}
-			else if ( !occupied && !continuation && shifted ) { // start of new run
-				num_runs++;
-				sum_run_lengths += current_run_length;
-				current_run_length = 1;
-				current_cluster_length++;
-			}
-			else if ( !occupied && continuation && !shifted ) {
-				// not used
-			}
-			else if ( !occupied && continuation && shifted ) { // continuation of run
-				current_cluster_length++;
-				current_run_length++;
-			}
-			else if ( occupied && !continuation && !shifted ) { // start of new cluster & run
-				num_runs++;
-				num_clusters++;
-				sum_cluster_lengths += current_cluster_length;
-				int new_hist_val = 1;
-				if (histogram.containsKey(current_cluster_length)) {
-					new_hist_val = histogram.get(current_cluster_length) + 1;
+				if 	( !occupied && !continuation && !shifted ) { // empty slot
+					c.sum_cluster_lengths += c.current_cluster_length;
+					c.add_to_histogram(c.current_cluster_length, 1);
+					c.current_cluster_length = 0; 
+					c.sum_run_lengths += c.current_run_length;
+					c.current_run_length = 0;
+				}
+				else if ( !continuation && shifted ) { // start of new run
+					c.num_runs++;
+					c.sum_run_lengths += c.current_run_length;
+					c.current_run_length = 1;
+					c.current_cluster_length++;
+				}
+				else if ( continuation && shifted ) { // continuation of run
+					c.current_cluster_length++;
+					c.current_run_length++;
+				}
+				else if ( occupied && !continuation && !shifted ) { // start of new cluster & run
+					c.num_runs++;
+					c.num_clusters++;
+					c.sum_cluster_lengths += c.current_cluster_length;
+					c.add_to_histogram(c.current_cluster_length, 1);
+					c.sum_run_lengths += c.current_run_length;
+					c.current_cluster_length = 1; 
+					c.current_run_length = 1;
 				}
-				histogram.put(current_cluster_length, new_hist_val);				sum_run_lengths += current_run_length;
-				current_cluster_length = 1; 
-				current_run_length = 1;
-			}
-			else if (occupied && !continuation && shifted ) { // start of new run
-				num_runs++;
-				sum_run_lengths += current_run_length;
-				current_run_length = 1; 
-				current_cluster_length++;
-			}
-			else if (occupied && continuation && !shifted ) {
-				// not used
 			}
-			else if (occupied && continuation && shifted ) { // continuation of run
-				current_cluster_length++;
-				current_run_length++;
+			return c;
+		}
+		
+		// the second range starts with a slot that is not shifted, where its scan added up an empty cluster and run 
+		// rather than the cluster and run that were pending at the end of the first range
+		ClusterCounts merge(ClusterCounts first, ClusterCounts second) {
+			second.add_to_histogram(0, -1);
+			second.add_to_histogram(first.current_cluster_length, 1);
+			for (Map.Entry<Integer,Integer> e : first.histogram.entrySet()) {
+				second.add_to_histogram(e.getKey(), e.getValue());
 			}
+			second.sum_cluster_lengths += first.sum_cluster_lengths + first.current_cluster_length;
+			second.sum_run_lengths += first.sum_run_lengths + first.current_run_length;
+			second.num_runs += first.num_runs;
+			second.num_clusters += first.num_clusters;
+			return second;
 		}
-		avg_run_length = sum_run_lengths / num_runs;
-		avg_cluster_length = sum_cluster_lengths / num_clusters;
-		return histogram;
 	}
 
 
@@ -883,60 +2136,84 @@ public class QuotientFilter extends Filter implements Cloneable {
 		ar.set(index, ar.get(index)+1);
 	}
 
+	// returns how many clusters there are of each length, where the i-th element counts the clusters of length i + 1
 	public ArrayList<Integer> measure_cluster_length()
 	{
-		ArrayList<Integer> ar = new ArrayList<Integer>();
-		
-		num_runs = 0;
-		num_clusters = 0; 
-	
-		int current_run_length = 0;
-		int current_cluster_length = 0;
-
-		int cnt = 0;
-		
-		for (int i = 0; i < get_logical_num_slots_plus_extensions(); i++) {
-			
-			boolean occupied = is_occupied(i);
-			boolean continuation = is_continuation(i); 
-			boolean shifted = is_shifted(i);
-			
-			if 	(!occupied && !continuation && !shifted ) { // empty slot
-				if(current_cluster_length != 0) ar_sum1(ar, current_cluster_length-1);
-				current_cluster_length = 0;
-				current_run_length = 0;
-			}
-			else if (!occupied && !continuation && shifted ) { // start of new run
-				num_runs++;
-				current_run_length = 1;
-				current_cluster_length++;
-			}
-			else if (!occupied && continuation && shifted ) { // continuation of run
-				current_cluster_length++;
-				current_run_length++;
-			}
-			else if (occupied && !continuation && !shifted ) { // start of new cluster & run
-				if(current_cluster_length != 0) ar_sum1(ar, current_cluster_length-1);
-				num_runs++;
-				num_clusters++;
-				//if(current_cluster_length == 0) cnt++;
-				current_cluster_length = 1; 
-				current_run_length = 1;
-			}
-			else if (occupied && !continuation && shifted ) { // start of new run
-				num_runs++;
-				current_run_length = 1; 
-				current_cluster_length++;
-			}
-			else if (occupied && continuation && shifted ) { // continuation of run
-				current_cluster_length++;
-				current_run_length++;
-			}
-		}
-		if(current_cluster_length != 0) ar_sum1(ar, current_cluster_length-1);
-		//System.out.println("CNT = " + cnt);
+		ClusterCounts counts = new ClusterLengthScan(this, 0, get_logical_num_slots_plus_extensions()).run();
+		num_runs = counts.num_runs;
+		num_clusters = counts.num_clusters;
+		ArrayList<Integer> ar = counts.cluster_lengths;
+		if(counts.current_cluster_length != 0) ar_sum1(ar, counts.current_cluster_length-1);
 		return ar;
 	}
+	
+	static class ClusterLengthScan extends TableScan.SlotScan<ClusterCounts> {
+		
+		private static final long serialVersionUID = 1L;
+		
+		ClusterLengthScan(QuotientFilter qf, long from, long to) {
+			super(qf, from, to);
+		}
+		
+		TableScan<ClusterCounts> part(long part_from, long part_to) {
+			return new ClusterLengthScan(qf, part_from, part_to);
+		}
+		
+		ClusterCounts scan() {
+			ClusterCounts c = new ClusterCounts();
+			ArrayList<Integer> ar = c.cluster_lengths;
+			for (long i = from; i < to; i++) {
+				
+				boolean occupied = qf.is_occupied(i);
+				boolean continuation = qf.is_continuation(i); 
+				boolean shifted = qf.is_shifted(i);
+				
+				if 	(!occupied && !continuation && !shifted ) { // empty slot
+					if(c.current_cluster_length != 0) qf.ar_sum1(ar, c.current_cluster_length-1);
+					c.current_cluster_length = 0;
+					c.current_run_length = 0;
+				}
+				else if (!continuation && shifted ) { // start of new run
+					c.num_runs++;
+					c.current_run_length = 1;
+					c.current_cluster_length++;
+				}
+				else if (!occupied && continuation && shifted ) { // continuation of run
+					c.current_cluster_length++;
+					c.current_run_length++;
+				}
+				else if (occupied && !continuation && !shifted ) { // start of new cluster & run
+					if(c.current_cluster_length != 0) qf.ar_sum1(ar, c.current_cluster_length-1);
+					c.num_runs++;
+					c.num_clusters++;
+					c.current_cluster_length = 1; 
+					c.current_run_length = 1;
+				}
+				else if (occupied && continuation && shifted ) { // continuation of run
+					c.current_cluster_length++;
+					c.current_run_length++;
+				}
+			}
+			return c;
+		}
+		
+		// the cluster pending at the end of the first range ends at the first slot of the second range, which is not shifted
+		ClusterCounts merge(ClusterCounts first, ClusterCounts second) {
+			ArrayList<Integer> ar = first.cluster_lengths;
+			for (int i = 0; i < second.cluster_lengths.size(); i++) {
+				if (i == ar.size()) {
+					ar.add(0);
+				}
+				ar.set(i, ar.get(i) + second.cluster_lengths.get(i));
+			}
+			if(first.current_cluster_length != 0) qf.ar_sum1(ar, first.current_cluster_length-1);
+			first.num_runs += second.num_runs;
+			first.num_clusters += second.num_clusters;
+			first.current_cluster_length = second.current_cluster_length;
+			first.current_run_length = second.current_run_length;
+			return first;
+		}
+	}
 
 
 	
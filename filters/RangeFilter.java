@@ -0,0 +1,212 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.BitSet;
+
+// An InfiniFilter that answers whether a range of keys may be non-empty, in the style of the Memento filter.
+// A key is split into a prefix, which is hashed into a canonical slot and a fingerprint like any key of a quotient filter,
+// and its lowest suffix_bits bits, which are stored verbatim as the value of its entry (see QuotientFilter.set_value_bits).
+// The keys that share a prefix thus land in the same run, and a range is checked by scanning the runs of the prefixes it overlaps.
+// A range shorter than 2^suffix_bits overlaps at most two prefixes. When the filter expands, the prefix fingerprints
+// give up a bit as in any InfiniFilter, and the suffixes move along with them.
+// Keys are compared as unsigned numbers.
+public class RangeFilter extends BasicInfiniFilter {
+
+	final int suffix_bits;
+	final long suffix_mask;
+
+	public RangeFilter(int power_of_two, int bits_per_entry, int suffix_bits) {
+		this(power_of_two, bits_per_entry, suffix_bits, BitmapType.on_heap);
+	}
+
+	// bits_per_entry is the width of the slots without the suffixes, which take suffix_bits more bits each
+	public RangeFilter(int power_of_two, int bits_per_entry, int new_suffix_bits, BitmapType type) {
+		super(power_of_two, bits_per_entry, type);
+		if (new_suffix_bits < 1 || fingerprintLength + new_suffix_bits + 3 > 64) {
+			throw new IllegalArgumentException("the suffixes must have at least 1 bit and fit in a 64-bit slot along with the fingerprint");
+		}
+		suffix_bits = new_suffix_bits;
+		suffix_mask = (1L << suffix_bits) - 1;
+		allocate_values(suffix_bits);
+	}
+
+	public int get_suffix_bits() {
+		return suffix_bits;
+	}
+
+	public boolean insert(long key, boolean insert_only_if_no_match) {
+		return super.put(key >>> suffix_bits, key & suffix_mask);
+	}
+
+	public boolean search(long key) {
+		return may_contain_range(key, key);
+	}
+
+	// returns false only if no key in [lo, hi] was inserted. At most two runs are scanned: a range that overlaps
+	// more than two prefixes, and is thus longer than 2^suffix_bits, is reported as possibly non-empty without a scan.
+	// Like get(), this does not retry around a concurrent insertion or deletion on an atomic bitmap.
+	public boolean may_contain_range(long lo, long hi) {
+		if (Long.compareUnsigned(lo, hi) > 0) {
+			throw new IllegalArgumentException("the range [" + Long.toUnsignedString(lo) + ", " + Long.toUnsignedString(hi) + "] is empty");
+		}
+		long lo_prefix = lo >>> suffix_bits;
+		long hi_prefix = hi >>> suffix_bits;
+		if (hi_prefix - lo_prefix > 1) {
+			return true;
+		}
+		if (lo_prefix == hi_prefix) {
+			return contains_suffix_in(lo_prefix, lo & suffix_mask, hi & suffix_mask);
+		}
+		return contains_suffix_in(lo_prefix, lo & suffix_mask, suffix_mask) || contains_suffix_in(hi_prefix, 0, hi & suffix_mask);
+	}
+
+	// returns whether the run of a prefix holds an entry whose fingerprint matches the prefix and whose suffix is in [from, to]
+	boolean contains_suffix_in(long prefix, long from, long to) {
+		long large_hash = get_hash(prefix);
+		long slot_index = get_slot_index(large_hash);
+		if (!is_occupied(slot_index)) {
+			return false;
+		}
+		long fingerprint = gen_fingerprint(large_hash);
+		long index = find_run_start(slot_index);
+		long run_end = find_run_end(index);
+		for (; index <= run_end; index++) {
+			long suffix = get_value(index);
+			if (suffix >= from && suffix <= to && compare_fingerprints(get_fingerprint(index), fingerprint)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// deletes the youngest entry whose fingerprint matches the prefix of the key and whose suffix is that of the key
+	public long delete(long key) {
+		long large_hash = get_hash(key >>> suffix_bits);
+		long removed_fp;
+		if (bitmap_type == BitmapType.atomic) {
+			begin_write();
+			try {
+				removed_fp = delete_suffix(large_hash, key & suffix_mask);
+			} finally {
+				end_write();
+			}
+		}
+		else {
+			removed_fp = delete_suffix(large_hash, key & suffix_mask);
+		}
+		if (removed_fp >= 0) {
+			num_logical_entries--;
+		}
+		return removed_fp;
+	}
+
+	long delete_suffix(long large_hash, long suffix) {
+		long canonical_slot = get_slot_index(large_hash);
+		if (!is_occupied(canonical_slot)) {
+			return -1;
+		}
+		long fingerprint = gen_fingerprint(large_hash);
+		long run_start = find_run_start(canonical_slot);
+		long run_end = find_run_end(run_start);
+		long matching_index = -1;
+		long lowest_age = Long.MAX_VALUE;
+		for (long index = run_start; index <= run_end; index++) {
+			long slot_fp = get_fingerprint(index);
+			if (get_value(index) == suffix && compare_fingerprints(slot_fp, fingerprint)) {
+				long age = parse_unary_from_fingerprint(slot_fp);
+				if (age < lowest_age) {
+					lowest_age = age;
+					matching_index = index;
+				}
+			}
+		}
+		if (matching_index == -1) {
+			return -1;
+		}
+		long removed_fp = get_fingerprint(matching_index);
+		delete(fingerprint, canonical_slot, run_start, matching_index);
+		num_physical_entries--;
+		return removed_fp;
+	}
+
+	// the batches are applied one key at a time, since a key is hashed by its prefix and keeps its suffix
+	public BitSet insert_batch(long[] keys) {
+		BitSet results = new BitSet(keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			if (insert(keys[i], false)) {
+				results.set(i);
+			}
+		}
+		return results;
+	}
+
+	public BitSet delete_batch(long[] keys) {
+		BitSet results = new BitSet(keys.length);
+		for (int i = 0; i < keys.length; i++) {
+			if (delete(keys[i]) >= 0) {
+				results.set(i);
+			}
+		}
+		return results;
+	}
+
+	public void search_batch(long[] keys, long[] result_bits) {
+		for (int i = 0; i < keys.length; i++) {
+			if (search(keys[i])) {
+				result_bits[i >>> 6] |= 1L << i;
+			}
+			else {
+				result_bits[i >>> 6] &= ~(1L << i);
+			}
+		}
+	}
+
+	// the keys of a range filter are numbers, so they cannot be given as hashes of strings or byte arrays
+	protected boolean _insert(long large_hash, boolean insert_only_if_no_match) {
+		throw new UnsupportedOperationException("a range filter only holds long keys");
+	}
+
+	protected long _delete(long large_hash) {
+		throw new UnsupportedOperationException("a range filter only holds long keys");
+	}
+
+	protected boolean _search(long large_hash) {
+		throw new UnsupportedOperationException("a range filter only holds long keys");
+	}
+
+	public boolean put(long key, long value) {
+		throw new UnsupportedOperationException("the values of a range filter are the suffixes of its keys");
+	}
+
+	public long[] get(long key) {
+		throw new UnsupportedOperationException("the values of a range filter are the suffixes of its keys");
+	}
+
+	public void set_value_bits(int bits) {
+		throw new UnsupportedOperationException("the values of a range filter are the suffixes of its keys");
+	}
+
+	public boolean rejuvenate(long key) {
+		throw new UnsupportedOperationException("the entries of a range filter cannot be rejuvenated");
+	}
+
+	public void build_from_hashes(long[] hashes) {
+		throw new UnsupportedOperationException("a range filter cannot be built from hashes");
+	}
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.Arrays;
+
+// Reads the runs of a filter in the order of their canonical slots, as they would be laid out in a table with
+// extra_slot_bits more slot bits and fingerprints of target_length bits. This is the transformation expand() applies to
+// each entry, extra_slot_bits times over: the lowest bits of the fingerprint move to the top of the slot address.
+// Each run of the filter then splits into up to 2^extra_slot_bits runs, so the filter is scanned once for each value of these bits.
+class RunReader {
+
+	final QuotientFilter qf;
+	final int extra_slot_bits;
+	final int target_length;
+	final long num_slots;
+
+	long slot = -1; // the canonical slot of the current run in the larger table, or Long.MAX_VALUE after the last run
+	long[] fingerprints = new long[8]; // the fingerprints of the current run
+	int run_length;
+
+	long pivot_bits; // the current value of the fingerprint bits that move to the slot address
+	long canonical_slot = -1; // the canonical slot of the current run in the filter
+	long next_free = -1; // the slot after the previous run, or -1 at the start of a scan
+
+	RunReader(QuotientFilter new_qf, int new_extra_slot_bits, int new_target_length) {
+		qf = new_qf;
+		extra_slot_bits = new_extra_slot_bits;
+		target_length = new_target_length;
+		num_slots = qf.get_logical_num_slots();
+	}
+
+	// moves to the next run, and returns false if there is none
+	boolean next_run() {
+		long pivot_mask = (1L << extra_slot_bits) - 1;
+		while (true) {
+			canonical_slot++;
+			while (canonical_slot < num_slots && !qf.is_occupied(canonical_slot)) {
+				canonical_slot++;
+			}
+			if (canonical_slot == num_slots) {
+				if (++pivot_bits > pivot_mask) {
+					slot = Long.MAX_VALUE;
+					return false;
+				}
+				canonical_slot = -1;
+				next_free = -1;
+				continue;
+			}
+			// the runs are laid out one after the other, so only the first run of a scan has to be located
+			long index = next_free < 0 ? qf.find_run_start(canonical_slot) : Math.max(canonical_slot, next_free);
+			run_length = 0;
+			do {
+				long fingerprint = qf.get_fingerprint(index);
+				long converted = qf.convert_fingerprint(fingerprint, extra_slot_bits, target_length);
+				if (converted < 0) {
+					throw new IllegalArgumentException("an entry in slot " + canonical_slot + " is too old to be moved into a table with "
+							+ extra_slot_bits + " more slot bits");
+				}
+				if ((fingerprint & pivot_mask) == pivot_bits) {
+					if (run_length == fingerprints.length) {
+						fingerprints = Arrays.copyOf(fingerprints, run_length * 2);
+					}
+					fingerprints[run_length++] = converted;
+				}
+				index++;
+			} while (!qf.is_past_table_end(index) && qf.is_continuation(index));
+			next_free = index;
+			if (run_length > 0) {
+				slot = canonical_slot | (pivot_bits << qf.power_of_two_size);
+				return true;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.ArrayList;
+
+// Writes the entries of an empty filter from the start of its table to its end, given in the order of their canonical slots.
+// Each entry goes into its canonical slot, or right after the previous entry if that slot is taken,
+// so the runs and clusters are laid out without ever shifting an entry.
+// This is how a filter is built from sorted hashes (see QuotientFilter.build_from_hashes) and how two filters are merged.
+class RunWriter {
+
+	final QuotientFilter qf;
+	final long num_slots;
+	long next_free; // the slot after the last entry written so far
+	long first_index = -1; // the slot of the first entry written
+	long previous_slot = -1;
+	long num_written;
+
+	// In a circular filter, the entries that wrap around to the start of the table while it is already in use
+	// are inserted as usual once the others are written, which shifts the clusters at the start of the table
+	final ArrayList<Long> deferred_slots = new ArrayList<Long>();
+	final ArrayList<Long> deferred_fingerprints = new ArrayList<Long>();
+
+	// starts laying out the entries at slot start, which is past 0 if a circular filter needs room for the entries that wrap around
+	RunWriter(QuotientFilter new_qf, long start) {
+		qf = new_qf;
+		num_slots = qf.get_logical_num_slots();
+		next_free = start;
+	}
+
+	// appends an entry. The canonical slots of consecutive entries must not decrease
+	void append(long slot_index, long fingerprint) {
+		boolean run_start = slot_index != previous_slot;
+		previous_slot = slot_index;
+		long index = Math.max(next_free, slot_index);
+		if (qf.is_past_table_end(index)) {
+			throw new IllegalStateException("the clusters run past the end of a filter of " + num_slots + " slots");
+		}
+		if (qf.circular && num_written + deferred_slots.size() >= num_slots - 1) {
+			throw new IllegalStateException("the entries do not fit in a circular filter of " + num_slots + " slots");
+		}
+		if (qf.circular && (!deferred_slots.isEmpty() || (first_index >= 0 && index - num_slots >= first_index))) {
+			deferred_slots.add(slot_index);
+			deferred_fingerprints.add(fingerprint);
+			return;
+		}
+		if (run_start && index != slot_index) {
+			qf.set_occupied(slot_index, true);
+		}
+		// the slot may already be a canonical slot whose run was shifted further, or, in a circular filter,
+		// whose run starts after the entries that wrapped around
+		boolean occupied = (run_start && index == slot_index) || qf.is_occupied(index);
+		long flags = (occupied ? 1 : 0) | (run_start ? 0 : 2) | (index != slot_index ? 4 : 0);
+		qf.set_slot(index, (fingerprint << 3) | flags);
+		if (first_index < 0) {
+			first_index = index;
+		}
+		next_free = index + 1;
+		num_written++;
+	}
+
+	// sets the number of entries and the bookkeeping of the free slots of the filter once all entries are appended
+	void finish() {
+		qf.num_physical_entries = num_written;
+		if (next_free > qf.last_empty_slot) {
+			qf.last_empty_slot = qf.find_backward_empty_slot(next_free - 1);
+		}
+		for (int i = 0; i < deferred_slots.size(); i++) {
+			qf.insert(deferred_fingerprints.get(i), deferred_slots.get(i), false);
+		}
+	}
+
+}
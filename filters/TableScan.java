@@ -0,0 +1,96 @@
+/*
+ * Copyright 2024 Niv Dayan
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+ */
+
+package filters;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+// A pass over the slots [from, to) of a table that computes a result, such as a count or a histogram, in parallel. 
+// The range is split in two until the parts are small, the parts are scanned by the threads of the common fork-join pool, 
+// and their results are merged back in slot order. A scan over a quotient filter splits the range at slots that are not 
+// shifted (see SlotScan), so that each cluster is scanned by a single part. Small tables are scanned on the calling thread. 
+// The table must not be modified during the scan. 
+abstract class TableScan<R> extends RecursiveTask<R> {
+
+	private static final long serialVersionUID = 1L;
+
+	// ranges of fewer slots are not split
+	static final long MIN_SPLIT_SLOTS = 1 << 16;
+
+	final long from;
+	final long to;
+
+	TableScan(long new_from, long new_to) {
+		from = new_from;
+		to = new_to;
+	}
+
+	// returns a scan of the same kind over another range
+	abstract TableScan<R> part(long part_from, long part_to);
+
+	// scans the range on the current thread
+	abstract R scan();
+
+	// merges the results of two adjacent ranges, the first of which comes before the second
+	abstract R merge(R first, R second);
+
+	// returns the slot at or after middle where the range may be split, or to if there is none
+	long split_point(long middle) {
+		return middle;
+	}
+
+	R run() {
+		if (to - from < 2 * MIN_SPLIT_SLOTS) {
+			return scan();
+		}
+		return ForkJoinPool.commonPool().invoke(this);
+	}
+
+	protected R compute() {
+		if (to - from >= 2 * MIN_SPLIT_SLOTS) {
+			long middle = split_point(from + (to - from) / 2);
+			if (middle > from && middle < to) {
+				TableScan<R> first = part(from, middle);
+				TableScan<R> second = part(middle, to);
+				first.fork();
+				R second_result = second.compute();
+				return merge(first.join(), second_result);
+			}
+		}
+		return scan();
+	}
+
+	// a scan over the slots of a quotient filter, which is split at the slots that are not shifted: 
+	// each part then starts with an empty slot or with the start of a cluster
+	static abstract class SlotScan<R> extends TableScan<R> {
+
+		private static final long serialVersionUID = 1L;
+
+		final QuotientFilter qf;
+
+		SlotScan(QuotientFilter new_qf, long new_from, long new_to) {
+			super(new_from, new_to);
+			qf = new_qf;
+		}
+
+		long split_point(long middle) {
+			return qf.find_unshifted_slot(middle, to);
+		}
+
+	}
+
+}
@@ -16,14 +16,34 @@ limitations under the License.
 
 package filters;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
 import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
+import bitmap_implementations.AlignedBitmap;
+import bitmap_implementations.AtomicBitmap;
 import bitmap_implementations.Bitmap;
+import bitmap_implementations.ByteAlignedBitmap;
+import bitmap_implementations.CopyOnWriteBitmap;
+import bitmap_implementations.IntAlignedBitmap;
+import bitmap_implementations.OffHeapBitmap;
+import bitmap_implementations.QuickBitVectorWrapper;
+import bitmap_implementations.SegmentedBitmap;
+import bitmap_implementations.ShortAlignedBitmap;
+import bitmap_implementations.SlotCursor;
 import infiniFilter_experiments.Experiment1;
 import infiniFilter_experiments.ExperimentsBase;
 
@@ -448,7 +468,7 @@ public class Tests {
 		qf.insert(0, 23, false); // last key in the filter
 		qf.insert(0, 24, false); // outside the bounds, logical slot 14 does not exist logically, even if it might exist physically 
 
-		Iterator it = new Iterator(qf);
+		EntryCursor it = new EntryCursor(qf);
 		int[] arr = new int[] {2, 3, 3, 4, 23};
 		int arr_index = 0;
 
@@ -479,7 +499,7 @@ public class Tests {
 		qf.insert(0, 1, false);
 		qf.insert(0, 15, false);
 
-		Iterator it = new Iterator(qf);
+		EntryCursor it = new EntryCursor(qf);
 		int[] arr = new int[] {1, 1, 1, 2, 4, 7, 15};
 		int arr_index = 0;
 
@@ -2120,9 +2140,2116 @@ public class Tests {
 		}
 
 
-}
+
+		// applies the same random sequence of single-bit and bit-range operations to a bitmap and to a reference QuickBitVectorWrapper
+		// and checks that both always agree
+		static public void test_bitmap_against_reference(Bitmap bitmap, long num_bits, int num_ops) {
+			Bitmap reference = new QuickBitVectorWrapper(1, num_bits);
+			Random rand = new Random(7);
+			for (int i = 0; i < num_ops; i++) {
+				int width = 1 + rand.nextInt(64);
+				long from = (long)(rand.nextDouble() * (num_bits - width));
+				long to = from + width;
+				long value = rand.nextLong();
+				int op = rand.nextInt(3);
+				if (op == 0) {
+					bitmap.setFromTo(from, to, value);
+					reference.setFromTo(from, to, value);
+				}
+				else if (op == 1) {
+					bitmap.set(from, (value & 1) == 1);
+					reference.set(from, (value & 1) == 1);
+				}
+				if (bitmap.getFromTo(from, to) != reference.getFromTo(from, to) || bitmap.get(from) != reference.get(from)) {
+					System.out.println("bitmap " + bitmap.getClass().getSimpleName() + " disagrees with the reference at bits " + from + " to " + to);
+					System.exit(1);
+				}
+			}
+			for (long i = 0; i < num_bits; i++) {
+				if (bitmap.get(i) != reference.get(i)) {
+					System.out.println("bitmap " + bitmap.getClass().getSimpleName() + " disagrees with the reference at bit " + i);
+					System.exit(1);
+				}
+			}
+		}
+		
+		// testing the off-heap bitmap, and filters that use it
+		static public void test28() {
+			test_bitmap_against_reference(new OffHeapBitmap(1, 1 << 14), 1 << 14, 100000);
+			
+			Bitmap cloned = (Bitmap) new OffHeapBitmap(1, 1 << 10).clone();
+			test_bitmap_against_reference(cloned, 1 << 10, 10000);
+			cloned.release();
+			
+			BasicInfiniFilter qf = new ChainedInfiniFilter(3, 10);
+			qf.set_bitmap_type(BitmapType.off_heap);
+			qf.expand_autonomously = true;
+			test_insertions_and_deletes(qf);
+			
+			test_no_false_negatives(new CuckooFilter(10, 10, BitmapType.off_heap), (int) (Math.pow(2, 10) * 0.95));
+			test_no_false_negatives(new BloomFilter(1024, 11, BitmapType.off_heap), 1024);
+		}
+		
+		// testing that a filter persisted to a file survives expansions and can be reopened with all its keys
+		static public void test29() {
+			try {
+				Path dir = Files.createTempDirectory("aleph");
+				Path file = dir.resolve("filter");
+				
+				BasicInfiniFilter qf = new BasicInfiniFilter(3, 12);
+				qf.expand_autonomously = true;
+				qf.insert(0, false);
+				qf.persist_to(file);
+				int num_keys = 2000;
+				for (int i = 1; i < num_keys; i++) {
+					qf.insert(i, false);
+				}
+				qf.sync();
+				int num_expansions = qf.get_num_expansions();
+				long num_entries = qf.get_num_physical_entries();
+				qf.filter.release();
+				
+				if (num_expansions == 0 || Files.exists(dir.resolve("filter.next"))) {
+					System.out.println("the persisted filter did not expand through its file");
+					System.exit(1);
+				}
+				
+				BasicInfiniFilter reopened = BasicInfiniFilter.open(file);
+				if (reopened.get_num_expansions() != num_expansions || reopened.get_num_physical_entries() != num_entries 
+						|| reopened.get_num_logical_entries() != num_keys || reopened.get_bitmap_type() != BitmapType.mapped_file) {
+					System.out.println("the counters of the reopened filter differ");
+					System.exit(1);
+				}
+				for (int i = 0; i < num_keys; i++) {
+					if (!reopened.search(i)) {
+						System.out.println("key " + i + " was lost after reopening the filter");
+						System.exit(1);
+					}
+				}
+				
+				// the reopened filter keeps working, and a clone is an in-memory copy
+				reopened.delete(0);
+				reopened.insert(num_keys, false);
+				BasicInfiniFilter copy = (BasicInfiniFilter) reopened.clone();
+				reopened.filter.release();
+				if (copy.get_bitmap_type() != BitmapType.off_heap || !copy.search(num_keys)) {
+					System.out.println("the clone of a persisted filter is wrong");
+					System.exit(1);
+				}
+				
+				QuotientFilter plain = new QuotientFilter(6, 13);
+				plain.insert(5, false);
+				plain.persist_to(dir.resolve("plain"));
+				plain.filter.release();
+				plain = QuotientFilter.open(dir.resolve("plain"));
+				if (plain instanceof BasicInfiniFilter || !plain.search(5) || plain.get_num_physical_entries() != 1) {
+					System.out.println("the reopened quotient filter is wrong");
+					System.exit(1);
+				}
+				plain.filter.release();
+				
+				Files.delete(file);
+				Files.delete(dir.resolve("plain"));
+				Files.delete(dir);
+			} catch (IOException e) {
+				e.printStackTrace();
+				System.exit(1);
+			}
+		}
+		
+		// testing the segmented bitmap. Tiny pages make many of the ranges cross a page boundary
+		static public void test30() {
+			test_bitmap_against_reference(new SegmentedBitmap(1, 1 << 14, 2), 1 << 14, 100000);
+			test_bitmap_against_reference(new SegmentedBitmap(1, 1 << 14), 1 << 14, 10000);
+			
+			Bitmap cloned = (Bitmap) new SegmentedBitmap(3, 1000, 3).clone();
+			test_bitmap_against_reference(cloned, 3000, 10000);
+			
+			BasicInfiniFilter qf = new BasicInfiniFilter(3, 10, BitmapType.segmented);
+			qf.expand_autonomously = true;
+			test_insertions_and_deletes(qf);
+			if (!(qf.filter instanceof SegmentedBitmap)) {
+				System.out.println("the filter did not keep a segmented bitmap across expansions");
+				System.exit(1);
+			}
+			
+			test_no_false_negatives(new CuckooFilter(10, 10, BitmapType.segmented), (int) (Math.pow(2, 10) * 0.95));
+			test_no_false_negatives(new BloomFilter(1024L, 11, BitmapType.segmented), 1024);
+		}
+		
+		// testing the slot-aligned bitmaps, and that filters with 8, 16 or 32 bits per entry pick them
+		static public void test31() {
+			test_bitmap_against_reference(new ByteAlignedBitmap(1 << 11), 1 << 14, 100000);
+			test_bitmap_against_reference(new ShortAlignedBitmap(1 << 10), 1 << 14, 100000);
+			test_bitmap_against_reference(new IntAlignedBitmap(1 << 9), 1 << 14, 100000);
+			test_bitmap_against_reference((Bitmap) new ShortAlignedBitmap(1 << 6).clone(), 1 << 10, 10000);
+			
+			int[] widths = {8, 16};
+			for (int bits_per_entry : widths) {
+				BasicInfiniFilter qf = new BasicInfiniFilter(3, bits_per_entry);
+				qf.expand_autonomously = true;
+				test_insertions_and_deletes(qf);
+				if (!(qf.filter instanceof AlignedBitmap)) {
+					System.out.println("a filter with " + bits_per_entry + " bits per entry does not use an aligned bitmap");
+					System.exit(1);
+				}
+			}
+			test_no_false_negatives(new QuotientFilter(10, 32), 800);
+			test_no_false_negatives(new CuckooFilter(10, 16), (int) (Math.pow(2, 10) * 0.95));
+		}
+		
+		static void check_same_slots(QuotientFilter expected, QuotientFilter actual) {
+			long num_slots = expected.get_logical_num_slots_plus_extensions();
+			if (actual.get_logical_num_slots_plus_extensions() != num_slots || actual.last_empty_slot != expected.last_empty_slot) {
+				System.out.println("the filters have different dimensions");
+				System.exit(1);
+			}
+			for (long i = 0; i < num_slots; i++) {
+				if (expected.get_slot(i) != actual.get_slot(i)) {
+					System.out.println("the filters differ at slot " + i);
+					System.exit(1);
+				}
+			}
+		}
+		
+		// testing that storing the metadata flags in separate planes yields the same filter as interleaving them
+		static public void test32() {
+			BasicInfiniFilter interleaved = new BasicInfiniFilter(3, 12);
+			BasicInfiniFilter separate = new BasicInfiniFilter(3, 12);
+			separate.set_separate_metadata(true);
+			interleaved.expand_autonomously = true;
+			separate.expand_autonomously = true;
+			Random rand = new Random(3);
+			TreeSet<Integer> added = new TreeSet<Integer>();
+			for (int i = 0; i < 20000; i++) {
+				int key = rand.nextInt();
+				if (i % 3 == 2 && added.size() > 0) {
+					key = added.pollFirst();
+					if (interleaved.delete(key) != separate.delete(key)) {
+						System.out.println("the filters deleted different fingerprints");
+						System.exit(1);
+					}
+				}
+				else {
+					boolean success = interleaved.insert(key, false);
+					if (success != separate.insert(key, false)) {
+						System.out.println("the filters disagree on an insertion");
+						System.exit(1);
+					}
+					if (success) {
+						added.add(key);
+					}
+				}
+			}
+			check_same_slots(interleaved, separate);
+			for (int key : added) {
+				if (!separate.search(key)) {
+					System.out.println("key " + key + " is missing from the filter with separate metadata");
+					System.exit(1);
+				}
+			}
+			
+			// converting between layouts preserves the contents 
+			BasicInfiniFilter converted = (BasicInfiniFilter) interleaved.clone();
+			converted.set_separate_metadata(true);
+			check_same_slots(interleaved, converted);
+			converted.set_separate_metadata(false);
+			check_same_slots(interleaved, converted);
+			for (int i = 0; i < separate.get_logical_num_slots_plus_extensions() * separate.bitPerEntry; i++) {
+				if (separate.get_bit_at_offset(i) != interleaved.get_bit_at_offset(i)) {
+					System.out.println("the filters differ at bit " + i);
+					System.exit(1);
+				}
+			}
+			
+			ChainedInfiniFilter chained = new ChainedInfiniFilter(3, 10);
+			chained.set_separate_metadata(true);
+			chained.expand_autonomously = true;
+			test_insertions_and_deletes(chained);
+			
+			DuplicatingChainedInfiniFilter aleph = new DuplicatingChainedInfiniFilter(3, 10, true, -1);
+			aleph.set_separate_metadata(true);
+			aleph_tests.insert_all_and_then_delete_all(aleph, aleph.power_of_two_size + aleph.fingerprintLength + 1);
+			
+			QuotientFilter qf = new QuotientFilter(10, 11);
+			qf.set_separate_metadata(true);
+			test_no_false_negatives(qf, 800);
+		}
+		
+		static public void test_shift_range_against_reference(Bitmap bitmap, int num_bits, int num_ops) {
+			Random rand = new Random(11);
+			boolean[] reference = new boolean[num_bits];
+			for (int i = 0; i < num_bits; i++) {
+				reference[i] = rand.nextBoolean();
+				bitmap.set(i, reference[i]);
+			}
+			for (int op = 0; op < num_ops; op++) {
+				int distance = rand.nextInt(num_bits / 8) - num_bits / 16;
+				int from = num_bits / 16 + rand.nextInt(num_bits / 2);
+				int to = from + rand.nextInt(num_bits / 4);
+				if (op % 2 == 0) { // aligned to whole bytes, so that the aligned bitmaps can copy elements
+					from &= ~7; 
+					to &= ~7;
+					distance &= ~7;
+				}
+				bitmap.shiftRange(from, to, distance);
+				boolean[] before = reference.clone();
+				for (int i = from; i < to; i++) {
+					reference[i + distance] = before[i];
+				}
+				for (int i = 0; i < num_bits; i++) {
+					if (bitmap.get(i) != reference[i]) {
+						System.out.println("shifting [" + from + ", " + to + ") by " + distance + " in " + bitmap.getClass().getSimpleName() + " is wrong at bit " + i);
+						System.exit(1);
+					}
+				}
+			}
+		}
+		
+		// testing Bitmap.shiftRange, and that filters whose clusters are shifted with it through long clusters stay correct
+		static public void test33() {
+			test_shift_range_against_reference(new QuickBitVectorWrapper(1, 1 << 12), 1 << 12, 1000);
+			test_shift_range_against_reference(new OffHeapBitmap(1, 1 << 12), 1 << 12, 1000);
+			test_shift_range_against_reference(new SegmentedBitmap(1, 1 << 12, 2), 1 << 12, 1000);
+			test_shift_range_against_reference(new ByteAlignedBitmap(1 << 9), 1 << 12, 1000);
+			test_shift_range_against_reference(new ShortAlignedBitmap(1 << 8), 1 << 12, 1000);
+			test_shift_range_against_reference(new IntAlignedBitmap(1 << 7), 1 << 12, 1000);
+			
+			// at this load, many clusters span more than 64 slots
+			for (int bits_per_entry : new int[] {13, 16}) {
+				QuotientFilter qf = new QuotientFilter(10, bits_per_entry);
+				qf.expand_autonomously = false;
+				test_no_false_negatives(qf, 990);
+				qf = new QuotientFilter(10, bits_per_entry);
+				qf.expand_autonomously = false;
+				qf.set_separate_metadata(true);
+				test_no_false_negatives(qf, 990);
+			}
+		}
+		
+		static void join_all(Thread[] threads) {
+			for (Thread t : threads) {
+				try {
+					t.join();
+				} catch (InterruptedException e) {
+					System.out.println("interrupted while waiting for a thread");
+					System.exit(1);
+				}
+			}
+		}
+		
+		// testing the atomic bitmap, lock-free concurrent insertions into a bloom filter, 
+		// and searches of a quotient filter that run while another thread inserts into and deletes from it
+		static public void test34() {
+			test_bitmap_against_reference(new AtomicBitmap(1, 1 << 14), 1 << 14, 100000);
+			test_bitmap_against_reference((Bitmap) new AtomicBitmap(3, 1000).clone(), 3000, 10000);
+			test_shift_range_against_reference(new AtomicBitmap(1, 1 << 12), 1 << 12, 1000);
+			
+			int num_threads = 4;
+			int keys_per_thread = 5000;
+			BloomFilter bloom = new BloomFilter(num_threads * keys_per_thread, 10, BitmapType.atomic);
+			Thread[] threads = new Thread[num_threads];
+			for (int t = 0; t < num_threads; t++) {
+				int first_key = t * keys_per_thread;
+				threads[t] = new Thread(() -> {
+					for (int key = first_key; key < first_key + keys_per_thread; key++) {
+						bloom.insert(key, false);
+					}
+				});
+				threads[t].start();
+			}
+			join_all(threads);
+			if (bloom.get_num_occupied_slots(false) != num_threads * keys_per_thread) {
+				System.out.println("concurrent insertions into the bloom filter were lost");
+				System.exit(1);
+			}
+			for (int key = 0; key < num_threads * keys_per_thread; key++) {
+				if (!bloom.search(key)) {
+					System.out.println("key " + key + " is missing from the bloom filter after concurrent insertions");
+					System.exit(1);
+				}
+			}
+			
+			// the readers keep searching for keys that are never deleted, while the writer shifts clusters and expands the filter
+			BasicInfiniFilter qf = new BasicInfiniFilter(3, 12, BitmapType.atomic);
+			qf.expand_autonomously = true;
+			int num_stable_keys = 2000;
+			for (int key = 0; key < num_stable_keys; key++) {
+				qf.insert(key, false);
+			}
+			AtomicBoolean done = new AtomicBoolean(false);
+			AtomicBoolean failed = new AtomicBoolean(false);
+			Thread[] readers = new Thread[2];
+			for (int t = 0; t < readers.length; t++) {
+				int seed = t;
+				readers[t] = new Thread(() -> {
+					Random rand = new Random(seed);
+					while (!done.get() && !failed.get()) {
+						int key = rand.nextInt(num_stable_keys);
+						if (!qf.search(key)) {
+							System.out.println("key " + key + " was not found while the filter was being modified");
+							failed.set(true);
+						}
+					}
+				});
+				readers[t].start();
+			}
+			Random rand = new Random(5);
+			TreeSet<Integer> added = new TreeSet<Integer>();
+			for (int i = 0; i < 30000 && !failed.get(); i++) {
+				int key = num_stable_keys + rand.nextInt(Integer.MAX_VALUE - num_stable_keys);
+				if (i % 3 == 2 && added.size() > 0) {
+					qf.delete(added.pollFirst());
+				}
+				else if (qf.insert(key, false)) {
+					added.add(key);
+				}
+			}
+			done.set(true);
+			join_all(readers);
+			if (failed.get()) {
+				System.exit(1);
+			}
+			if (!(qf.filter instanceof AtomicBitmap)) {
+				System.out.println("the filter did not keep an atomic bitmap across expansions");
+				System.exit(1);
+			}
+		}
+		
+		static void check_bitmap(Bitmap bitmap, boolean[] reference, String name) {
+			for (int i = 0; i < reference.length; i++) {
+				if (bitmap.get(i) != reference[i]) {
+					System.out.println(name + " is wrong at bit " + i);
+					System.exit(1);
+				}
+			}
+		}
+		
+		// testing that copy-on-write bitmaps share their pages with their clones, and that writes on either side stay on that side
+		static public void test35() {
+			test_bitmap_against_reference(new CopyOnWriteBitmap(1, 1 << 14, 2), 1 << 14, 100000);
+			test_bitmap_against_reference((Bitmap) new CopyOnWriteBitmap(3, 1000, 2).clone(), 3000, 10000);
+			
+			int num_bits = 1 << 14;
+			CopyOnWriteBitmap original = new CopyOnWriteBitmap(1, num_bits, 3);
+			int num_pages = num_bits / 64 / 8;
+			Random rand = new Random(9);
+			boolean[] original_bits = new boolean[num_bits];
+			for (int i = 0; i < num_bits; i++) {
+				original_bits[i] = rand.nextBoolean();
+				original.set(i, original_bits[i]);
+			}
+			CopyOnWriteBitmap copy = (CopyOnWriteBitmap) original.clone();
+			boolean[] copy_bits = original_bits.clone();
+			if (original.numSharedPages() != num_pages || copy.numSharedPages() != num_pages) {
+				System.out.println("a clone does not share all of its pages");
+				System.exit(1);
+			}
+			original.set(0, !original_bits[0]);
+			original_bits[0] = !original_bits[0];
+			if (original.numSharedPages() != num_pages - 1 || copy.numSharedPages() != num_pages) {
+				System.out.println("writing to one page copied more than that page");
+				System.exit(1);
+			}
+			for (int op = 0; op < 10000; op++) {
+				int from = rand.nextInt(num_bits - 64);
+				int to = from + rand.nextInt(65);
+				long value = rand.nextLong();
+				boolean[] bits = op % 2 == 0 ? original_bits : copy_bits;
+				(op % 2 == 0 ? original : copy).setFromTo(from, to, value);
+				for (int i = from; i < to; i++) {
+					bits[i] = ((value >>> (i - from)) & 1) != 0;
+				}
+			}
+			check_bitmap(original, original_bits, "the original bitmap");
+			check_bitmap(copy, copy_bits, "the cloned bitmap");
+			
+			// a snapshot of a filter is unaffected by the insertions and deletions that follow it, and vice versa
+			ChainedInfiniFilter qf = new ChainedInfiniFilter(3, 10);
+			qf.set_bitmap_type(BitmapType.copy_on_write);
+			qf.expand_autonomously = true;
+			for (int key = 0; key < 3000; key++) {
+				qf.insert(key, false);
+			}
+			ChainedInfiniFilter snapshot = (ChainedInfiniFilter) qf.clone();
+			for (int key = 3000; key < 6000; key++) {
+				qf.insert(key, false);
+			}
+			for (int key = 0; key < 1000; key++) {
+				snapshot.delete(key);
+			}
+			for (int key = 0; key < 6000; key++) {
+				if (!qf.search(key)) {
+					System.out.println("key " + key + " is missing from the filter after it was cloned");
+					System.exit(1);
+				}
+			}
+			for (int key = 1000; key < 3000; key++) {
+				if (!snapshot.search(key)) {
+					System.out.println("key " + key + " is missing from the snapshot");
+					System.exit(1);
+				}
+			}
+			if (!(qf.filter instanceof CopyOnWriteBitmap) || !(snapshot.filter instanceof CopyOnWriteBitmap)) {
+				System.out.println("the filters did not keep copy-on-write bitmaps");
+				System.exit(1);
+			}
+		}
+		
+		// testing that a cursor reads the same entries as getFromTo, for entries of many widths in all kinds of bitmaps
+		static public void test36() {
+			Random rand = new Random(13);
+			int num_bits = 1 << 13;
+			Bitmap[] bitmaps = {new QuickBitVectorWrapper(1, num_bits), new OffHeapBitmap(1, num_bits), new SegmentedBitmap(1, num_bits, 2), 
+					new ByteAlignedBitmap(num_bits / 8), new ShortAlignedBitmap(num_bits / 16), new IntAlignedBitmap(num_bits / 32), 
+					new AtomicBitmap(1, num_bits), new CopyOnWriteBitmap(1, num_bits, 2)};
+			for (Bitmap bitmap : bitmaps) {
+				for (int i = 0; i < num_bits; i += 64) {
+					bitmap.setFromTo(i, i + 64, rand.nextLong());
+				}
+				for (int stride = 1; stride <= 64; stride++) {
+					int width = stride <= 3 ? stride : stride - rand.nextInt(4);
+					long first_bit = rand.nextInt(200);
+					SlotCursor cursor = bitmap.cursor(first_bit, stride, width);
+					for (long from = first_bit; from + stride <= num_bits; from += stride) {
+						if (cursor.next() != bitmap.getFromTo(from, from + width)) {
+							System.out.println("a cursor over " + bitmap.getClass().getSimpleName() + " misread the entry of width " + width + " at bit " + from);
+							System.exit(1);
+						}
+					}
+				}
+			}
+			
+			// the iterator reads the slots through a cursor
+			QuotientFilter qf = new QuotientFilter(10, 13);
+			qf.expand_autonomously = false;
+			for (int key = 0; key < 800; key++) {
+				qf.insert(key, false);
+			}
+			EntryCursor it = new EntryCursor(qf);
+			long num_entries = 0;
+			while (it.next()) {
+				if ((it.fingerprint & ((1L << qf.fingerprintLength) - 1)) != qf.get_fingerprint(it.index - 1)) {
+					System.out.println("the iterator misread slot " + (it.index - 1));
+					System.exit(1);
+				}
+				num_entries++;
+			}
+			if (num_entries != qf.get_num_occupied_slots(false)) {
+				System.out.println("the iterator visited " + num_entries + " slots rather than " + qf.get_num_occupied_slots(false));
+				System.exit(1);
+			}
+		}
+		
+		// testing that bitmaps are cleared, and that a pool hands retired bitmaps out again to filters that need the same dimensions
+		static public void test37() {
+			Random rand = new Random(17);
+			Bitmap[] bitmaps = {new QuickBitVectorWrapper(1, 1000), new OffHeapBitmap(1, 1000), new SegmentedBitmap(1, 1000, 2), 
+					new ByteAlignedBitmap(125), new ShortAlignedBitmap(63), new IntAlignedBitmap(32), new AtomicBitmap(1, 1000)};
+			for (Bitmap bitmap : bitmaps) {
+				for (int i = 0; i < 1000; i++) {
+					bitmap.set(i, rand.nextBoolean());
+				}
+				bitmap.clear();
+				for (int i = 0; i < bitmap.size(); i++) {
+					if (bitmap.get(i)) {
+						System.out.println(bitmap.getClass().getSimpleName() + " was not cleared at bit " + i);
+						System.exit(1);
+					}
+				}
+			}
+			
+			BitmapPool pool = new BitmapPool(1 << 14);
+			Bitmap first = pool.allocate(BitmapType.on_heap, 13, 512);
+			first.set(5, true);
+			pool.retire(first);
+			Bitmap second = pool.allocate(BitmapType.on_heap, 13, 512);
+			if (second != first || second.get(5) || pool.get_num_hits() != 1 || pool.get_num_misses() != 1) {
+				System.out.println("the pool did not hand out a cleared retired bitmap");
+				System.exit(1);
+			}
+			pool.retire(second);
+			Bitmap other = pool.allocate(BitmapType.on_heap, 13, 1024); // different dimensions
+			pool.retire(other); // does not fit in the pool's limit
+			pool.retire(new QuickBitVectorWrapper(13, 512)); // was not allocated by the pool
+			if (pool.get_num_misses() != 2 || pool.get_num_discarded() != 2 || pool.get_retained_bits() != first.size()) {
+				System.out.println("the pool kept bitmaps it should have released: " + pool.get_metrics_str());
+				System.exit(1);
+			}
+			
+			// a filter that grows through the same sizes as a filter before it reuses that filter's bitmaps
+			pool = new BitmapPool();
+			BasicInfiniFilter qf = new BasicInfiniFilter(3, 10);
+			qf.set_bitmap_pool(pool);
+			qf.expand_autonomously = true;
+			test_insertions_and_deletes(qf);
+			long misses = pool.get_num_misses();
+			qf = new BasicInfiniFilter(3, 10);
+			qf.set_bitmap_pool(pool);
+			qf.expand_autonomously = true;
+			test_insertions_and_deletes(qf);
+			if (pool.get_num_hits() == 0 || pool.get_num_misses() - misses >= misses) {
+				System.out.println("the second filter did not reuse the bitmaps of the first: " + pool.get_metrics_str());
+				System.exit(1);
+			}
+			
+			ChainedInfiniFilter chained = new ChainedInfiniFilter(3, 10);
+			chained.set_separate_metadata(true);
+			chained.set_bitmap_pool(new BitmapPool());
+			chained.expand_autonomously = true;
+			test_insertions_and_deletes(chained);
+		}
+
+		
+		// testing that the rank-and-select index of the metadata planes locates the same runs as a scan of the cluster, 
+		// at a load where many clusters span several 64-slot blocks, while entries are inserted and deleted 
+		static public void test38() {
+			QuotientFilter interleaved = new QuotientFilter(10, 13);
+			QuotientFilter separate = new QuotientFilter(10, 13);
+			interleaved.expand_autonomously = false;
+			separate.expand_autonomously = false;
+			separate.set_separate_metadata(true);
+			Random rand = new Random(19);
+			ArrayList<Long> added = new ArrayList<Long>();
+			for (int i = 0; i < 20000; i++) {
+				if (added.size() > 980 || (added.size() > 900 && rand.nextBoolean())) {
+					long key = added.remove(rand.nextInt(added.size()));
+					if (interleaved.delete(key) != separate.delete(key)) {
+						System.out.println("the filters deleted different fingerprints");
+						System.exit(1);
+					}
+				}
+				else {
+					long key = rand.nextLong();
+					boolean success = interleaved.insert(key, false);
+					if (success != separate.insert(key, false)) {
+						System.out.println("the filters disagree on an insertion");
+						System.exit(1);
+					}
+					if (success) {
+						added.add(key);
+					}
+				}
+				long slot = rand.nextInt((int) separate.get_logical_num_slots());
+				if (interleaved.find_run_start(slot) != separate.find_run_start(slot)) {
+					System.out.println("the rank-and-select index located the run of slot " + slot + " at " + separate.find_run_start(slot) 
+							+ " rather than " + interleaved.find_run_start(slot));
+					System.exit(1);
+				}
+			}
+			check_same_slots(interleaved, separate);
+			for (long slot = 0; slot < separate.get_logical_num_slots(); slot++) {
+				if (interleaved.find_run_start(slot) != separate.find_run_start(slot)) {
+					System.out.println("the rank-and-select index located the run of slot " + slot + " incorrectly");
+					System.exit(1);
+				}
+			}
+			for (long key : added) {
+				if (!separate.search(key)) {
+					System.out.println("key " + key + " is missing from the filter with a rank-and-select index");
+					System.exit(1);
+				}
+			}
+			
+			// the index of a clone is independent of that of the original
+			QuotientFilter clone = (QuotientFilter) separate.clone();
+			for (int i = 0; i < 200; i++) {
+				separate.delete(added.get(i));
+			}
+			for (long key : added) {
+				if (!clone.search(key)) {
+					System.out.println("key " + key + " is missing from the clone");
+					System.exit(1);
+				}
+			}
+		}
+
+		
+		// returns the entries of a quotient filter as sorted pairs of canonical slot and fingerprint, as seen by an iterator
+		static ArrayList<Long> get_sorted_entries(QuotientFilter qf) {
+			ArrayList<Long> entries = new ArrayList<Long>();
+			EntryCursor it = new EntryCursor(qf);
+			while (it.next()) {
+				entries.add((it.bucket_index << qf.fingerprintLength) | it.fingerprint);
+			}
+			Collections.sort(entries);
+			return entries;
+		}
+		
+		// testing circular filters, whose clusters wrap around the end of the table rather than running into extension slots
+		static public void test39() {
+			// at this load, some clusters wrap around, and only the last empty slot is left for the final insertion to fail on
+			QuotientFilter qf = new QuotientFilter(6, 10);
+			qf.set_circular(true);
+			qf.expand_autonomously = false;
+			if (qf.get_logical_num_slots_plus_extensions() != 64) {
+				System.out.println("a circular filter should not have extension slots");
+				System.exit(1);
+			}
+			Random rand = new Random(23);
+			ArrayList<Long> added = new ArrayList<Long>();
+			ArrayList<Long> expected = new ArrayList<Long>();
+			for (int i = 0; i < 5000; i++) {
+				if (added.size() == 63 || (added.size() > 50 && rand.nextBoolean())) {
+					int victim = rand.nextInt(added.size());
+					long key = added.remove(victim);
+					expected.remove(victim);
+					if (qf.delete(key) == -1) {
+						System.out.println("key " + key + " was not deleted from the circular filter");
+						System.exit(1);
+					}
+				}
+				else {
+					long key = rand.nextLong();
+					if (!qf.insert(key, false)) {
+						System.out.println("an insertion into a circular filter with " + added.size() + " entries failed");
+						System.exit(1);
+					}
+					long hash = qf.get_hash(key);
+					added.add(key);
+					expected.add((qf.get_slot_index(hash) << qf.fingerprintLength) | qf.gen_fingerprint(hash));
+				}
+				ArrayList<Long> sorted_expected = new ArrayList<Long>(expected);
+				Collections.sort(sorted_expected);
+				if (!get_sorted_entries(qf).equals(sorted_expected)) {
+					System.out.println("the circular filter holds the wrong entries after operation " + i);
+					qf.pretty_print();
+					System.exit(1);
+				}
+				for (long key : added) {
+					if (!qf.search(key)) {
+						System.out.println("key " + key + " is missing from the circular filter");
+						System.exit(1);
+					}
+				}
+			}
+			while (added.size() < 63) {
+				long key = rand.nextLong();
+				qf.insert(key, false);
+				added.add(key);
+			}
+			if (qf.insert(rand.nextLong(), false)) {
+				System.out.println("a circular filter should keep its last slot empty");
+				System.exit(1);
+			}
+			
+			// converting a filter preserves its entries
+			BasicInfiniFilter linear = new BasicInfiniFilter(8, 12);
+			linear.expand_autonomously = false;
+			for (int key = 0; key < 200; key++) {
+				linear.insert(key, false);
+			}
+			BasicInfiniFilter converted = (BasicInfiniFilter) linear.clone();
+			converted.set_circular(true);
+			if (!get_sorted_entries(converted).equals(get_sorted_entries(linear))) {
+				System.out.println("converting a filter to a circular one changed its entries");
+				System.exit(1);
+			}
+			converted.set_circular(false);
+			check_same_slots(linear, converted);
+			
+			try {
+				qf.set_separate_metadata(true);
+				System.out.println("a circular filter should not store its metadata separately");
+				System.exit(1);
+			} catch (UnsupportedOperationException e) {
+			}
+			
+			// circular filters expand, and are used throughout the InfiniFilter hierarchy
+			BasicInfiniFilter basic = new BasicInfiniFilter(3, 10);
+			basic.set_circular(true);
+			basic.expand_autonomously = true;
+			test_insertions_and_deletes(basic);
+			
+			ChainedInfiniFilter chained = new ChainedInfiniFilter(3, 10);
+			chained.set_circular(true);
+			chained.expand_autonomously = true;
+			test_insertions_and_deletes(chained);
+			if (!chained.get_secondary().is_circular()) {
+				System.out.println("the secondary filter of a circular chain should be circular");
+				System.exit(1);
+			}
+			
+			DuplicatingChainedInfiniFilter aleph = new DuplicatingChainedInfiniFilter(3, 10, true, -1);
+			aleph.set_circular(true);
+			aleph_tests.insert_all_and_then_delete_all(aleph, aleph.power_of_two_size + aleph.fingerprintLength + 1);
+		}
+
+		
+		// testing batched insertions and deletions, which sort each batch by canonical slot, 
+		// against a filter that receives the same keys one at a time
+		static public void test40() {
+			// the radix sort is stable and orders the batch by the low bits of the hashes
+			KeyBatch batch = new KeyBatch();
+			Random rand = new Random(29);
+			long[] keys = new long[10000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			QuotientFilter probe = new QuotientFilter(3, 10);
+			batch.prepare(probe, keys);
+			batch.sort_by_low_bits(100, 9000, 20);
+			for (int i = 101; i < 9000; i++) {
+				long previous = batch.hashes[i - 1] & ((1 << 20) - 1);
+				long current = batch.hashes[i] & ((1 << 20) - 1);
+				if (previous > current || (previous == current && batch.order[i - 1] > batch.order[i])) {
+					System.out.println("the batch is not sorted stably at " + i);
+					System.exit(1);
+				}
+			}
+			
+			// a filter that expands during a batch receives it in parts sorted for each size, so it ends up with the same slots
+			BasicInfiniFilter one_by_one = new BasicInfiniFilter(3, 12);
+			BasicInfiniFilter batched = new BasicInfiniFilter(3, 12);
+			one_by_one.expand_autonomously = true;
+			batched.expand_autonomously = true;
+			for (int from = 0; from < keys.length; from += 2500) {
+				long[] part = Arrays.copyOfRange(keys, from, from + 2500);
+				BitSet inserted = batched.insert_batch(part);
+				for (int i = 0; i < part.length; i++) {
+					if (inserted.get(i) != one_by_one.insert(part[i], false)) {
+						System.out.println("the batch reported the wrong result for key " + part[i]);
+						System.exit(1);
+					}
+				}
+			}
+			check_same_slots(one_by_one, batched);
+			if (batched.num_expansions != one_by_one.num_expansions || batched.get_num_logical_entries() != one_by_one.get_num_logical_entries()) {
+				System.out.println("the batched filter expanded differently");
+				System.exit(1);
+			}
+			long[] to_delete = Arrays.copyOfRange(keys, 0, 5000);
+			BitSet deleted = batched.delete_batch(to_delete);
+			for (int i = 0; i < to_delete.length; i++) {
+				if (deleted.get(i) != (one_by_one.delete(to_delete[i]) >= 0)) {
+					System.out.println("the batch reported the wrong deletion result for key " + to_delete[i]);
+					System.exit(1);
+				}
+			}
+			check_same_slots(one_by_one, batched);
+			
+			// a chained filter expands and moves void entries to its secondary filter between the parts of a batch
+			ChainedInfiniFilter chained = new ChainedInfiniFilter(3, 10);
+			chained.expand_autonomously = true;
+			long[] many_keys = new long[1 << 16];
+			for (int i = 0; i < many_keys.length; i++) {
+				many_keys[i] = rand.nextLong();
+			}
+			if (chained.insert_batch(many_keys).cardinality() != many_keys.length) {
+				System.out.println("the chained filter did not insert the whole batch");
+				System.exit(1);
+			}
+			for (long key : many_keys) {
+				if (!chained.search(key)) {
+					System.out.println("key " + key + " is missing from the chained filter");
+					System.exit(1);
+				}
+			}
+			if (chained.delete_batch(many_keys).cardinality() != many_keys.length) {
+				System.out.println("the chained filter did not delete the whole batch");
+				System.exit(1);
+			}
+			
+			// filters that are not quotient filters take the batch in its own order
+			BloomFilter bloom = new BloomFilter(keys.length, 10);
+			bloom.insert_batch(keys);
+			for (long key : keys) {
+				if (!bloom.search(key)) {
+					System.out.println("key " + key + " is missing from the bloom filter");
+					System.exit(1);
+				}
+			}
+		}
+
+		
+		// checks that searching a batch of keys, half of which were inserted, gives the same results as searching them one at a time
+		static void check_search_batch(Filter filter, long[] inserted, Random rand) {
+			long[] keys = new long[2 * inserted.length + 3];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = i % 2 == 0 && i / 2 < inserted.length ? inserted[i / 2] : rand.nextLong();
+			}
+			long[] result_bits = new long[(keys.length + 63) / 64];
+			Arrays.fill(result_bits, -1L); // stale results must be cleared
+			filter.search_batch(keys, result_bits);
+			for (int i = 0; i < keys.length; i++) {
+				boolean batched = (result_bits[i >>> 6] & (1L << i)) != 0;
+				if (batched != filter.search(keys[i])) {
+					System.out.println(filter.getClass().getSimpleName() + " answered the batched search for key " + keys[i] + " wrongly");
+					System.exit(1);
+				}
+			}
+		}
+		
+		// testing batched searches, which probe the canonical slots of a group of keys before searching their runs
+		static public void test41() {
+			Random rand = new Random(31);
+			long[] keys = new long[20000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			
+			QuotientFilter qf = new QuotientFilter(15, 13);
+			qf.insert_batch(keys);
+			check_search_batch(qf, keys, rand);
+			qf.set_separate_metadata(true);
+			check_search_batch(qf, keys, rand);
+			qf.set_separate_metadata(false);
+			qf.set_circular(true);
+			check_search_batch(qf, keys, rand);
+			qf.set_circular(false);
+			qf.set_bitmap_type(BitmapType.atomic);
+			check_search_batch(qf, keys, rand);
+			
+			// keys are searched in the active filter, then in the secondary filter and down the chain
+			ChainedInfiniFilter chained = new ChainedInfiniFilter(3, 10);
+			chained.expand_autonomously = true;
+			chained.insert_batch(keys);
+			if (chained.get_secondary() == null) {
+				System.out.println("the chained filter should have a secondary filter");
+				System.exit(1);
+			}
+			check_search_batch(chained, keys, rand);
+			
+			DuplicatingChainedInfiniFilter aleph = new DuplicatingChainedInfiniFilter(3, 10, false, -1);
+			aleph.expand_autonomously = true;
+			aleph.insert_batch(keys);
+			check_search_batch(aleph, keys, rand);
+			
+			Chaining chaining = new Chaining(3, 10);
+			chaining.expand_autonomously = true;
+			chaining.insert_batch(keys);
+			check_search_batch(chaining, keys, rand);
+			
+			BloomFilter bloom = new BloomFilter(keys.length, 10);
+			bloom.insert_batch(keys);
+			check_search_batch(bloom, keys, rand);
+		}
+
+		
+		// builds one filter from the hashes and another by inserting the keys one at a time, and checks that they hold the same entries
+		static QuotientFilter check_build_from_hashes(QuotientFilter built, QuotientFilter inserted, long[] keys) {
+			long[] hashes = new long[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				hashes[i] = built.get_hash(keys[i]);
+				inserted.insert(keys[i], false);
+			}
+			built.build_from_hashes(hashes);
+			if (built.get_num_physical_entries() != inserted.get_num_physical_entries() || built.get_num_logical_entries() != keys.length) {
+				System.out.println("the built filter has " + built.get_num_physical_entries() + " entries rather than " + inserted.get_num_physical_entries());
+				System.exit(1);
+			}
+			ArrayList<Long> built_entries = new ArrayList<Long>();
+			ArrayList<Long> inserted_entries = new ArrayList<Long>();
+			long previous = -1;
+			EntryCursor it = new EntryCursor(built);
+			while (it.next()) {
+				long entry = (it.bucket_index << built.fingerprintLength) | it.fingerprint;
+				if (!built.circular && entry < previous) {
+					System.out.println("the entries of the built filter are not sorted by slot and fingerprint");
+					System.exit(1);
+				}
+				previous = entry;
+				built_entries.add(entry);
+			}
+			it = new EntryCursor(inserted);
+			while (it.next()) {
+				inserted_entries.add((it.bucket_index << inserted.fingerprintLength) | it.fingerprint);
+			}
+			Collections.sort(built_entries);
+			Collections.sort(inserted_entries);
+			if (!built_entries.equals(inserted_entries)) {
+				System.out.println("the built filter holds different entries than the filter the keys were inserted into");
+				System.exit(1);
+			}
+			return built;
+		}
+		
+		static public void test42() {
+			Random rand = new Random(37);
+			long[] keys = new long[12000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			
+			check_build_from_hashes(new QuotientFilter(14, 13), new QuotientFilter(14, 13), keys);
+			check_build_from_hashes(new QuotientFilter(14, 13, BitmapType.on_heap, true), new QuotientFilter(14, 13), keys);
+			check_build_from_hashes(new QuotientFilter(14, 13, BitmapType.atomic), new QuotientFilter(14, 13), keys);
+			
+			// the cluster at the end of a circular table wraps around, and the clusters at its start follow the entries that do
+			long[] wrapping = Arrays.copyOf(keys, 6000);
+			for (int i = 0; i < 20; i++) {
+				wrapping[i] = (1L << 13) - 1 - (i % 3);
+			}
+			QuotientFilter circular = new QuotientFilter(13, 13, BitmapType.on_heap, false, true, null);
+			QuotientFilter inserted = new QuotientFilter(13, 13, BitmapType.on_heap, false, true, null);
+			circular.set_expand_autonomously(false);
+			inserted.set_expand_autonomously(false);
+			long[] hashes = new long[wrapping.length];
+			for (int i = 0; i < wrapping.length; i++) {
+				hashes[i] = i < 20 ? wrapping[i] : circular.get_hash(wrapping[i]);
+				inserted.insert_by_hash(hashes[i], false);
+			}
+			circular.build_from_hashes(hashes);
+			if (!circular.is_shifted(0) || circular.get_num_physical_entries() != inserted.get_num_physical_entries()) {
+				System.out.println("the last cluster of the circular filter should wrap around to slot 0");
+				System.exit(1);
+			}
+			for (int i = 0; i < wrapping.length; i++) {
+				long hash = i < 20 ? wrapping[i] : circular.get_hash(wrapping[i]);
+				if (!circular._search(hash)) {
+					System.out.println("the circular filter lost the entry of hash " + hash);
+					System.exit(1);
+				}
+			}
+			
+			// a built filter goes on to insert, delete and expand as usual
+			BasicInfiniFilter infini = new BasicInfiniFilter(14, 13);
+			check_build_from_hashes(infini, new BasicInfiniFilter(14, 13), keys);
+			for (int i = 0; i < keys.length; i += 2) {
+				if (infini.delete(keys[i]) < 0) {
+					System.out.println("the built filter could not delete key " + keys[i]);
+					System.exit(1);
+				}
+			}
+			long[] more_keys = new long[40000];
+			for (int i = 0; i < more_keys.length; i++) {
+				more_keys[i] = rand.nextLong();
+				infini.insert(more_keys[i], false);
+			}
+			if (infini.get_num_expansions() == 0) {
+				System.out.println("the built filter should have expanded");
+				System.exit(1);
+			}
+			for (int i = 1; i < keys.length; i += 2) {
+				if (!infini.search(keys[i])) {
+					System.out.println("the built filter lost key " + keys[i]);
+					System.exit(1);
+				}
+			}
+			for (long key : more_keys) {
+				if (!infini.search(key)) {
+					System.out.println("the built filter lost key " + key);
+					System.exit(1);
+				}
+			}
+			
+			// the entries must fit into the table, and the filter is left empty if they do not
+			QuotientFilter small = new QuotientFilter(8, 13);
+			try {
+				small.build_from_hashes(Arrays.copyOf(hashes, 1000));
+				System.out.println("1000 entries should not fit in a filter of 256 slots");
+				System.exit(1);
+			} catch (IllegalArgumentException e) {
+			}
+			if (small.get_num_occupied_slots(false) != 0) {
+				System.out.println("a filter that the entries do not fit in should be left empty");
+				System.exit(1);
+			}
+		}
+
+		
+		// checks that a merged filter holds each of the keys, and that its entries are laid out in valid clusters
+		static void check_merged(QuotientFilter merged, long[] keys, int num_keys) {
+			for (int i = 0; i < num_keys; i++) {
+				if (!merged.search(keys[i])) {
+					System.out.println("the merged filter lost key " + keys[i]);
+					System.exit(1);
+				}
+			}
+			long num_entries = 0;
+			EntryCursor it = new EntryCursor(merged);
+			while (it.next()) {
+				num_entries++;
+			}
+			if (num_entries != merged.get_num_physical_entries() || num_entries != merged.get_num_occupied_slots(false)) {
+				System.out.println("the merged filter has " + num_entries + " entries rather than " + merged.get_num_physical_entries());
+				System.exit(1);
+			}
+		}
+		
+		static ArrayList<Long> get_entries(QuotientFilter qf) {
+			ArrayList<Long> entries = new ArrayList<Long>();
+			EntryCursor it = new EntryCursor(qf);
+			while (it.next()) {
+				entries.add((it.bucket_index << qf.fingerprintLength) | it.fingerprint);
+			}
+			Collections.sort(entries);
+			return entries;
+		}
+		
+		static public void test43() {
+			Random rand = new Random(41);
+			long[] keys = new long[9000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			// the first filter holds keys 0 to 5999, and the second one keys 3000 to 8999
+			QuotientFilter first = new QuotientFilter(14, 13);
+			QuotientFilter second = new QuotientFilter(14, 13);
+			QuotientFilter both = new QuotientFilter(14, 13);
+			for (int i = 0; i < keys.length; i++) {
+				if (i < 6000) {
+					first.insert(keys[i], false);
+					both.insert(keys[i], false);
+				}
+				if (i >= 3000) {
+					second.insert(keys[i], false);
+					both.insert(keys[i], false);
+				}
+			}
+			
+			// the intersection keeps the entries of the first filter that the second one holds too
+			ArrayList<Long> expected = new ArrayList<Long>();
+			EntryCursor it = new EntryCursor(first);
+			while (it.next()) {
+				if (second.search(it.fingerprint, it.bucket_index)) {
+					expected.add((it.bucket_index << first.fingerprintLength) | it.fingerprint);
+				}
+			}
+			Collections.sort(expected);
+			QuotientFilter intersection = (QuotientFilter) first.clone();
+			intersection.intersect(second);
+			check_merged(intersection, Arrays.copyOfRange(keys, 3000, 6000), 3000);
+			if (!get_entries(intersection).equals(expected)) {
+				System.out.println("the intersection holds the wrong entries");
+				System.exit(1);
+			}
+			
+			// the union holds the entries of both filters, in whatever layout the metadata is stored
+			first.set_separate_metadata(true);
+			first.union(second);
+			check_merged(first, keys, keys.length);
+			if (!get_entries(first).equals(get_entries(both))) {
+				System.out.println("the union holds the wrong entries");
+				System.exit(1);
+			}
+			
+			// the entries of a smaller filter give up fingerprint bits to the slot addresses of the larger one
+			QuotientFilter small = new QuotientFilter(11, 16);
+			QuotientFilter large = new QuotientFilter(14, 13);
+			for (int i = 0; i < 1500; i++) {
+				small.insert(keys[i], false);
+			}
+			for (int i = 1500; i < 9000; i++) {
+				large.insert(keys[i], false);
+			}
+			small.union(large);
+			check_merged(small, keys, keys.length);
+			if (small.power_of_two_size != 14 || small.fingerprintLength != 10) {
+				System.out.println("the union should have the size and fingerprint length of the larger filter");
+				System.exit(1);
+			}
+			
+			// circular filters keep wrapping their last cluster around
+			QuotientFilter circular_first = new QuotientFilter(12, 13, BitmapType.on_heap, false, true, null);
+			QuotientFilter circular_second = new QuotientFilter(12, 13, BitmapType.on_heap, false, true, null);
+			circular_first.set_expand_autonomously(false);
+			for (int i = 0; i < 1600; i++) {
+				if (i % 10 == 0) {
+					circular_first.insert_by_hash((1L << 12) - 1 - (i / 10) % 3, false);
+				}
+				circular_first.insert(keys[i], false);
+				circular_second.insert(keys[i + 1600], false);
+			}
+			circular_first.union(circular_second);
+			check_merged(circular_first, keys, 3200);
+			if (!circular_first._search((1L << 12) - 1)) {
+				System.out.println("the circular union lost the entries of the last slot");
+				System.exit(1);
+			}
+			
+			// an InfiniFilter that expanded more often than the other one holds older entries with shorter fingerprints, 
+			// and a smaller one moves its entries into the larger table the way expand() does
+			BasicInfiniFilter older = new BasicInfiniFilter(4, 13);
+			BasicInfiniFilter younger = new BasicInfiniFilter(13, 13);
+			older.expand_autonomously = true;
+			younger.expand_autonomously = true;
+			for (int i = 0; i < 2000; i++) {
+				older.insert(keys[i], false);
+			}
+			for (int i = 1000; i < 5000; i++) {
+				younger.insert(keys[i], false);
+			}
+			BasicInfiniFilter infini_intersection = (BasicInfiniFilter) younger.clone();
+			infini_intersection.intersect(older);
+			check_merged(infini_intersection, Arrays.copyOfRange(keys, 1000, 2000), 1000);
+			long false_positives = 0;
+			for (int i = 0; i < 100000; i++) {
+				if (infini_intersection.search(rand.nextLong())) {
+					false_positives++;
+				}
+			}
+			if (false_positives > 100000 * 0.01) {
+				System.out.println("the intersection has " + false_positives + " false positives in 100000 searches");
+				System.exit(1);
+			}
+			older.union(younger);
+			check_merged(older, keys, 5000);
+			if (older.power_of_two_size != 13 || older.get_num_logical_entries() != 6000) {
+				System.out.println("the union should have the size of the larger filter and the entries of both");
+				System.exit(1);
+			}
+			
+			// a union that reaches the expansion threshold is written into a larger table
+			BasicInfiniFilter left = new BasicInfiniFilter(12, 13);
+			BasicInfiniFilter right = new BasicInfiniFilter(12, 13);
+			left.expand_autonomously = true;
+			right.expand_autonomously = true;
+			for (int i = 0; i < 6000; i++) {
+				(i < 3000 ? left : right).insert(keys[i], false);
+			}
+			left.union(right);
+			check_merged(left, keys, 6000);
+			if (left.power_of_two_size != 13) {
+				System.out.println("the union should have expanded");
+				System.exit(1);
+			}
+			long[] more_keys = new long[20000];
+			for (int i = 0; i < more_keys.length; i++) {
+				more_keys[i] = rand.nextLong();
+				left.insert(more_keys[i], false);
+			}
+			check_merged(left, keys, 6000);
+			check_merged(left, more_keys, more_keys.length);
+			
+			try {
+				new ChainedInfiniFilter(10, 13).union(new ChainedInfiniFilter(10, 13));
+				System.out.println("chained filters should not be merged");
+				System.exit(1);
+			} catch (UnsupportedOperationException e) {
+			}
+			try {
+				new QuotientFilter(10, 13).union(new BasicInfiniFilter(10, 13));
+				System.out.println("filters of different kinds should not be merged");
+				System.exit(1);
+			} catch (IllegalArgumentException e) {
+			}
+		}
+
+		
+		// every key should be counted at least as many times as it was inserted and not yet deleted
+		static void check_counts(CountingQuotientFilter qf, HashMap<Long, Long> counts) {
+			for (Map.Entry<Long, Long> e : counts.entrySet()) {
+				if (qf.count(e.getKey()) < e.getValue()) {
+					System.out.println("key " + e.getKey() + " was inserted " + e.getValue() + " times but is counted " + qf.count(e.getKey()) + " times");
+					System.exit(1);
+				}
+			}
+		}
+		
+		// counting the insertions of a key in the slots that follow its fingerprint
+		static public void test44() {
+			Random rand = new Random(44);
+			CountingQuotientFilter qf = new CountingQuotientFilter(10, 16);
+			long hot_key = rand.nextLong();
+			for (int i = 0; i < 100000; i++) {
+				qf.insert(hot_key, false);
+			}
+			if (qf.count(hot_key) != 100000 || qf.num_physical_entries > 4) {
+				System.out.println("a key inserted 100000 times should be counted in at most 4 slots");
+				System.exit(1);
+			}
+			for (int i = 0; i < 99999; i++) {
+				qf.delete(hot_key);
+			}
+			if (qf.count(hot_key) != 1 || qf.num_physical_entries != 1) {
+				System.out.println("deleting a key should decrement its count");
+				System.exit(1);
+			}
+			qf.delete(hot_key);
+			if (qf.count(hot_key) != 0 || qf.search(hot_key) || qf.num_physical_entries != 0) {
+				System.out.println("a key whose count reaches zero should be removed");
+				System.exit(1);
+			}
+			
+			// with 2-bit fingerprints, many keys share a fingerprint, and the counters use every symbol
+			for (int bits_per_entry : new int[] {5, 6, 16}) {
+				qf = new CountingQuotientFilter(10, bits_per_entry);
+				HashMap<Long, Long> counts = new HashMap<Long, Long>();
+				long[] keys = new long[60];
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = rand.nextLong();
+				}
+				for (int i = 0; i < 3000; i++) {
+					long key = keys[(int) Math.abs(rand.nextGaussian() * 15) % keys.length];
+					long count = counts.getOrDefault(key, 0L);
+					if (count > 0 && rand.nextInt(3) == 0) {
+						qf.delete(key);
+						counts.put(key, count - 1);
+					}
+					else {
+						if (!qf.insert(key, false)) {
+							System.out.println("the counter of a key should fit in the filter");
+							System.exit(1);
+						}
+						counts.put(key, count + 1);
+					}
+				}
+				check_counts(qf, counts);
+				for (Map.Entry<Long, Long> e : counts.entrySet()) {
+					for (long i = 0; i < e.getValue(); i++) {
+						qf.delete(e.getKey());
+					}
+				}
+				if (qf.num_physical_entries != 0) {
+					System.out.println("deleting every insertion should empty the filter");
+					System.exit(1);
+				}
+			}
+			
+			// the counts move along with the entries when the filter expands
+			qf = new CountingQuotientFilter(6, 16);
+			qf.expand_autonomously = true;
+			HashMap<Long, Long> counts = new HashMap<Long, Long>();
+			for (int i = 0; i < 5000; i++) {
+				long key = rand.nextLong();
+				long count = 1 + rand.nextInt(i % 10 == 0 ? 1000 : 3);
+				for (long j = 0; j < count; j++) {
+					qf.insert(key, false);
+				}
+				counts.put(key, count);
+			}
+			if (qf.num_expansions < 6) {
+				System.out.println("the filter should have expanded");
+				System.exit(1);
+			}
+			check_counts(qf, counts);
+			
+			qf.set_separate_metadata(true);
+			check_counts(qf, counts);
+			for (Map.Entry<Long, Long> e : counts.entrySet()) {
+				for (long i = 0; i < e.getValue(); i++) {
+					qf.delete(e.getKey());
+				}
+			}
+			if (qf.num_physical_entries != 0) {
+				System.out.println("deleting every insertion should empty the filter");
+				System.exit(1);
+			}
+		}
+
+		
+		// every key should get at least the value it was put with
+		static void check_values(QuotientFilter qf, HashMap<Long, Long> values) {
+			for (Map.Entry<Long, Long> e : values.entrySet()) {
+				boolean found = false;
+				for (long v : qf.get(e.getKey())) {
+					found |= v == e.getValue();
+				}
+				if (!found) {
+					System.out.println("key " + e.getKey() + " should get the value " + e.getValue() + " but gets " + Arrays.toString(qf.get(e.getKey())));
+					System.exit(1);
+				}
+			}
+		}
+		
+		// a maplet, which stores a small value along with each fingerprint
+		static public void test45() {
+			Random rand = new Random(45);
+			QuotientFilter qf = new QuotientFilter(12, 13);
+			qf.set_value_bits(6);
+			HashMap<Long, Long> values = new HashMap<Long, Long>();
+			for (int i = 0; i < 3000; i++) {
+				long key = rand.nextLong();
+				long value = rand.nextInt(64);
+				qf.put(key, value);
+				values.put(key, value);
+			}
+			check_values(qf, values);
+			long false_values = 0;
+			for (int i = 0; i < 10000; i++) {
+				false_values += qf.get(rand.nextLong()).length;
+			}
+			if (false_values > 100) {
+				System.out.println("a key that was not put should rarely get a value");
+				System.exit(1);
+			}
+			
+			// deletions shift the values along with the fingerprints
+			int num_deleted = 0;
+			for (java.util.Iterator<Map.Entry<Long, Long>> it = values.entrySet().iterator(); it.hasNext() && num_deleted < 1500; num_deleted++) {
+				qf.delete(it.next().getKey());
+				it.remove();
+			}
+			check_values(qf, values);
+			
+			// the values survive a change of layout
+			qf.set_separate_metadata(true);
+			check_values(qf, values);
+			qf.set_separate_metadata(false);
+			qf.set_circular(true);
+			check_values(qf, values);
+			
+			// the values move along with their fingerprints when an InfiniFilter expands
+			BasicInfiniFilter infini = new BasicInfiniFilter(4, 16);
+			infini.set_value_bits(8);
+			infini.set_separate_metadata(true);
+			values.clear();
+			for (int i = 0; i < 2000; i++) {
+				long key = rand.nextLong();
+				long value = rand.nextInt(256);
+				if (!infini.put(key, value)) {
+					System.out.println("the maplet should have room for the key");
+					System.exit(1);
+				}
+				values.put(key, value);
+			}
+			if (infini.num_expansions < 5) {
+				System.out.println("the maplet should have expanded");
+				System.exit(1);
+			}
+			check_values(infini, values);
+			for (Map.Entry<Long, Long> e : values.entrySet()) {
+				infini.rejuvenate(e.getKey());
+			}
+			check_values(infini, values);
+			
+			// keys inserted without a value get the value 0
+			long plain_key = rand.nextLong();
+			infini.insert(plain_key, false);
+			if (!Arrays.equals(infini.get(plain_key), new long[] {0})) {
+				System.out.println("a key inserted without a value should get 0");
+				System.exit(1);
+			}
+			
+			try {
+				infini.put(rand.nextLong(), 256);
+				System.out.println("a value that does not fit should be rejected");
+				System.exit(1);
+			} catch (IllegalArgumentException e) {
+			}
+			try {
+				infini.set_value_bits(4);
+				System.out.println("only an empty filter should change its value width");
+				System.exit(1);
+			} catch (IllegalStateException e) {
+			}
+			try {
+				new QuotientFilter(10, 13).get(0);
+				System.out.println("a filter without values should not be read as a maplet");
+				System.exit(1);
+			} catch (IllegalStateException e) {
+			}
+			try {
+				new ChainedInfiniFilter(10, 13).set_value_bits(4);
+				System.out.println("chained filters should not store values");
+				System.exit(1);
+			} catch (UnsupportedOperationException e) {
+			}
+		}
+
+		
+		// every range that holds an inserted key should be reported as possibly non-empty
+		static void check_ranges(RangeFilter rf, TreeSet<Long> keys, Random rand) {
+			for (long key : keys) {
+				long lo = key - rand.nextInt(1 << rf.get_suffix_bits());
+				long hi = lo + rand.nextInt(1 << rf.get_suffix_bits());
+				if (!rf.search(key) || !rf.may_contain_range(Math.min(lo, key), Math.max(hi, key))) {
+					System.out.println("a range that holds the key " + key + " should not be reported empty");
+					System.exit(1);
+				}
+			}
+		}
+		
+		// a range filter, which stores the suffixes of the keys in the runs of their prefixes
+		static public void test46() {
+			Random rand = new Random(46);
+			RangeFilter rf = new RangeFilter(4, 16, 8);
+			TreeSet<Long> keys = new TreeSet<Long>();
+			while (keys.size() < 5000) {
+				long key = (rand.nextLong() >>> 24) & ~0xFFL | rand.nextInt(256);
+				if (keys.add(key)) {
+					if (!rf.insert(key, false)) {
+						System.out.println("the range filter should have room for the key");
+						System.exit(1);
+					}
+				}
+			}
+			if (rf.num_expansions < 8) {
+				System.out.println("the range filter should have expanded");
+				System.exit(1);
+			}
+			check_ranges(rf, keys, rand);
+			
+			// most empty ranges shorter than a prefix should be reported empty
+			int num_false_positives = 0;
+			int num_empty_ranges = 0;
+			for (int i = 0; i < 20000; i++) {
+				long lo = rand.nextLong() >>> 24;
+				long hi = lo + rand.nextInt(256);
+				Long next = keys.ceiling(lo);
+				if (next != null && next <= hi) {
+					continue;
+				}
+				num_empty_ranges++;
+				num_false_positives += rf.may_contain_range(lo, hi) ? 1 : 0;
+			}
+			if (num_false_positives > num_empty_ranges / 50) {
+				System.out.println("too many empty ranges were reported non-empty: " + num_false_positives + " out of " + num_empty_ranges);
+				System.exit(1);
+			}
+			
+			// the suffixes tell apart the keys that share a prefix
+			long prefix_start = keys.first() & ~0xFFL;
+			int num_reported = 0;
+			for (long k = prefix_start; k <= (prefix_start | 0xFFL); k++) {
+				num_reported += rf.search(k) ? 1 : 0;
+			}
+			if (num_reported > keys.subSet(prefix_start, true, prefix_start | 0xFFL, true).size() + 8) {
+				System.out.println("the keys of a prefix that were not inserted should be filtered by their suffixes");
+				System.exit(1);
+			}
+			
+			// deleting keys removes their suffixes, but not those of the other keys of their prefixes
+			int num_deleted = 0;
+			for (java.util.Iterator<Long> it = keys.iterator(); it.hasNext() && num_deleted < 2500; num_deleted++) {
+				if (rf.delete(it.next()) < 0) {
+					System.out.println("an inserted key should be deleted");
+					System.exit(1);
+				}
+				it.remove();
+			}
+			check_ranges(rf, keys, rand);
+			rf.set_separate_metadata(true);
+			check_ranges(rf, keys, rand);
+			
+			// a range longer than two prefixes is not checked
+			if (!new RangeFilter(10, 16, 8).may_contain_range(0, 1000)) {
+				System.out.println("a range longer than two prefixes may hold keys");
+				System.exit(1);
+			}
+			if (new RangeFilter(10, 16, 8).may_contain_range(0, 300)) {
+				System.out.println("an empty filter should report ranges of up to two prefixes as empty");
+				System.exit(1);
+			}
+			try {
+				rf.search("key");
+				System.out.println("a range filter should only hold long keys");
+				System.exit(1);
+			} catch (UnsupportedOperationException e) {
+			}
+		}
+
+		
+		// every run of the filter should be in the order of compare_in_run()
+		static void check_sorted_runs(QuotientFilter qf) {
+			for (long bucket = 0; bucket < qf.get_logical_num_slots(); bucket++) {
+				if (!qf.is_occupied(bucket)) {
+					continue;
+				}
+				long run_start = qf.find_run_start(bucket);
+				long run_end = qf.find_run_end(run_start);
+				for (long i = run_start; i < run_end; i++) {
+					if (qf.compare_in_run(qf.get_fingerprint(i), qf.get_fingerprint(i + 1)) > 0) {
+						System.out.println("the run of slot " + bucket + " is not sorted");
+						System.exit(1);
+					}
+				}
+			}
+		}
+		
+		// a sorted filter should hold the same keys as an unsorted one, and answer every search the same way
+		static void check_same_answers(QuotientFilter sorted, QuotientFilter unsorted, long[] keys, Random rand) {
+			check_sorted_runs(sorted);
+			for (long key : keys) {
+				if (!sorted.search(key)) {
+					System.out.println("the sorted filter should hold the key " + key);
+					System.exit(1);
+				}
+			}
+			for (int i = 0; i < 20000; i++) {
+				long key = rand.nextLong();
+				if (sorted.search(key) != unsorted.search(key)) {
+					System.out.println("the sorted filter should answer the search for " + key + " as the unsorted one does");
+					System.exit(1);
+				}
+			}
+		}
+		
+		// keeping the fingerprints of each run sorted
+		static public void test47() {
+			Random rand = new Random(47);
+			long[] keys = new long[6000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			
+			// with 6-bit fingerprints, many keys of a run share a fingerprint
+			QuotientFilter sorted = new QuotientFilter(12, 9);
+			QuotientFilter unsorted = new QuotientFilter(12, 9);
+			sorted.set_sorted_runs(true);
+			for (int i = 0; i < 3000; i++) {
+				sorted.insert(keys[i], false);
+				unsorted.insert(keys[i], false);
+			}
+			check_same_answers(sorted, unsorted, Arrays.copyOf(keys, 3000), rand);
+			// an insertion that checks for a match finds it in the pass that finds its position
+			for (int i = 0; i < 3300; i++) {
+				long hash = sorted.get_hash(keys[i]);
+				long fingerprint = sorted.gen_fingerprint(hash);
+				long slot = sorted.get_slot_index(hash);
+				boolean inserted = sorted.insert(fingerprint, slot, true);
+				if (inserted != unsorted.insert(fingerprint, slot, true) || (i < 3000 && inserted)) {
+					System.out.println("an insertion that checks for a match should find it in a sorted run too");
+					System.exit(1);
+				}
+			}
+			for (int i = 3000; i < 3300; i++) {
+				sorted.delete(keys[i]);
+				unsorted.delete(keys[i]);
+			}
+			for (int i = 0; i < 1500; i++) {
+				if (sorted.delete(keys[i]) < 0) {
+					System.out.println("a key in a sorted run should be deleted");
+					System.exit(1);
+				}
+				unsorted.delete(keys[i]);
+			}
+			check_same_answers(sorted, unsorted, Arrays.copyOfRange(keys, 1500, 3000), rand);
+			
+			// turning the option on sorts the runs of a filter
+			QuotientFilter later = new QuotientFilter(12, 9);
+			for (int i = 0; i < 3000; i++) {
+				later.insert(keys[i], false);
+			}
+			later.set_sorted_runs(true);
+			check_sorted_runs(later);
+			
+			// the runs of an InfiniFilter stay sorted as it expands, and as its entries are rejuvenated
+			BasicInfiniFilter sorted_infini = new BasicInfiniFilter(6, 16);
+			BasicInfiniFilter unsorted_infini = new BasicInfiniFilter(6, 16);
+			sorted_infini.set_sorted_runs(true);
+			sorted_infini.set_value_bits(8);
+			unsorted_infini.set_value_bits(8);
+			for (int i = 0; i < keys.length; i++) {
+				sorted_infini.put(keys[i], i & 255);
+				unsorted_infini.put(keys[i], i & 255);
+			}
+			if (sorted_infini.num_expansions < 5) {
+				System.out.println("the InfiniFilter should have expanded");
+				System.exit(1);
+			}
+			check_same_answers(sorted_infini, unsorted_infini, keys, rand);
+			for (int i = 0; i < keys.length; i += 3) {
+				sorted_infini.rejuvenate(keys[i]);
+				unsorted_infini.rejuvenate(keys[i]);
+			}
+			check_same_answers(sorted_infini, unsorted_infini, keys, rand);
+			for (int i = 0; i < keys.length; i++) {
+				long[] values = sorted_infini.get(keys[i]);
+				Arrays.sort(values);
+				long[] expected = unsorted_infini.get(keys[i]);
+				Arrays.sort(expected);
+				if (!Arrays.equals(values, expected)) {
+					System.out.println("the values should move along with the fingerprints in a sorted run");
+					System.exit(1);
+				}
+			}
+			for (int i = 0; i < keys.length; i += 2) {
+				sorted_infini.delete(keys[i]);
+				unsorted_infini.delete(keys[i]);
+			}
+			long[] remaining = new long[keys.length / 2];
+			for (int i = 0; i < remaining.length; i++) {
+				remaining[i] = keys[2 * i + 1];
+			}
+			check_same_answers(sorted_infini, unsorted_infini, remaining, rand);
+			
+			// a filter with sorted runs is built with sorted runs
+			BasicInfiniFilter built = new BasicInfiniFilter(13, 16);
+			built.set_sorted_runs(true);
+			long[] hashes = new long[keys.length];
+			for (int i = 0; i < keys.length; i++) {
+				hashes[i] = built.get_hash(keys[i]);
+			}
+			built.build_from_hashes(hashes);
+			check_sorted_runs(built);
+			
+			// a union of sorted filters is sorted
+			BasicInfiniFilter left = new BasicInfiniFilter(12, 16);
+			BasicInfiniFilter right = new BasicInfiniFilter(12, 16);
+			left.set_sorted_runs(true);
+			for (int i = 0; i < keys.length; i++) {
+				(i % 2 == 0 ? left : right).insert(keys[i], false);
+			}
+			left.union(right);
+			check_sorted_runs(left);
+			for (long key : keys) {
+				if (!left.search(key)) {
+					System.out.println("the union should hold the keys of both filters");
+					System.exit(1);
+				}
+			}
+		}
+		
+		// returns the fullness of the filter just before it first expands, after inserting the keys until then
+		static double fullness_at_first_expansion(BasicInfiniFilter qf, long[] keys) {
+			for (long key : keys) {
+				long num_entries = qf.num_physical_entries;
+				long num_slots = qf.get_logical_num_slots();
+				if (!qf.insert(key, false)) {
+					System.out.println("an insertion should not fail before the filter expands");
+					System.exit(1);
+				}
+				if (qf.num_expansions > 0) {
+					return (num_entries + 1) / (double) num_slots;
+				}
+			}
+			return 1;
+		}
+		
+		static public void test48() {
+			Random rand = new Random(48);
+			long[] keys = new long[20000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			
+			// by default, a filter expands once it is 80% full
+			double fullness = fullness_at_first_expansion(new BasicInfiniFilter(12, 16), keys);
+			if (Math.abs(fullness - 0.8) > 0.001) {
+				System.out.println("a filter should expand at its fullness threshold by default, not at " + fullness);
+				System.exit(1);
+			}
+			// a tight probe cost budget expands the filter early, but not below the minimal fullness
+			BasicInfiniFilter tight = new BasicInfiniFilter(12, 16);
+			tight.set_expansion_policy(new ProbeCostPolicy(0.5, 4));
+			fullness = fullness_at_first_expansion(tight, keys);
+			if (fullness < 0.5 || fullness >= 0.8) {
+				System.out.println("a tight probe cost budget should expand the filter early, not at " + fullness);
+				System.exit(1);
+			}
+			// a loose budget lets the filter fill up to the maximal fullness
+			BasicInfiniFilter loose = new BasicInfiniFilter(12, 16);
+			loose.set_expansion_policy(new ProbeCostPolicy(1000, 1000));
+			fullness = fullness_at_first_expansion(loose, keys);
+			if (Math.abs(fullness - 0.9) > 0.001) {
+				System.out.println("a loose probe cost budget should expand the filter at its maximal fullness, not at " + fullness);
+				System.exit(1);
+			}
+			
+			// keys whose canonical slots are all in the first eighth of the table make long clusters long before the filter is 80% full
+			BasicInfiniFilter probe = new BasicInfiniFilter(12, 16);
+			ProbeCostPolicy policy = new ProbeCostPolicy(8, 32);
+			probe.set_expansion_policy(policy);
+			long[] skewed = new long[keys.length];
+			int num_skewed = 0;
+			for (long i = 0; num_skewed < skewed.length; i++) {
+				if (probe.get_slot_index(probe.get_hash(i)) < probe.get_logical_num_slots() / 8) {
+					skewed[num_skewed++] = i;
+				}
+			}
+			fullness = fullness_at_first_expansion(probe, skewed);
+			if (fullness >= 0.8 || policy.get_average_probe_length() != 0) {
+				System.out.println("long clusters should expand the filter early and reset the policy, not at " + fullness);
+				System.exit(1);
+			}
+			
+			// the policy applies across expansions, and along the chain of older filters
+			ChainedInfiniFilter chained = new ChainedInfiniFilter(6, 12);
+			chained.set_expansion_policy(new ProbeCostPolicy(2, 16));
+			BasicInfiniFilter basic = new BasicInfiniFilter(6, 16);
+			basic.set_expansion_policy(new ProbeCostPolicy(2, 16));
+			for (long key : keys) {
+				chained.insert(key, false);
+				basic.insert(key, false);
+			}
+			for (long key : keys) {
+				if (!chained.search(key) || !basic.search(key)) {
+					System.out.println("a filter that expands by its probe cost should not lose any key");
+					System.exit(1);
+				}
+			}
+			if (chained.num_expansions < 8 || basic.num_expansions < 8) {
+				System.out.println("a filter that expands by its probe cost should have expanded");
+				System.exit(1);
+			}
+			// a clone gets its own copy of the policy
+			BasicInfiniFilter copy = (BasicInfiniFilter) basic.clone();
+			if (copy.get_expansion_policy() == basic.get_expansion_policy()) {
+				System.out.println("a clone should not share the statistics of its policy");
+				System.exit(1);
+			}
+			
+			// a custom policy decides on its own
+			BasicInfiniFilter never = new BasicInfiniFilter(10, 16);
+			never.set_expansion_policy(new ExpansionPolicy() {
+				public boolean should_expand(QuotientFilter qf, long probe_length) {
+					return false;
+				}
+			});
+			for (int i = 0; i < 900; i++) {
+				never.insert(keys[i], false);
+			}
+			if (never.num_expansions != 0) {
+				System.out.println("a policy that never expands should keep the filter at its size");
+				System.exit(1);
+			}
+		}
+		
+		// checks that a cursor reads every entry of a filter once, in slot order from where it starts, with the canonical slot 
+		// of its run, by comparing it against the runs of the occupied canonical slots
+		static void check_cursor(QuotientFilter qf) {
+			HashMap<Long, Long> buckets = new HashMap<Long, Long>();
+			long num_slots = qf.get_logical_num_slots();
+			for (long bucket = 0; bucket < num_slots; bucket++) {
+				if (qf.is_occupied(bucket)) {
+					long run_start = qf.find_run_start(bucket);
+					for (long index = run_start; index <= qf.find_run_end(run_start); index++) {
+						buckets.put(qf.wrap_slot(index), bucket);
+					}
+				}
+			}
+			EntryCursor it = new EntryCursor(qf);
+			long num_entries = 0;
+			long previous = -1;
+			while (it.next()) {
+				long slot = it.get_slot();
+				Long bucket = buckets.get(slot);
+				if (bucket == null || bucket != it.get_bucket() || (qf.circular ? slot == previous : slot <= previous)) {
+					System.out.println("the cursor misplaced the entry in slot " + slot + " in bucket " + it.get_bucket());
+					System.exit(1);
+				}
+				if (it.get_fingerprint() != qf.get_fingerprint(slot) || it.get_value() != qf.get_value(slot)) {
+					System.out.println("the cursor misread the entry in slot " + slot);
+					System.exit(1);
+				}
+				previous = slot;
+				num_entries++;
+			}
+			if (num_entries != buckets.size()) {
+				System.out.println("the cursor read " + num_entries + " entries rather than " + buckets.size());
+				System.exit(1);
+			}
+			// the cursor can be read again
+			it.reset();
+			for (long i = 0; i < num_entries; i++) {
+				it.next();
+			}
+			if (it.next()) {
+				System.out.println("a reset cursor should read the same entries");
+				System.exit(1);
+			}
+		}
+		
+		static public void test49() {
+			Random rand = new Random(49);
+			
+			// dense and sparse tables, in every layout, with holes left by deletions
+			for (int num_keys : new int[] {800, 40}) {
+				QuotientFilter plain = new QuotientFilter(10, 13);
+				QuotientFilter separate = new QuotientFilter(10, 13);
+				separate.set_separate_metadata(true);
+				QuotientFilter circular = new QuotientFilter(10, 13);
+				circular.set_circular(true);
+				QuotientFilter maplet = new QuotientFilter(10, 13);
+				maplet.set_value_bits(5);
+				QuotientFilter[] filters = {plain, separate, circular, maplet};
+				long[] keys = new long[num_keys];
+				for (int i = 0; i < keys.length; i++) {
+					keys[i] = rand.nextLong();
+				}
+				for (QuotientFilter qf : filters) {
+					qf.expand_autonomously = false;
+					for (int i = 0; i < keys.length; i++) {
+						if (qf == maplet) {
+							qf.put(keys[i], i & 31);
+						}
+						else {
+							qf.insert(keys[i], false);
+						}
+					}
+					check_cursor(qf);
+					for (int i = 0; i < keys.length; i += 3) {
+						qf.delete(keys[i]);
+					}
+					check_cursor(qf);
+				}
+			}
+			// a circular filter whose last cluster wraps around the end of the table
+			QuotientFilter wrapping = new QuotientFilter(6, 13);
+			wrapping.set_circular(true);
+			wrapping.expand_autonomously = false;
+			for (long fingerprint = 1; fingerprint < 8; fingerprint++) {
+				wrapping.insert(fingerprint, 62, false);
+				wrapping.insert(fingerprint, 0, false);
+			}
+			check_cursor(wrapping);
+			
+			// the generation of an entry is the number of expansions since it was inserted
+			BasicInfiniFilter infini = new BasicInfiniFilter(6, 20);
+			long num_since_last_expansion = 0;
+			for (int i = 0; i < 3000; i++) {
+				int num_expansions = infini.num_expansions;
+				infini.insert(rand.nextLong(), false);
+				num_since_last_expansion = infini.num_expansions == num_expansions ? num_since_last_expansion + 1 : 0;
+			}
+			check_cursor(infini);
+			EntryCursor it = new EntryCursor(infini);
+			long[] generations = new long[infini.fingerprintLength];
+			while (it.next()) {
+				generations[(int) it.get_generation()]++;
+			}
+			if (generations[0] != num_since_last_expansion || generations[1] == 0 || generations[infini.num_expansions] == 0) {
+				System.out.println("the cursor should read the generations of the entries");
+				System.exit(1);
+			}
+		}
+		
+		// splits a spliterator down to ranges that are no longer split, and returns their entries in order
+		static ArrayList<Long> split_all(Spliterator.OfLong spliterator, int[] num_parts) {
+			ArrayList<Long> entries = new ArrayList<Long>();
+			Spliterator.OfLong first_half = spliterator.trySplit();
+			if (first_half != null) {
+				entries.addAll(split_all(first_half, num_parts));
+				entries.addAll(split_all(spliterator, num_parts));
+				return entries;
+			}
+			num_parts[0]++;
+			spliterator.forEachRemaining((long entry) -> entries.add(entry));
+			return entries;
+		}
+		
+		static public void test50() {
+			Random rand = new Random(50);
+			long[] keys = new long[25000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			
+			QuotientFilter plain = new QuotientFilter(15, 16);
+			QuotientFilter separate = new QuotientFilter(15, 16);
+			separate.set_separate_metadata(true);
+			QuotientFilter circular = new QuotientFilter(15, 16);
+			circular.set_circular(true);
+			for (QuotientFilter qf : new QuotientFilter[] {plain, separate, circular}) {
+				for (long key : keys) {
+					qf.insert(key, false);
+				}
+				// the entries are those an EntryCursor reads, as hashes of their slots and fingerprints
+				ArrayList<Long> expected = new ArrayList<Long>();
+				EntryCursor it = new EntryCursor(qf);
+				while (it.next()) {
+					expected.add(it.get_fingerprint() << qf.power_of_two_size | it.get_bucket());
+				}
+				if (qf.entries().count() != qf.num_physical_entries || !Arrays.equals(qf.entries().toArray(), qf.parallel_entries().toArray())) {
+					System.out.println("a parallel stream should read the same entries as a sequential one");
+					System.exit(1);
+				}
+				// each part of a split decodes its entries on its own, and the parts hold all the entries in order
+				int[] num_parts = new int[1];
+				if (!split_all(qf.entry_spliterator(), num_parts).equals(expected) || num_parts[0] < 4) {
+					System.out.println("the parts of a split should read the entries in order");
+					System.exit(1);
+				}
+				// the entries rebuild the filter
+				QuotientFilter rebuilt = new QuotientFilter(15, 16);
+				rebuilt.build_from_hashes(qf.parallel_entries().toArray());
+				for (long key : keys) {
+					if (!rebuilt.search(key)) {
+						System.out.println("a filter rebuilt from the entries of another should hold its keys");
+						System.exit(1);
+					}
+				}
+			}
+			
+			// a histogram of the generations of the entries of an InfiniFilter
+			BasicInfiniFilter infini = new BasicInfiniFilter(8, 16);
+			for (long key : keys) {
+				infini.insert(key, false);
+			}
+			long fingerprint_mask = (1L << infini.fingerprintLength) - 1;
+			Map<Long, Long> histogram = infini.parallel_entries().boxed().collect(
+					Collectors.groupingBy(hash -> infini.get_generation(hash >>> infini.power_of_two_size & fingerprint_mask), Collectors.counting()));
+			if (histogram.get(0L) == null || histogram.get(1L) == null || histogram.values().stream().mapToLong(c -> c).sum() != infini.num_physical_entries) {
+				System.out.println("the generations of the entries should add up to the entries");
+				System.exit(1);
+			}
+			
+			// the entries of a chain of filters are those of all its filters
+			ChainedInfiniFilter chained = new ChainedInfiniFilter(4, 7);
+			Chaining chaining = new Chaining(6, 10);
+			for (long key : keys) {
+				chained.insert(key, false);
+				chaining.insert(key, false);
+			}
+			long num_chained_entries = chained.num_physical_entries + chained.secondary_IF.num_physical_entries;
+			for (QuotientFilter qf : chained.chain) {
+				num_chained_entries += qf.num_physical_entries;
+			}
+			long num_chaining_entries = chaining.num_physical_entries;
+			for (QuotientFilter qf : chaining.older_filters) {
+				num_chaining_entries += qf.num_physical_entries;
+			}
+			if (chained.chain.isEmpty() || chained.parallel_entries().count() != num_chained_entries 
+					|| chaining.older_filters.isEmpty() || chaining.parallel_entries().count() != num_chaining_entries) {
+				System.out.println("a chain of filters should stream the entries of all its filters");
+				System.exit(1);
+			}
+		}
 		
+		// checks that a parallel scan of a table merges the results of its parts into those of a scan on a single thread
+		static void check_parallel_scans(QuotientFilter qf) {
+			long num_slots = qf.get_logical_num_slots_plus_extensions();
+			QuotientFilter.ClusterCounts expected = new QuotientFilter.StatisticsScan(qf, 0, num_slots).scan();
+			Map<Integer, Integer> histogram = qf.compute_statistics();
+			if (!histogram.equals(expected.histogram) || qf.num_runs != expected.num_runs || qf.num_clusters != expected.num_clusters 
+					|| qf.avg_run_length != expected.sum_run_lengths / expected.num_runs 
+					|| qf.avg_cluster_length != expected.sum_cluster_lengths / expected.num_clusters) {
+				System.out.println("the statistics of a parallel scan should be those of a sequential one");
+				System.exit(1);
+			}
+			expected = new QuotientFilter.ClusterLengthScan(qf, 0, num_slots).scan();
+			if (expected.current_cluster_length != 0) {
+				qf.ar_sum1(expected.cluster_lengths, expected.current_cluster_length - 1);
+			}
+			if (!qf.measure_cluster_length().equals(expected.cluster_lengths) || qf.num_clusters != expected.num_clusters) {
+				System.out.println("the cluster lengths of a parallel scan should be those of a sequential one");
+				System.exit(1);
+			}
+			long num_occupied = qf.get_num_occupied_slots(false);
+			if (num_occupied != new QuotientFilter.OccupiedSlotScan(qf, 0, qf.get_physcial_num_slots()).scan() || num_occupied != qf.num_physical_entries) {
+				System.out.println("a parallel scan should count the occupied slots");
+				System.exit(1);
+			}
+		}
 		
+		static public void test51() {
+			Random rand = new Random(51);
+			
+			// full tables with long clusters, which the scans split at the starts of clusters
+			QuotientFilter plain = new QuotientFilter(18, 10);
+			plain.expand_autonomously = false;
+			for (int i = 0; i < 230000; i++) {
+				plain.insert(rand.nextLong(), false);
+			}
+			QuotientFilter separate = (QuotientFilter) plain.clone();
+			separate.set_separate_metadata(true);
+			for (QuotientFilter qf : new QuotientFilter[] {plain, separate}) {
+				long middle = qf.find_unshifted_slot(qf.get_logical_num_slots() / 2, qf.get_logical_num_slots());
+				if (qf.is_shifted(middle) || middle == qf.get_logical_num_slots()) {
+					System.out.println("a table should split at a slot that is not shifted");
+					System.exit(1);
+				}
+				check_parallel_scans(qf);
+			}
+			
+			// an InfiniFilter with entries of many ages
+			BasicInfiniFilter infini = new BasicInfiniFilter(6, 20);
+			for (int i = 0; i < 200000; i++) {
+				infini.insert(rand.nextLong(), false);
+			}
+			check_parallel_scans(infini);
+			long num_slots = infini.get_logical_num_slots_plus_extensions();
+			long[] ages = new BasicInfiniFilter.AgeScan(infini, 0, num_slots).run();
+			long[] expected_ages = new BasicInfiniFilter.AgeScan(infini, 0, num_slots).scan();
+			long num_void = new BasicInfiniFilter.VoidEntryScan(infini, 0, infini.get_physcial_num_slots()).scan();
+			if (!Arrays.equals(ages, expected_ages) || ages[1] == 0 || infini.get_num_void_entries_by_counting() != num_void) {
+				System.out.println("the ages of the entries should be counted in parallel");
+				System.exit(1);
+			}
+			
+			// a cuckoo filter is split between any two buckets
+			CuckooFilter cuckoo = new CuckooFilter(18, 12);
+			for (int i = 0; i < 200000; i++) {
+				cuckoo.insert(rand.nextLong(), false);
+			}
+			long num_occupied = cuckoo.get_num_occupied_slots(false);
+			if (num_occupied != new CuckooFilter.OccupiedSlotScan(cuckoo, 0, cuckoo.num_buckets).scan() || num_occupied < 190000) {
+				System.out.println("a parallel scan should count the occupied slots of a cuckoo filter");
+				System.exit(1);
+			}
+		}
 		
+		// a batch inserted into a filter that may expand at any insertion, since it is between the fullness bounds of its ProbeCostPolicy, 
+		// is sorted once, and then again only after each expansion
+		static public void test52() {
+			Random rand = new Random(52);
+			long[] keys = new long[8000];
+			for (int i = 0; i < keys.length; i++) {
+				keys[i] = rand.nextLong();
+			}
+			for (double max_average : new double[] {1000, 1}) {
+				final int[] num_sorts = new int[1];
+				BasicInfiniFilter batched = new BasicInfiniFilter(10, 16) {
+					void sort_batch(KeyBatch b, int from, int to) {
+						num_sorts[0]++;
+						super.sort_batch(b, from, to);
+					}
+				};
+				BasicInfiniFilter one_by_one = new BasicInfiniFilter(10, 16);
+				batched.set_expansion_policy(new ProbeCostPolicy(max_average, 1000));
+				one_by_one.set_expansion_policy(new ProbeCostPolicy(max_average, 1000));
+				if (batched.insert_batch(keys).cardinality() != keys.length) {
+					System.out.println("the filter did not insert the whole batch");
+					System.exit(1);
+				}
+				if (batched.num_expansions < 3 || num_sorts[0] > 2 * batched.num_expansions + 1) {
+					System.out.println("a batch should only be sorted again after an expansion, but it was sorted " + num_sorts[0] 
+							+ " times over " + batched.num_expansions + " expansions");
+					System.exit(1);
+				}
+				for (long key : keys) {
+					one_by_one.insert(key, false);
+					if (!batched.search(key)) {
+						System.out.println("key " + key + " is missing from the batched filter");
+						System.exit(1);
+					}
+				}
+				// a loose probe cost budget expands at the maximal fullness no matter the order of the insertions
+				if (max_average > 1 && batched.num_expansions != one_by_one.num_expansions) {
+					System.out.println("the batched filter expanded differently");
+					System.exit(1);
+				}
+			}
+		}
 		
+		// deleting from the middle of a long cluster moves the rest of the cluster back by one slot, and the runs that were shifted 
+		// by a single slot back into their canonical slots. After each deletion, the filter should have the same slots as 
+		// a filter that is rebuilt from the remaining entries, whether its metadata is interleaved or separate, or the cluster wraps around
+		static public void test53() {
+			// the canonical slot and number of entries of each run. Each run but the first and the fourth is shifted by one slot
+			int[][] runs = {{10, 3}, {12, 2}, {14, 3}, {15, 1}, {18, 2}, {20, 4}};
+			boolean[][] layouts = {{false, false}, {true, false}, {false, true}}; // separate metadata, circular
+			for (int bits_per_entry : new int[] {13, 16}) {
+				for (boolean[] layout : layouts) {
+					// the cluster of the circular filter starts near the end of the table and wraps around
+					int offset = layout[1] ? 56 : 0;
+					ArrayList<long[]> entries = new ArrayList<long[]>();
+					for (int[] run : runs) {
+						for (int i = 0; i < run[1]; i++) {
+							entries.add(new long[] {(run[0] + offset) % 64, entries.size() + 1});
+						}
+					}
+					QuotientFilter qf = new QuotientFilter(6, bits_per_entry, BitmapType.on_heap, layout[0], layout[1], null);
+					for (long[] entry : entries) {
+						qf.insert(entry[1], entry[0], false);
+					}
+					// the first deletion is from the middle of the first run
+					for (int index = 1; !entries.isEmpty(); index = entries.size() / 2) {
+						long[] deleted = entries.remove(index);
+						if (qf.delete(deleted[1], deleted[0]) < 0) {
+							System.out.println("fingerprint " + deleted[1] + " should be deleted from slot " + deleted[0]);
+							System.exit(1);
+						}
+						QuotientFilter expected = new QuotientFilter(6, bits_per_entry, BitmapType.on_heap, layout[0], layout[1], null);
+						for (long[] entry : entries) {
+							expected.insert(entry[1], entry[0], false);
+						}
+						for (long i = 0; i < qf.get_logical_num_slots_plus_extensions(); i++) {
+							if (expected.get_slot(i) != qf.get_slot(i)) {
+								System.out.println("after deleting fingerprint " + deleted[1] + " from slot " + deleted[0] 
+										+ ", the filter differs from a rebuilt one at slot " + i);
+								System.exit(1);
+							}
+						}
+					}
+					if (qf.get_num_occupied_slots(false) != 0) {
+						System.out.println("the filter should be empty once all its entries are deleted");
+						System.exit(1);
+					}
+				}
+			}
+		}
 
+}